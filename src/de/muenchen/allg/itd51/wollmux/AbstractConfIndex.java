@@ -0,0 +1,96 @@
+package de.muenchen.allg.itd51.wollmux;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.muenchen.allg.itd51.wollmux.core.parser.ConfigThingy;
+
+/**
+ * Gemeinsame Basis der Indizes, die Ergebnisse aus der wollmux.conf
+ * zwischenspeichern (siehe {@link WollMuxConfIndex} und
+ * {@link de.muenchen.allg.itd51.wollmux.document.TextFragmentIndex}). Ein Index
+ * gilt nur für die wollmux.conf, mit der er erzeugt wurde, und zählt Treffer und
+ * Fehlschläge für {@link WollMuxFiles#dumpInfo()}.
+ */
+public abstract class AbstractConfIndex
+{
+  private final ConfigThingy conf;
+
+  private final AtomicLong hits = new AtomicLong();
+
+  private final AtomicLong hitNanos = new AtomicLong();
+
+  private final AtomicLong misses = new AtomicLong();
+
+  private final AtomicLong missNanos = new AtomicLong();
+
+  protected AbstractConfIndex(ConfigThingy conf)
+  {
+    this.conf = conf;
+  }
+
+  /**
+   * Liefert true, wenn index != null ist und für die aktuell geladene wollmux.conf
+   * erzeugt wurde.
+   */
+  protected static boolean isCurrent(AbstractConfIndex index)
+  {
+    return index != null && index.conf == WollMuxFiles.getWollmuxConf();
+  }
+
+  /**
+   * Die wollmux.conf, für die der Index erzeugt wurde.
+   */
+  protected ConfigThingy getConf()
+  {
+    return conf;
+  }
+
+  /**
+   * Vermerkt einen Treffer, dessen Bearbeitung zum Zeitpunkt start (siehe
+   * {@link System#nanoTime()}) begonnen hat.
+   */
+  protected void hit(long start)
+  {
+    hits.incrementAndGet();
+    hitNanos.addAndGet(System.nanoTime() - start);
+  }
+
+  /**
+   * Vermerkt einen Fehlschlag, dessen Bearbeitung zum Zeitpunkt start (siehe
+   * {@link System#nanoTime()}) begonnen hat.
+   */
+  protected void miss(long start)
+  {
+    misses.incrementAndGet();
+    missNanos.addAndGet(System.nanoTime() - start);
+  }
+
+  /**
+   * Liefert die Anzahl der Einträge im Index.
+   */
+  protected abstract int size();
+
+  /**
+   * Liefert eine Beschreibung der Zugriffe auf den Index für
+   * {@link WollMuxFiles#dumpInfo()}.
+   */
+  public String getStatistics()
+  {
+    StringBuilder buffy = new StringBuilder();
+    buffy.append("Entries: ").append(size()).append("\n");
+    appendLatency(buffy, "Hits", hits.get(), hitNanos.get());
+    appendLatency(buffy, "Misses", misses.get(), missNanos.get());
+    return buffy.toString();
+  }
+
+  private static void appendLatency(StringBuilder buffy, String name, long count,
+      long nanos)
+  {
+    buffy.append(name).append(": ").append(count);
+    if (count > 0)
+    {
+      buffy.append(" (avg. ").append(nanos / count / 1000).append(" µs)");
+    }
+    buffy.append("\n");
+  }
+}
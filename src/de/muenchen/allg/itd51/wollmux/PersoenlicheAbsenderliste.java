@@ -2,8 +2,10 @@ package de.muenchen.allg.itd51.wollmux;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Vector;
 
 import org.slf4j.Logger;
@@ -19,6 +21,7 @@ import de.muenchen.allg.itd51.wollmux.core.db.DatasetNotFoundException;
 import de.muenchen.allg.itd51.wollmux.core.db.DatasourceJoiner;
 import de.muenchen.allg.itd51.wollmux.core.db.QueryResults;
 import de.muenchen.allg.itd51.wollmux.db.DatasourceJoinerFactory;
+import de.muenchen.allg.itd51.wollmux.event.handlers.OnPALChangedNotify;
 
 public class PersoenlicheAbsenderliste implements XPALProvider, Iterable<XPALChangeEventListener>
 {
@@ -47,6 +50,12 @@ public class PersoenlicheAbsenderliste implements XPALProvider, Iterable<XPALCha
    * der Methoden des {@link XPALProvider}-Interfaces.
    */
   public static final String SENDER_KEY_SEPARATOR = "§§%=%§§";
+
+  /**
+   * Die zwischengespeicherte sortierte PAL oder null, wenn sie beim nächsten
+   * Zugriff neu aufgebaut werden muss.
+   */
+  private volatile PALSnapshot snapshot;
   
   private PersoenlicheAbsenderliste()
   {
@@ -126,15 +135,7 @@ public class PersoenlicheAbsenderliste implements XPALProvider, Iterable<XPALCha
   @Override
   public String[] getPALEntries()
   {
-    List<DJDataset> pal = getSortedPALEntries();
-    String[] elements = new String[pal.size()];
-    for (int i = 0; i < pal.size(); i++)
-    {
-      elements[i] =
-          pal.get(i).toString() + SENDER_KEY_SEPARATOR + pal.get(i).getKey();
-    }
-
-    return elements;
+    return getSnapshot().entries.clone();
   }
 
   /**
@@ -154,21 +155,111 @@ public class PersoenlicheAbsenderliste implements XPALProvider, Iterable<XPALCha
    */
   public List<DJDataset> getSortedPALEntries()
   {
-    // Liste der entries aufbauen.
-    QueryResults data = DatasourceJoinerFactory.getDatasourceJoiner().getLOS();
-  
-    List<DJDataset> listDataset = new ArrayList<>();
-    Iterator<Dataset> iter = data.iterator();
+    return new ArrayList<>(getSnapshot().sorted);
+  }
+
+  /**
+   * Liefert den Eintrag der PAL mit dem Index idx (siehe {@link #getPALEntries()}),
+   * falls dessen String-Repräsentation entry ist, ansonsten null. Der Index wird
+   * benötigt, da kopierte Einträge der PAL den gleichen Schlüssel und die gleiche
+   * String-Repräsentation haben können.
+   */
+  public DJDataset getPALEntry(String entry, int idx)
+  {
+    PALSnapshot current = getSnapshot();
+    if (idx < 0 || idx >= current.entries.length
+      || !current.entries[idx].equals(entry))
+      return null;
+    return current.sorted.get(idx);
+  }
+
+  /**
+   * Verwirft die zwischengespeicherte sortierte PAL. Muss aufgerufen werden, wenn
+   * sich die Inhalte von Einträgen der PAL geändert haben (siehe
+   * {@link OnPALChangedNotify}). Hinzugefügte und entfernte Einträge werden auch
+   * ohne diesen Aufruf erkannt.
+   */
+  public void invalidate()
+  {
+    snapshot = null;
+  }
 
-    while (iter.hasNext())
+  /**
+   * Liefert die zwischengespeicherte sortierte PAL und baut sie neu auf, wenn sie
+   * verworfen wurde oder sich die Menge der Einträge der LOS geändert hat.
+   */
+  private synchronized PALSnapshot getSnapshot()
+  {
+    QueryResults los = DatasourceJoinerFactory.getDatasourceJoiner().getLOS();
+    PALSnapshot current = snapshot;
+    if (current == null || !current.isSnapshotOf(los))
     {
-      listDataset.add((DJDataset) iter.next());
+      current = new PALSnapshot(los);
+      snapshot = current;
     }
+    return current;
+  }
 
-    DatasourceJoinerFactory.getDatasourceJoiner();
-    Collections.sort(listDataset, DatasourceJoiner.sortPAL);
-  
-    return listDataset;
+  /**
+   * Die sortierte PAL mit den String-Repräsentationen der Einträge, wie sie
+   * {@link PersoenlicheAbsenderliste#getPALEntries()} liefert.
+   */
+  private static class PALSnapshot
+  {
+    /**
+     * Die Einträge der LOS in der Reihenfolge, in der sie die LOS geliefert hat.
+     */
+    private final List<DJDataset> los;
+
+    private final List<DJDataset> sorted;
+
+    private final String[] entries;
+
+    /**
+     * Bildet die Schlüssel der Einträge auf den Index des ersten Eintrags mit
+     * diesem Schlüssel in {@link #sorted} ab. Schlüssel sind nicht eindeutig, da
+     * kopierte Einträge den Schlüssel des Originals behalten.
+     */
+    private final Map<String, Integer> keyToIndex;
+
+    PALSnapshot(QueryResults los)
+    {
+      List<DJDataset> losList = new ArrayList<>(los.size());
+      for (Dataset ds : los)
+      {
+        losList.add((DJDataset) ds);
+      }
+      this.los = losList;
+      List<DJDataset> sortedList = new ArrayList<>(losList);
+      Collections.sort(sortedList, DatasourceJoiner.sortPAL);
+      sorted = Collections.unmodifiableList(sortedList);
+
+      entries = new String[sorted.size()];
+      keyToIndex = new HashMap<>();
+      for (int i = 0; i < sorted.size(); i++)
+      {
+        String key = sorted.get(i).getKey();
+        entries[i] = sorted.get(i).toString() + SENDER_KEY_SEPARATOR + key;
+        keyToIndex.putIfAbsent(key, i);
+      }
+    }
+
+    /**
+     * Liefert true, wenn los genau die Einträge (im Sinne von ==) in der gleichen
+     * Reihenfolge enthält wie die LOS beim Erzeugen dieses Snapshots.
+     */
+    boolean isSnapshotOf(QueryResults los)
+    {
+      if (los.size() != this.los.size())
+        return false;
+      int i = 0;
+      for (Dataset ds : los)
+      {
+        if (ds != this.los.get(i++))
+          return false;
+      }
+      return true;
+    }
   }
 
   /**
@@ -194,6 +285,10 @@ public class PersoenlicheAbsenderliste implements XPALProvider, Iterable<XPALCha
     try
     {
       DJDataset selected = DatasourceJoinerFactory.getDatasourceJoiner().getSelectedDataset();
+      PALSnapshot current = getSnapshot();
+      Integer index = current.keyToIndex.get(selected.getKey());
+      if (index != null && current.sorted.get(index) == selected)
+        return current.entries[index];
       return selected.toString()
         + SENDER_KEY_SEPARATOR + selected.getKey();
     }
@@ -40,7 +40,9 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.LinkedHashMap;
 import java.util.ListIterator;
+import java.util.Map;
 import java.util.Random;
 import java.util.Vector;
 import java.util.regex.Matcher;
@@ -80,6 +82,7 @@ import de.muenchen.allg.itd51.wollmux.core.util.Utils;
 import de.muenchen.allg.itd51.wollmux.dialog.SachleitendeVerfuegungenDruckdialog;
 import de.muenchen.allg.itd51.wollmux.document.DocumentManager;
 import de.muenchen.allg.itd51.wollmux.document.TextDocumentController;
+import de.muenchen.allg.itd51.wollmux.event.WollMuxEventHandler;
 
 public class SachleitendeVerfuegung
 {
@@ -1011,16 +1014,33 @@ public class SachleitendeVerfuegung
    */
   private static Vector<Verfuegungspunkt> scanVerfuegungspunkte(XTextDocument doc)
   {
-    Vector<Verfuegungspunkt> verfuegungspunkte = new Vector<Verfuegungspunkt>();
+    return scanStruktur(doc).getVerfuegungspunkte();
+  }
+
+  /**
+   * Durchläuft alle Absätze im Haupttextbereich des Dokuments doc genau einmal und
+   * liefert die Struktur der Sachleitenden Verfügung, über die anschließend alle
+   * Verfügungspunkte gedruckt werden können, ohne das Dokument erneut zu
+   * durchsuchen.
+   *
+   * Die Struktur ist eine Momentaufnahme und muss neu erzeugt werden, wenn sich der
+   * Text des Dokuments (z.B. durch das Einfügen von Verfügungspunkten) ändert.
+   *
+   * @param doc
+   *          Das zu scannende Dokument
+   */
+  public static VerfuegungsStruktur scanStruktur(XTextDocument doc)
+  {
+    VerfuegungsStruktur struktur = new VerfuegungsStruktur(doc);
 
     // Verfügungspunkt1 hinzufügen wenn verfügbar.
-    XTextRange punkt1 = getVerfuegungspunkt1(doc);
-    if (punkt1 != null)
+    struktur.punkt1 = getVerfuegungspunkt1(doc);
+    if (struktur.punkt1 != null)
     {
       Verfuegungspunkt original =
         new Verfuegungspunkt(L.m(romanNumbers[0] + " Original"));
       original.addZuleitungszeile(L.m("Empfänger siehe Empfängerfeld"));
-      verfuegungspunkte.add(original);
+      struktur.verfuegungspunkte.add(original);
     }
 
     Verfuegungspunkt currentVerfpunkt = null;
@@ -1042,10 +1062,11 @@ public class SachleitendeVerfuegung
 
       if (isVerfuegungspunkt(cursor))
       {
+        struktur.paragraphs.add(cursor.getText().createTextCursorByRange(cursor));
         String heading = cursor.getString();
         currentVerfpunkt = new Verfuegungspunkt(heading);
         currentVerfpunkt.setMinNumberOfCopies(1);
-        verfuegungspunkte.add(currentVerfpunkt);
+        struktur.verfuegungspunkte.add(currentVerfpunkt);
       }
 
       // Zuleitungszeilen hinzufügen (auch wenn der Paragraph Verfügungspunkt
@@ -1061,7 +1082,171 @@ public class SachleitendeVerfuegung
       }
     } while (cursor.gotoNextParagraph(false));
 
-    return verfuegungspunkte;
+    return struktur;
+  }
+
+  /**
+   * Die Struktur einer Sachleitenden Verfügung, wie sie von
+   * {@link SachleitendeVerfuegung#scanStruktur(XTextDocument)} ermittelt wird: Die
+   * Absätze aller Verfügungspunkte und für jede TextSection die Verfügungspunkte,
+   * bei deren Druck sie ausgeblendet werden muss.
+   */
+  public static class VerfuegungsStruktur
+  {
+    private final XTextDocument doc;
+
+    /**
+     * Der Text des Rahmens WollMuxVerfuegungspunkt1 oder null.
+     */
+    private XTextRange punkt1;
+
+    /**
+     * Die Absätze der Verfügungspunkte im Haupttext in der Reihenfolge des
+     * Dokuments (ohne den Rahmen WollMuxVerfuegungspunkt1).
+     */
+    private final List<XTextRange> paragraphs = new ArrayList<XTextRange>();
+
+    private final Vector<Verfuegungspunkt> verfuegungspunkte =
+      new Vector<Verfuegungspunkt>();
+
+    private final List<XTextSection> sections = new ArrayList<XTextSection>();
+
+    /**
+     * Zu jeder TextSection aus {@link #sections} die Anzahl der Verfügungspunkte im
+     * Haupttext, die vor oder an ihrem Anker beginnen. Die TextSection muss
+     * ausgeblendet werden, wenn der Haupttext ab einem dieser Verfügungspunkte
+     * ausgeblendet wird.
+     */
+    private int[] sectionPunkte;
+
+    private VerfuegungsStruktur(XTextDocument doc)
+    {
+      this.doc = doc;
+    }
+
+    /**
+     * Liefert die Verfügungspunkte für den Druckdialog.
+     */
+    public Vector<Verfuegungspunkt> getVerfuegungspunkte()
+    {
+      return verfuegungspunkte;
+    }
+
+    /**
+     * Liefert die Anzahl der Verfügungspunkte einschließlich des Rahmens
+     * WollMuxVerfuegungspunkt1.
+     */
+    public int size()
+    {
+      return verfuegungspunkte.size();
+    }
+
+    /**
+     * Liefert den Verfügungspunkt I, also den Rahmen WollMuxVerfuegungspunkt1 oder
+     * den ersten Verfügungspunkt im Haupttext, oder null, wenn es keinen gibt.
+     */
+    private XTextRange getPunkt1()
+    {
+      if (punkt1 != null) return punkt1;
+      return paragraphs.isEmpty() ? null : paragraphs.get(0);
+    }
+
+    /**
+     * Liefert den Index in {@link #paragraphs} des ersten Verfügungspunktes, der beim
+     * Druck des Verfügungspunktes verfPunkt ausgeblendet wird, oder -1, wenn nichts
+     * ausgeblendet werden muss.
+     */
+    private int getFirstHidden(int verfPunkt)
+    {
+      int index = (punkt1 != null) ? verfPunkt - 1 : verfPunkt;
+      if (index < 0 || index >= paragraphs.size()) return -1;
+      return index;
+    }
+
+    /**
+     * Liefert den Bereich vom Beginn des ersten auszublendenden Verfügungspunktes
+     * bis zum Ende des Dokuments oder null, wenn beim Druck des Verfügungspunktes
+     * verfPunkt nichts ausgeblendet werden muss.
+     */
+    private XTextRange getInvisibleRange(int verfPunkt)
+    {
+      int index = getFirstHidden(verfPunkt);
+      if (index < 0) return null;
+      XTextRange par = paragraphs.get(index);
+      XTextCursor cursor = par.getText().createTextCursorByRange(par.getStart());
+      cursor.gotoRange(cursor.getText().getEnd(), true);
+      return cursor;
+    }
+
+    /**
+     * Liefert alle TextSections, deren Anker an der selben Position oder hinter dem
+     * Beginn des beim Druck des Verfügungspunktes verfPunkt ausgeblendeten Bereichs
+     * liegt.
+     */
+    private List<XTextSection> getHidingSections(int verfPunkt)
+    {
+      List<XTextSection> hiding = new ArrayList<XTextSection>();
+      int index = getFirstHidden(verfPunkt);
+      if (index < 0) return hiding;
+      if (sectionPunkte == null) scanSections();
+      for (int i = 0; i < sections.size(); ++i)
+        if (index < sectionPunkte[i]) hiding.add(sections.get(i));
+      return hiding;
+    }
+
+    /**
+     * Bestimmt beim ersten Druck einmalig für alle TextSections des Dokuments, ab
+     * welchem Verfügungspunkt sie ausgeblendet werden müssen.
+     */
+    private void scanSections()
+    {
+      sectionPunkte = new int[0];
+      XTextRangeCompare comp = UNO.XTextRangeCompare(doc.getText());
+      if (comp == null) return;
+      XTextSectionsSupplier suppl = UNO.XTextSectionsSupplier(doc);
+      if (suppl == null) return;
+
+      XNameAccess textSections = suppl.getTextSections();
+      String[] names = textSections.getElementNames();
+      List<Integer> punkte = new ArrayList<Integer>();
+      for (int i = 0; i < names.length; i++)
+      {
+        XTextSection section = null;
+        try
+        {
+          section = UNO.XTextSection(textSections.getByName(names[i]));
+        }
+        catch (java.lang.Exception e)
+        {
+          LOGGER.error("", e);
+        }
+        if (section == null) continue;
+
+        int count = 0;
+        try
+        {
+          XTextRange anchor = section.getAnchor();
+          while (count < paragraphs.size()
+            && comp.compareRegionStarts(paragraphs.get(count).getStart(), anchor) >= 0)
+            count++;
+        }
+        catch (IllegalArgumentException e)
+        {
+          // kein Fehler, da die Exceptions immer fliegt, wenn die ranges in
+          // unterschiedlichen Textobjekten liegen.
+          count = 0;
+        }
+        if (count > 0)
+        {
+          sections.add(section);
+          punkte.add(count);
+        }
+      }
+
+      sectionPunkte = new int[punkte.size()];
+      for (int i = 0; i < sectionPunkte.length; ++i)
+        sectionPunkte[i] = punkte.get(i);
+    }
   }
 
   /**
@@ -1333,8 +1518,21 @@ public class SachleitendeVerfuegung
   public static void printVerfuegungspunkt(XPrintModel pmod, int verfPunkt,
       boolean isDraft, boolean isOriginal, short copyCount)
   {
-    XTextDocument doc = pmod.getTextDocument();
+    printVerfuegungspunkt(pmod, scanStruktur(pmod.getTextDocument()), verfPunkt,
+      isDraft, isOriginal, copyCount);
+  }
 
+  /**
+   * Wie {@link #printVerfuegungspunkt(XPrintModel, int, boolean, boolean, short)},
+   * jedoch werden die auszublendenden Bereiche der zuvor mit
+   * {@link #scanStruktur(XTextDocument)} ermittelten Struktur struktur entnommen,
+   * so dass beim Druck mehrerer Verfügungspunkte das Dokument nur einmal
+   * durchsucht werden muss.
+   */
+  public static void printVerfuegungspunkt(XPrintModel pmod,
+      VerfuegungsStruktur struktur, int verfPunkt, boolean isDraft,
+      boolean isOriginal, short copyCount)
+  {
     // Steht der viewCursor in einem Bereich, der im folgenden ausgeblendet
     // wird, dann wird der ViewCursor in einen sichtbaren Bereich verschoben. Um
     // den viewCursor wieder herstellen zu können, wird er hier gesichert und
@@ -1346,41 +1544,13 @@ public class SachleitendeVerfuegung
     if (suppl != null) vc = suppl.getViewCursor();
     if (vc != null) oldViewCursor = vc.getText().createTextCursorByRange(vc);
 
-    // Zähler für Verfuegungspunktnummer auf 1 initialisieren, wenn ein
-    // Verfuegungspunkt1 vorhanden ist.
-    XTextRange punkt1 = getVerfuegungspunkt1(doc);
-    int count = 0;
-    if (punkt1 != null) count++;
-
     // Auszublendenden Bereich festlegen:
-    XTextRange setInvisibleRange = null;
-    XParagraphCursor cursor =
-      UNO.XParagraphCursor(doc.getText().createTextCursorByRange(
-        doc.getText().getStart()));
-    if (cursor != null) do
-    {
-      cursor.gotoEndOfParagraph(true);
-
-      if (isVerfuegungspunkt(cursor))
-      {
-        // Punkt1 merken
-      if (punkt1 == null) punkt1 = cursor.getText().createTextCursorByRange(cursor);
-
-      count++;
-
-      if (count == (verfPunkt + 1))
-      {
-        cursor.collapseToStart();
-        cursor.gotoRange(cursor.getText().getEnd(), true);
-        setInvisibleRange = cursor;
-      }
-    }
-  } while (setInvisibleRange == null && cursor.gotoNextParagraph(false));
+    XTextRange punkt1 = struktur.getPunkt1();
+    XTextRange setInvisibleRange = struktur.getInvisibleRange(verfPunkt);
 
     // Prüfen, welche Textsections im ausgeblendeten Bereich liegen und diese
     // ebenfalls ausblenden (und den alten Stand merken):
-    List<XTextSection> hidingSections =
-      getSectionsFromPosition(pmod.getTextDocument(), setInvisibleRange);
+    List<XTextSection> hidingSections = struktur.getHidingSections(verfPunkt);
     HashMap<XTextSection, Boolean> sectionOldState =
       new HashMap<XTextSection, Boolean>();
     for (XTextSection section : hidingSections)
@@ -1407,19 +1577,21 @@ public class SachleitendeVerfuegung
       }
     }
 
-    // Ein/Ausblenden Druckblöcke (z.B. draftOnly):
-    pmod.setPrintBlocksProps(BLOCKNAME_SLV_DRAFT_ONLY, isDraft, false);
-    pmod.setPrintBlocksProps(BLOCKNAME_SLV_NOT_IN_ORIGINAL, !isOriginal, false);
-    pmod.setPrintBlocksProps(BLOCKNAME_SLV_ORIGINAL_ONLY, isOriginal, false);
-    pmod.setPrintBlocksProps(BLOCKNAME_SLV_ALL_VERSIONS, true, false);
-    pmod.setPrintBlocksProps(BLOCKNAME_SLV_COPY_ONLY, !isDraft && !isOriginal, false);
-
-    // Ein/Ausblenden der Sichtbarkeitsgruppen:
-    pmod.setGroupVisible(GROUP_ID_SLV_DRAFT_ONLY, isDraft);
-    pmod.setGroupVisible(GROUP_ID_SLV_NOT_IN_ORIGINAL, !isOriginal);
-    pmod.setGroupVisible(GROUP_ID_SLV_ORIGINAL_ONLY, isOriginal);
-    pmod.setGroupVisible(GROUP_ID_SLV_ALL_VERSIONS, true);
-    pmod.setGroupVisible(GROUP_ID_SLV_COPY_ONLY, !isDraft && !isOriginal);
+    // Ein/Ausblenden Druckblöcke (z.B. draftOnly) und Sichtbarkeitsgruppen:
+    boolean isCopy = !isDraft && !isOriginal;
+    Map<String, Boolean> printBlocks = new LinkedHashMap<String, Boolean>();
+    printBlocks.put(BLOCKNAME_SLV_DRAFT_ONLY, isDraft);
+    printBlocks.put(BLOCKNAME_SLV_NOT_IN_ORIGINAL, !isOriginal);
+    printBlocks.put(BLOCKNAME_SLV_ORIGINAL_ONLY, isOriginal);
+    printBlocks.put(BLOCKNAME_SLV_ALL_VERSIONS, true);
+    printBlocks.put(BLOCKNAME_SLV_COPY_ONLY, isCopy);
+    Map<String, Boolean> groups = new LinkedHashMap<String, Boolean>();
+    groups.put(GROUP_ID_SLV_DRAFT_ONLY, isDraft);
+    groups.put(GROUP_ID_SLV_NOT_IN_ORIGINAL, !isOriginal);
+    groups.put(GROUP_ID_SLV_ORIGINAL_ONLY, isOriginal);
+    groups.put(GROUP_ID_SLV_ALL_VERSIONS, true);
+    groups.put(GROUP_ID_SLV_COPY_ONLY, isCopy);
+    setPrintVisibility(pmod, printBlocks, false, groups);
 
     // Ziffer von Punkt 1 ausblenden falls isOriginal
     XTextRange punkt1ZifferOnly = null;
@@ -1455,19 +1627,13 @@ public class SachleitendeVerfuegung
       }
     }
 
-    // Sichtbarkeitsgruppen wieder einblenden
-    pmod.setGroupVisible(GROUP_ID_SLV_DRAFT_ONLY, true);
-    pmod.setGroupVisible(GROUP_ID_SLV_NOT_IN_ORIGINAL, true);
-    pmod.setGroupVisible(GROUP_ID_SLV_ORIGINAL_ONLY, true);
-    pmod.setGroupVisible(GROUP_ID_SLV_ALL_VERSIONS, true);
-    pmod.setGroupVisible(GROUP_ID_SLV_COPY_ONLY, true);
-
-    // Alte Eigenschaften der Druckblöcke wieder herstellen:
-    pmod.setPrintBlocksProps(BLOCKNAME_SLV_DRAFT_ONLY, true, true);
-    pmod.setPrintBlocksProps(BLOCKNAME_SLV_NOT_IN_ORIGINAL, true, true);
-    pmod.setPrintBlocksProps(BLOCKNAME_SLV_ORIGINAL_ONLY, true, true);
-    pmod.setPrintBlocksProps(BLOCKNAME_SLV_ALL_VERSIONS, true, true);
-    pmod.setPrintBlocksProps(BLOCKNAME_SLV_COPY_ONLY, true, true);
+    // Sichtbarkeitsgruppen wieder einblenden und alte Eigenschaften der
+    // Druckblöcke wieder herstellen:
+    for (Map.Entry<String, Boolean> block : printBlocks.entrySet())
+      block.setValue(Boolean.TRUE);
+    for (Map.Entry<String, Boolean> group : groups.entrySet())
+      group.setValue(Boolean.TRUE);
+    setPrintVisibility(pmod, printBlocks, true, groups);
 
     // ausgeblendete TextSections wieder einblenden
     for (XTextSection section : hidingSections)
@@ -1495,56 +1661,21 @@ public class SachleitendeVerfuegung
   }
 
   /**
-   * Diese Methode liefert in eine Liste aller Textsections aus doc, deren Anker an
-   * der selben Position oder hinter der Position der TextRange pos liegt.
-   *
-   * @param doc
-   *          Textdokument in dem alle enthaltenen Textsections geprüft werden.
-   * @param pos
-   *          Position, ab der die TextSections in den Vector aufgenommen werden
-   *          sollen.
-   * @return eine Liste aller TextSections, die an oder nach pos starten oder eine
-   *         leere Liste, wenn es Fehler gab oder keine Textsection gefunden wurde.
+   * Setzt die Sichtbarkeit der Druckblöcke printBlocks und der Gruppen groups des
+   * Dokuments von pmod in einem Durchgang (siehe
+   * {@link TextDocumentController#setPrintVisibility(Map, boolean, Map)}) und
+   * wartet, bis die Änderungen durchgeführt sind.
    */
-  private static List<XTextSection> getSectionsFromPosition(XTextDocument doc,
-      XTextRange pos)
+  private static void setPrintVisibility(XPrintModel pmod,
+      Map<String, Boolean> printBlocks, boolean showHighlightColor,
+      Map<String, Boolean> groups)
   {
-    Vector<XTextSection> v = new Vector<XTextSection>();
-    if (pos == null) return v;
-    XTextRangeCompare comp = UNO.XTextRangeCompare(pos.getText());
-    if (comp == null) return v;
-    XTextSectionsSupplier suppl = UNO.XTextSectionsSupplier(doc);
-    if (suppl == null) return v;
-
-    XNameAccess sections = suppl.getTextSections();
-    String[] names = sections.getElementNames();
-    for (int i = 0; i < names.length; i++)
-    {
-      XTextSection section = null;
-      try
-      {
-        section = UNO.XTextSection(sections.getByName(names[i]));
-      }
-      catch (java.lang.Exception e)
-      {
-        LOGGER.error("", e);
-      }
-
-      if (section != null)
-      {
-        try
-        {
-          int diff = comp.compareRegionStarts(pos, section.getAnchor());
-          if (diff >= 0) v.add(section);
-        }
-        catch (IllegalArgumentException e)
-        {
-          // kein Fehler, da die Exceptions immer fliegt, wenn die ranges in
-          // unterschiedlichen Textobjekten liegen.
-        }
-      }
-    }
-    return v;
+    TextDocumentController documentController =
+      DocumentManager.getTextDocumentController(pmod.getTextDocument());
+    SyncActionListener s = new SyncActionListener();
+    WollMuxEventHandler.getInstance().handleSetPrintVisibility(documentController,
+      printBlocks, showHighlightColor, groups, s);
+    s.synchronize();
   }
 
   /**
@@ -0,0 +1,113 @@
+package de.muenchen.allg.itd51.wollmux;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import de.muenchen.allg.itd51.wollmux.core.parser.ConfigThingy;
+
+/**
+ * Index über die wollmux.conf, der die Ergebnisse häufiger Anfragen
+ * zwischenspeichert, z.B. den Abschnitt Fenster/Formular, der bei jedem Öffnen
+ * eines Formulars benötigt wird.
+ *
+ * Jede Anfrage wird nur beim ersten Zugriff über
+ * {@link ConfigThingy#query(String)} bzw. {@link ConfigThingy#query(String, int)}
+ * auf der wollmux.conf ausgeführt, danach kommt das Ergebnis aus dem Index. Der
+ * Index gilt solange, bis eine neue wollmux.conf geladen wird (siehe
+ * {@link #getInstance()}).
+ *
+ * Jeder Aufrufer erhält wie bei {@link ConfigThingy#query(String)} einen eigenen
+ * Ergebnisknoten, dessen Kinder die Knoten der wollmux.conf selbst sind. Der
+ * Ergebnisknoten darf verändert werden, seine Kinder nicht.
+ */
+public class WollMuxConfIndex extends AbstractConfIndex
+{
+  private static WollMuxConfIndex instance;
+
+  private final Map<String, ConfigThingy> queries = new ConcurrentHashMap<>();
+
+  /**
+   * Liefert den Index zur aktuellen wollmux.conf.
+   */
+  public static synchronized WollMuxConfIndex getInstance()
+  {
+    if (!isCurrent(instance))
+    {
+      instance = new WollMuxConfIndex(WollMuxFiles.getWollmuxConf());
+    }
+    return instance;
+  }
+
+  private WollMuxConfIndex(ConfigThingy conf)
+  {
+    super(conf);
+  }
+
+  /**
+   * Liefert das Ergebnis von
+   * <code>getWollmuxConf().query(path[0]).query(path[1])...</code>.
+   */
+  public ConfigThingy query(String... path)
+  {
+    long start = System.nanoTime();
+    String key = String.join("/", path);
+    ConfigThingy result = queries.get(key);
+    if (result != null)
+    {
+      hit(start);
+      return copyOf(result);
+    }
+
+    result = getConf();
+    for (String name : path)
+    {
+      result = result.query(name);
+    }
+    return put(key, result, start);
+  }
+
+  /**
+   * Liefert das Ergebnis von <code>getWollmuxConf().query(name, 1)</code>, d.h.
+   * nur die Abschnitte name auf oberster Ebene der wollmux.conf.
+   */
+  public ConfigThingy queryTopLevel(String name)
+  {
+    long start = System.nanoTime();
+    String key = "1:" + name;
+    ConfigThingy result = queries.get(key);
+    if (result != null)
+    {
+      hit(start);
+      return copyOf(result);
+    }
+
+    return put(key, getConf().query(name, 1), start);
+  }
+
+  private ConfigThingy put(String key, ConfigThingy result, long start)
+  {
+    ConfigThingy old = queries.putIfAbsent(key, result);
+    miss(start);
+    return copyOf(old != null ? old : result);
+  }
+
+  /**
+   * Liefert einen neuen Knoten mit dem Namen und den Kindern von result, so dass
+   * Änderungen am Ergebnisknoten den Index nicht verändern.
+   */
+  private static ConfigThingy copyOf(ConfigThingy result)
+  {
+    ConfigThingy copy = new ConfigThingy(result.getName());
+    for (ConfigThingy child : result)
+    {
+      copy.addChild(child);
+    }
+    return copy;
+  }
+
+  @Override
+  protected int size()
+  {
+    return queries.size();
+  }
+}
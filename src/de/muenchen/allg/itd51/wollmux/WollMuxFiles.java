@@ -72,11 +72,15 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.Writer;
 import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.UnknownHostException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Enumeration;
@@ -118,6 +122,9 @@ import de.muenchen.allg.itd51.wollmux.core.util.LogConfig;
 import de.muenchen.allg.itd51.wollmux.core.util.Utils;
 import de.muenchen.allg.itd51.wollmux.dialog.Common;
 import de.muenchen.allg.itd51.wollmux.dialog.InfoDialog;
+import de.muenchen.allg.itd51.wollmux.document.DocumentLoader;
+import de.muenchen.allg.itd51.wollmux.document.TextFragmentIndex;
+import de.muenchen.allg.itd51.wollmux.event.WollMuxEventHandler;
 
 /**
  *
@@ -789,6 +796,22 @@ public class WollMuxFiles
 
       out.write("===================== END java-memoryinfo ==================\n");
 
+      out.write("===================== START EventProcessor ==================\n");
+      out.write(WollMuxEventHandler.getInstance().getEventProcessorStatistics());
+      out.write("===================== END EventProcessor ==================\n");
+
+      out.write("===================== START DocumentLoader ==================\n");
+      out.write(DocumentLoader.getInstance().getCacheStatistics());
+      out.write("===================== END DocumentLoader ==================\n");
+
+      out.write("===================== START TextFragmentIndex ==================\n");
+      out.write(TextFragmentIndex.getInstance().getStatistics());
+      out.write("===================== END TextFragmentIndex ==================\n");
+
+      out.write("===================== START WollMuxConfIndex ==================\n");
+      out.write(WollMuxConfIndex.getInstance().getStatistics());
+      out.write("===================== END WollMuxConfIndex ==================\n");
+
       out.write("===================== START wollmuxConfFile ==================\n");
       out.flush(); // weil wir gleich direkt auf den Stream zugreifen
       if (getWollMuxConfFile() != null)
@@ -1026,15 +1049,36 @@ public class WollMuxFiles
 
   /**
    * Schreibt die Kinder von conf (also keinen umschließenden Wurzel-Abschnitt) in
-   * die Datei file.
+   * die Datei file. Es wird zunächst in eine temporäre Datei geschrieben, die dann
+   * in file umbenannt wird, so dass file auch bei einem Absturz während des
+   * Schreibens nicht beschädigt wird.
    */
   public static void writeConfToFile(File file, ConfigThingy conf)
       throws IOException
   {
-    try (OutputStreamWriter out = new OutputStreamWriter(new FileOutputStream(file), ConfigThingy.CHARSET))
+    File tmp = File.createTempFile(file.getName(), ".tmp",
+      file.getAbsoluteFile().getParentFile());
+    try
+    {
+      try (Writer out = new BufferedWriter(new OutputStreamWriter(
+        new FileOutputStream(tmp), ConfigThingy.CHARSET)))
+      {
+        out.write("\uFEFF");
+        out.write(conf.stringRepresentation(true, '"'));
+      }
+      try
+      {
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      }
+      catch (AtomicMoveNotSupportedException e)
+      {
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+    }
+    finally
     {
-      out.write("\uFEFF");
-      out.write(conf.stringRepresentation(true, '"'));
+      tmp.delete();
     }
   }
 
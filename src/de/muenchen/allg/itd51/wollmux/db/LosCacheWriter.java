@@ -0,0 +1,176 @@
+package de.muenchen.allg.itd51.wollmux.db;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.muenchen.allg.itd51.wollmux.WollMuxFiles;
+import de.muenchen.allg.itd51.wollmux.core.parser.ConfigThingy;
+import de.muenchen.allg.itd51.wollmux.event.WollMuxEventHandler;
+
+/**
+ * Speichert den Cache und die LOS des DatasourceJoiners verzögert in die Datei
+ * {@link WollMuxFiles#getLosCacheFile()}.
+ *
+ * Änderungen an der PAL werden über {@link #scheduleSave()} gemeldet. Alle
+ * Änderungen innerhalb von {@link #DELAY} Millisekunden werden zu einem
+ * Speichervorgang zusammengefasst. Der Zustand des DatasourceJoiners wird im
+ * EventProcessor ausgelesen (siehe {@link #save()}), da nur dort die PAL verändert
+ * wird; die Datei wird im Hintergrund geschrieben.
+ *
+ * Beim Beenden der JVM wird für noch nicht gespeicherte Änderungen ebenfalls über
+ * den EventProcessor gespeichert (siehe {@link #flush()}). Wird die JVM hart
+ * beendet, gehen die Änderungen der letzten {@link #DELAY} Millisekunden verloren.
+ */
+public class LosCacheWriter
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger(LosCacheWriter.class);
+
+  /**
+   * Zeit in Millisekunden, die nach einer Änderung auf weitere Änderungen gewartet
+   * wird, bevor gespeichert wird.
+   */
+  private static final long DELAY = 2000;
+
+  /**
+   * Zeit in Millisekunden, die beim Beenden der JVM höchstens auf den
+   * EventProcessor gewartet wird.
+   */
+  private static final long SHUTDOWN_TIMEOUT = 5000;
+
+  private static LosCacheWriter instance;
+
+  private final ScheduledExecutorService executor;
+
+  /**
+   * true, wenn ein Speichervorgang angestoßen, der Zustand aber noch nicht
+   * ausgelesen wurde.
+   */
+  private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+  /**
+   * Der ausgelesene, aber noch nicht geschriebene Zustand oder null.
+   */
+  private ConfigThingy pending;
+
+  /**
+   * Die Anzahl der bisher von {@link #save()} ausgelesenen Zustände.
+   */
+  private long saveCount = 0;
+
+  public static synchronized LosCacheWriter getInstance()
+  {
+    if (instance == null)
+    {
+      instance = new LosCacheWriter();
+    }
+    return instance;
+  }
+
+  private LosCacheWriter()
+  {
+    executor = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "WollMux LosCacheWriter");
+      t.setDaemon(true);
+      return t;
+    });
+    Runtime.getRuntime().addShutdownHook(new Thread(this::flush));
+  }
+
+  /**
+   * Veranlasst, dass Cache und LOS in spätestens {@link #DELAY} Millisekunden
+   * gespeichert werden. Weitere Aufrufe bis dahin lösen keinen weiteren
+   * Speichervorgang aus.
+   */
+  public void scheduleSave()
+  {
+    if (scheduled.compareAndSet(false, true))
+    {
+      executor.schedule(
+        () -> WollMuxEventHandler.getInstance().handleSaveCacheAndLOS(), DELAY,
+        TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Liest Cache und LOS aus dem DatasourceJoiner aus und schreibt sie im
+   * Hintergrund. Muss im EventProcessor aufgerufen werden.
+   */
+  public void save()
+  {
+    scheduled.set(false);
+    ConfigThingy cache = DatasourceJoinerFactory.getDatasourceJoiner()
+        .saveCacheAndLOS(WollMuxFiles.getLosCacheFile());
+    synchronized (this)
+    {
+      pending = cache;
+      saveCount++;
+      notifyAll();
+    }
+    executor.execute(this::writePending);
+  }
+
+  /**
+   * Schreibt noch nicht gespeicherte Änderungen sofort. Wird beim Beenden der JVM
+   * aufgerufen. Der Zustand wird auch hier im EventProcessor ausgelesen; arbeitet
+   * dieser nicht innerhalb von {@link #SHUTDOWN_TIMEOUT} Millisekunden, gehen die
+   * noch nicht ausgelesenen Änderungen verloren.
+   */
+  private void flush()
+  {
+    if (scheduled.get())
+    {
+      long start;
+      synchronized (this)
+      {
+        start = saveCount;
+      }
+      WollMuxEventHandler.getInstance().handleSaveCacheAndLOS();
+
+      long deadline = System.currentTimeMillis() + SHUTDOWN_TIMEOUT;
+      synchronized (this)
+      {
+        while (saveCount == start)
+        {
+          long timeout = deadline - System.currentTimeMillis();
+          if (timeout <= 0)
+          {
+            LOGGER.error("Cache konnte beim Beenden nicht gespeichert werden.");
+            break;
+          }
+          try
+          {
+            wait(timeout);
+          } catch (InterruptedException e)
+          {
+            Thread.currentThread().interrupt();
+            break;
+          }
+        }
+      }
+    }
+    writePending();
+  }
+
+  private synchronized void writePending()
+  {
+    if (pending == null)
+    {
+      return;
+    }
+
+    try
+    {
+      WollMuxFiles.writeConfToFile(WollMuxFiles.getLosCacheFile(), pending);
+    } catch (IOException e)
+    {
+      LOGGER.error("Cache konnte nicht gespeichert werden.", e);
+    }
+    pending = null;
+  }
+}
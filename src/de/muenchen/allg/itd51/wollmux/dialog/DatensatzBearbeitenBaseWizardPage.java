@@ -249,7 +249,7 @@ public abstract class DatensatzBearbeitenBaseWizardPage extends AbstractXWizardP
       LOGGER.error("", e);
     }
 
-    WollMuxEventHandler.getInstance().handlePALChangedNotify();
+    WollMuxEventHandler.getInstance().handlePALDatasetsChangedNotify();
 
     window.setVisible(false);
 
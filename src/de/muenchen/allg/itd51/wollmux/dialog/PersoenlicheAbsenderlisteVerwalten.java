@@ -497,7 +497,7 @@ public class PersoenlicheAbsenderlisteVerwalten
 
     if (result == ExecutableDialogResults.OK)
     {
-      WollMuxEventHandler.getInstance().handlePALChangedNotify();
+      WollMuxEventHandler.getInstance().handlePALDatasetsChangedNotify();
       addPalEntriesToListBox();
       LOGGER.debug("Datensatz bearbeiten: DatensatzBearbeiten(): ExecutableDialogResult.OK");
     } else
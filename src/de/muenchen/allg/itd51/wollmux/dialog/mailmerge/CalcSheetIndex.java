@@ -0,0 +1,193 @@
+package de.muenchen.allg.itd51.wollmux.dialog.mailmerge;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.star.lang.EventObject;
+import com.sun.star.sheet.XCellRangesQuery;
+import com.sun.star.sheet.XSpreadsheetDocument;
+import com.sun.star.table.XCellRange;
+import com.sun.star.uno.UnoRuntime;
+import com.sun.star.util.XModifyBroadcaster;
+import com.sun.star.util.XModifyListener;
+
+import de.muenchen.allg.afid.UNO;
+
+/**
+ * Merkt sich für ein Tabellenblatt eines Calc-Dokuments die sichtbaren nicht-leeren Zeilen sowie
+ * die Spalten mit nicht-leerem Spaltennamen, damit die Seriendruckvorschau beim Blättern nicht bei
+ * jedem Schritt das ganze Tabellenblatt neu scannen muss.
+ *
+ * Der Index meldet sich als {@link XModifyListener} beim Tabellenblatt an und wird bei jeder
+ * Änderung des Tabellenblatts ungültig (siehe {@link #isValidFor(XSpreadsheetDocument, String)}).
+ * Am Dokument selbst wäre das nicht möglich, da dessen XModifyBroadcaster nur Änderungen des
+ * Modified-Status meldet, also nach der ersten Änderung nicht mehr. Wird der Index nicht mehr
+ * benötigt, muss {@link #dispose()} aufgerufen werden.
+ */
+class CalcSheetIndex implements XModifyListener
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger(CalcSheetIndex.class);
+
+  private final XSpreadsheetDocument doc;
+
+  private final String sheetName;
+
+  private final XCellRange sheetCellRange;
+
+  /**
+   * Das Tabellenblatt, bei dem der Index als Listener angemeldet ist, oder null.
+   */
+  private final XModifyBroadcaster broadcaster;
+
+  /**
+   * Die Indizes der sichtbaren nicht-leeren Zeilen in aufsteigender Reihenfolge. Die erste Zeile
+   * enthält die Spaltennamen.
+   */
+  private final int[] rows;
+
+  /**
+   * Die Indizes der Spalten, deren Zelle in der ersten sichtbaren Zeile nicht leer ist.
+   */
+  private final int[] columns;
+
+  private final List<String> columnNames;
+
+  private volatile boolean valid = true;
+
+  /**
+   * Scannt das Tabellenblatt sheetName von doc und meldet den Index als Listener an diesem
+   * Tabellenblatt an.
+   *
+   * @throws Exception
+   *           falls das Tabellenblatt nicht ausgelesen werden kann.
+   */
+  CalcSheetIndex(XSpreadsheetDocument doc, String sheetName) throws Exception
+  {
+    this.doc = doc;
+    this.sheetName = sheetName;
+
+    XCellRangesQuery sheet = UNO.XCellRangesQuery(doc.getSheets().getByName(sheetName));
+    sheetCellRange = UNO.XCellRange(sheet);
+    BitSet columnIndexes = new BitSet();
+    BitSet rowIndexes = new BitSet();
+    MailMergeDatasource.getVisibleNonemptyRowsAndColumns(sheet, columnIndexes, rowIndexes);
+
+    rows = rowIndexes.stream().toArray();
+
+    List<String> names = new ArrayList<>();
+    int[] cols = columnIndexes.stream().toArray();
+    int count = 0;
+    if (rows.length > 0)
+    {
+      String[] header = MailMergeDatasource.getVisibleCellStrings(sheetCellRange, row(rows[0]),
+          cols)[0];
+      for (int i = 0; i < cols.length; ++i)
+      {
+        if (header[i].length() > 0)
+        {
+          names.add(header[i]);
+          cols[count++] = cols[i];
+        }
+      }
+    }
+    columns = Arrays.copyOf(cols, count);
+    columnNames = Collections.unmodifiableList(names);
+
+    broadcaster = UnoRuntime.queryInterface(XModifyBroadcaster.class, sheet);
+    if (broadcaster != null)
+    {
+      broadcaster.addModifyListener(this);
+    } else
+    {
+      valid = false;
+    }
+  }
+
+  /**
+   * Liefert true, wenn der Index für das Tabellenblatt sheetName von doc erzeugt wurde und das
+   * Tabellenblatt seitdem nicht verändert wurde.
+   */
+  boolean isValidFor(XSpreadsheetDocument doc, String sheetName)
+  {
+    return valid && UnoRuntime.areSame(this.doc, doc) && this.sheetName.equals(sheetName);
+  }
+
+  /**
+   * Liefert die Spaltennamen, also die Inhalte der nicht-leeren Zellen der ersten sichtbaren Zeile.
+   */
+  List<String> getColumnNames()
+  {
+    return columnNames;
+  }
+
+  /**
+   * Liefert die Anzahl der Datensätze, also der sichtbaren nicht-leeren Zeilen ohne die Zeile mit
+   * den Spaltennamen.
+   */
+  int getNumberOfDatasets()
+  {
+    if (columns.length == 0 || rows.length < 2)
+    {
+      return 0;
+    }
+    return rows.length - 1;
+  }
+
+  /**
+   * Liefert die Werte der rowIndex-ten sichtbaren nicht-leeren Zeile (die Zeile mit den
+   * Spaltennamen hat den Index 0) passend zu {@link #getColumnNames()}. Gibt es diese Zeile nicht,
+   * werden leere Strings geliefert.
+   */
+  List<String> getValues(int rowIndex) throws Exception
+  {
+    if (rowIndex < 0 || rowIndex >= rows.length)
+    {
+      return new ArrayList<>(Collections.nCopies(columns.length, ""));
+    }
+    return new ArrayList<>(Arrays.asList(
+        MailMergeDatasource.getVisibleCellStrings(sheetCellRange, row(rows[rowIndex]), columns)[0]));
+  }
+
+  private static BitSet row(int y)
+  {
+    BitSet row = new BitSet();
+    row.set(y);
+    return row;
+  }
+
+  /**
+   * Meldet den Index vom Tabellenblatt ab.
+   */
+  void dispose()
+  {
+    valid = false;
+    try
+    {
+      if (broadcaster != null)
+      {
+        broadcaster.removeModifyListener(this);
+      }
+    } catch (Exception x)
+    {
+      LOGGER.trace("", x);
+    }
+  }
+
+  @Override
+  public void modified(EventObject event)
+  {
+    valid = false;
+  }
+
+  @Override
+  public void disposing(EventObject event)
+  {
+    valid = false;
+  }
+}
@@ -0,0 +1,207 @@
+package de.muenchen.allg.itd51.wollmux.dialog.mailmerge;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.star.beans.XPropertySet;
+import com.sun.star.sdbc.SQLException;
+import com.sun.star.sdbc.XColumnLocate;
+import com.sun.star.sdbc.XConnection;
+import com.sun.star.sdbc.XDataSource;
+import com.sun.star.sdbc.XResultSet;
+import com.sun.star.sdbc.XRow;
+import com.sun.star.sdbc.XRowSet;
+import com.sun.star.uno.UnoRuntime;
+
+import de.muenchen.allg.afid.UNO;
+import de.muenchen.allg.itd51.wollmux.core.db.TimeoutException;
+import de.muenchen.allg.itd51.wollmux.core.util.L;
+
+/**
+ * Ein scrollbarer Cursor über eine Tabelle einer in OOo registrierten Datenquelle, der die
+ * Datensätze seitenweise einliest. Damit muss die Seriendruckvorschau beim Wechsel auf einen
+ * anderen Datensatz nicht mehr die ganze Tabelle auslesen.
+ *
+ * Der Cursor hält eine Verbindung zur Datenquelle offen und muss mit {@link #close()} geschlossen
+ * werden.
+ */
+class DbRowCursor
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger(DbRowCursor.class);
+
+  /**
+   * Anzahl der Datensätze, die auf einmal eingelesen werden.
+   */
+  static final int PAGE_SIZE = 50;
+
+  private final String datasourceName;
+
+  private final String tableName;
+
+  private final List<String> columnNames;
+
+  private XConnection conn;
+
+  private XRowSet rowSet;
+
+  /**
+   * Die Position der Spalten aus columnNames im RowSet (beginnend bei 1) oder 0, wenn es die
+   * Spalte nicht gibt.
+   */
+  private int[] columnPositions;
+
+  /**
+   * Nummer des ersten Datensatzes in page (der erste Datensatz hat die Nummer 1).
+   */
+  private int pageStart = 0;
+
+  private List<List<String>> page = Collections.emptyList();
+
+  /**
+   * Öffnet einen Cursor auf Tabelle tableName der Datenquelle datasourceName.
+   *
+   * @param columnNames
+   *          Die Spalten in der Reihenfolge, in der {@link #getRow(int)} die Werte liefert.
+   * @param loginTimeout
+   *          Timeout für den Verbindungsaufbau in Millisekunden.
+   * @throws TimeoutException
+   *           falls keine Verbindung hergestellt werden kann.
+   * @throws Exception
+   *           falls die Tabelle nicht gelesen werden kann.
+   */
+  DbRowCursor(String datasourceName, String tableName, List<String> columnNames,
+      long loginTimeout) throws Exception
+  {
+    this.datasourceName = datasourceName;
+    this.tableName = tableName;
+    this.columnNames = new ArrayList<>(columnNames);
+
+    try
+    {
+      XDataSource ds = UNO.XDataSource(UNO.dbContext.getRegisteredObject(datasourceName));
+      ds.setLoginTimeout((int) Math.max(1, loginTimeout / 1000));
+      conn = ds.getConnection("", "");
+    } catch (Exception x)
+    {
+      throw new TimeoutException(
+          L.m("Kann keine Verbindung zur Datenquelle \"%1\" herstellen", datasourceName));
+    }
+
+    try
+    {
+      rowSet = UNO.XRowSet(UNO.createUNOService("com.sun.star.sdb.RowSet"));
+      XPropertySet xProp = UNO.XPropertySet(rowSet);
+      xProp.setPropertyValue("ActiveConnection", conn);
+      xProp.setPropertyValue("CommandType", Integer.valueOf(com.sun.star.sdb.CommandType.TABLE));
+      xProp.setPropertyValue("Command", tableName);
+      rowSet.execute();
+
+      XColumnLocate locate = UnoRuntime.queryInterface(XColumnLocate.class, rowSet);
+      columnPositions = new int[this.columnNames.size()];
+      for (int i = 0; i < columnPositions.length; ++i)
+      {
+        try
+        {
+          columnPositions[i] = locate.findColumn(this.columnNames.get(i));
+        } catch (SQLException x)
+        {
+          columnPositions[i] = 0;
+        }
+      }
+    } catch (Exception x)
+    {
+      close();
+      throw x;
+    }
+  }
+
+  /**
+   * Liefert true, wenn der Cursor auf Tabelle tableName der Datenquelle datasourceName mit den
+   * Spalten columnNames geöffnet wurde.
+   */
+  boolean isFor(String datasourceName, String tableName, List<String> columnNames)
+  {
+    return this.datasourceName.equals(datasourceName) && this.tableName.equals(tableName)
+        && this.columnNames.equals(columnNames);
+  }
+
+  /**
+   * Liefert die Werte des rowIndex-ten Datensatzes (der erste Datensatz hat die Nummer 1) in der
+   * Reihenfolge der beim Öffnen angegebenen Spalten. Gibt es den Datensatz nicht, werden leere
+   * Strings geliefert.
+   */
+  List<String> getRow(int rowIndex) throws SQLException
+  {
+    if (rowIndex < pageStart || rowIndex >= pageStart + page.size())
+    {
+      loadPage((rowIndex - 1) / PAGE_SIZE * PAGE_SIZE + 1);
+    }
+
+    if (rowIndex < pageStart || rowIndex >= pageStart + page.size())
+    {
+      return new ArrayList<>(Collections.nCopies(columnNames.size(), ""));
+    }
+    return new ArrayList<>(page.get(rowIndex - pageStart));
+  }
+
+  /**
+   * Liest bis zu {@link #PAGE_SIZE} Datensätze ab dem Datensatz mit der Nummer start ein.
+   */
+  private void loadPage(int start) throws SQLException
+  {
+    pageStart = start;
+    page = new ArrayList<>(PAGE_SIZE);
+
+    XResultSet resultSet = UnoRuntime.queryInterface(XResultSet.class, rowSet);
+    if (!resultSet.absolute(start))
+    {
+      return;
+    }
+
+    XRow row = UNO.XRow(rowSet);
+    do
+    {
+      List<String> values = new ArrayList<>(columnPositions.length);
+      for (int pos : columnPositions)
+      {
+        String value = pos > 0 ? row.getString(pos) : null;
+        values.add(value == null ? "" : value);
+      }
+      page.add(values);
+    } while (page.size() < PAGE_SIZE && resultSet.next());
+  }
+
+  /**
+   * Schließt das RowSet und die Verbindung zur Datenquelle.
+   */
+  void close()
+  {
+    page = Collections.emptyList();
+    if (rowSet != null)
+    {
+      try
+      {
+        UNO.XComponent(rowSet).dispose();
+      } catch (Exception x)
+      {
+        LOGGER.trace("", x);
+      }
+      rowSet = null;
+    }
+    if (conn != null)
+    {
+      try
+      {
+        conn.close();
+      } catch (SQLException x)
+      {
+        LOGGER.error("", x);
+      }
+      conn = null;
+    }
+  }
+}
@@ -24,6 +24,8 @@ import de.muenchen.allg.itd51.wollmux.core.util.L;
 import de.muenchen.allg.itd51.wollmux.dialog.InfoDialog;
 import de.muenchen.allg.itd51.wollmux.document.TextDocumentController;
 import de.muenchen.allg.itd51.wollmux.email.EMailSender;
+import de.muenchen.allg.itd51.wollmux.email.MailDeliveryQueue;
+import de.muenchen.allg.itd51.wollmux.email.MailDeliveryQueue.DeliveryReport;
 import de.muenchen.allg.itd51.wollmux.email.MailServerSettings;
 import de.muenchen.allg.itd51.wollmux.print.PrintModels;
 
@@ -94,16 +96,10 @@ public class MailMergeController
     "MailMergeNew_EMailMessageTextTags";
 
   /**
-   * Wenn der Seriendruck per E-Mail gestartet wird, wird nach erfolgreichen Versand der Empfänger
-   * in diese Liste hinzugefügt.
+   * Wenn der Seriendruck per E-Mail gestartet wird, enthält diese Property die
+   * {@link MailDeliveryQueue}, über die die E-Mails im Hintergrund versendet werden.
    */
-  public static final String PROP_EMAIL_REPORT_RECIPIENT_LIST = "MailMergeNew_EMailReportReciptienList";
-
-  /**
-   * Wenn der Seriendruck per E-Mail gestartet wird, wird nach jedem erfolgreichen Versand einer
-   * E-Mail hochgezählt.
-   */
-  public static final String PROP_EMAIL_REPORT_EMAILS_SENT_COUNT = "MailMergeNew_EMailReportEMailsSentCount";
+  public static final String PROP_EMAIL_DELIVERY_QUEUE = "MailMergeNew_EMailDeliveryQueue";
 
   public static final String PROP_EMAIL_MAIL_SERVER_SETTINGS = "MailMergeNew_MailServerSettings";
 
@@ -365,8 +361,22 @@ public class MailMergeController
         long startTime = System.currentTimeMillis();
 
         documentController.setFormFieldsPreviewMode(true);
-        pmod.printWithProps();
-        documentController.setFormFieldsPreviewMode(false);
+        boolean printed = false;
+        try
+        {
+          pmod.printWithProps();
+          printed = true;
+        }
+        finally
+        {
+          documentController.setFormFieldsPreviewMode(false);
+
+          // Bei einem Fehler die Versand-Threads beenden und den Rest verwerfen.
+          MailDeliveryQueue deliveryQueue = (MailDeliveryQueue) pmod
+              .getProp(MailMergeController.PROP_EMAIL_DELIVERY_QUEUE, null);
+          if (!printed && deliveryQueue != null)
+            deliveryQueue.cancel();
+        }
 
         long duration = (System.currentTimeMillis() - startTime) / 1000;
         
@@ -376,14 +386,17 @@ public class MailMergeController
         // Liste der Empfänger-Emails und Anzahl versendeter Emails
         String eMailFrom = pmod.getProp(MailMergeController.PROP_EMAIL_FROM, "").toString();
 
-        List<String> recipintList = (List<String>) pmod
-            .getProp(MailMergeController.PROP_EMAIL_REPORT_RECIPIENT_LIST, null);
-        int mailsSentCount = (int) pmod
-            .getProp(MailMergeController.PROP_EMAIL_REPORT_EMAILS_SENT_COUNT, 0);
+        MailDeliveryQueue deliveryQueue = (MailDeliveryQueue) pmod
+            .getProp(MailMergeController.PROP_EMAIL_DELIVERY_QUEUE, null);
 
-        if (recipintList == null)
+        if (deliveryQueue == null)
           return;
 
+        // Auf den Versand der noch wartenden E-Mails warten bzw. diese nach einem
+        // Abbruch verwerfen.
+        DeliveryReport report =
+            pmod.isCanceled() ? deliveryQueue.cancel() : deliveryQueue.close();
+
         EMailSender mail = new EMailSender();
         StringBuilder buildMessage = new StringBuilder();
 
@@ -391,7 +404,7 @@ public class MailMergeController
             "Der WollMux-Serienbrief wurde an folgende E-Mail-Adressen versandt:");
         buildMessage.append("\r\n");
 
-        for (String recipient : recipintList)
+        for (String recipient : report.getSent())
         {
           buildMessage.append(recipient);
           buildMessage.append("\r\n");
@@ -399,9 +412,28 @@ public class MailMergeController
 
         buildMessage.append("\r\n");
         buildMessage.append("Anzahl gesendeter E-Mails: ");
-        buildMessage.append(mailsSentCount);
-
+        buildMessage.append(report.getSent().size());
         buildMessage.append("\r\n");
+
+        if (!report.getFailed().isEmpty())
+        {
+          buildMessage.append("\r\n");
+          buildMessage.append(
+              "An folgende E-Mail-Adressen konnte der Serienbrief nicht versandt werden:");
+          buildMessage.append("\r\n");
+
+          for (String recipient : report.getFailed())
+          {
+            buildMessage.append(recipient);
+            buildMessage.append("\r\n");
+          }
+
+          buildMessage.append("\r\n");
+          buildMessage.append("Anzahl nicht gesendeter E-Mails: ");
+          buildMessage.append(report.getFailed().size());
+          buildMessage.append("\r\n");
+        }
+
         buildMessage.append(
             "Wenn eine Nachricht nicht zugestellt werden konnte, erhalten Sie in Kürze eine entsprechende Email.");
 
@@ -33,14 +33,14 @@
 package de.muenchen.allg.itd51.wollmux.dialog.mailmerge;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.SortedSet;
-import java.util.TreeSet;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -60,6 +60,7 @@ import com.sun.star.sdbc.XDataSource;
 import com.sun.star.sdbc.XRow;
 import com.sun.star.sdbc.XRowSet;
 import com.sun.star.sdbcx.XColumnsSupplier;
+import com.sun.star.sheet.XCellRangeData;
 import com.sun.star.sheet.XCellRangesQuery;
 import com.sun.star.sheet.XSheetCellRanges;
 import com.sun.star.sheet.XSpreadsheetDocument;
@@ -126,6 +127,12 @@ public class MailMergeDatasource
    */
   private static final long MAILMERGE_LOGIN_TIMEOUT = 5000;
 
+  /**
+   * Maximale Anzahl Zeilen, die mit einem Aufruf von {@link XCellRangeData#getDataArray()} aus
+   * einer Calc-Tabelle gelesen werden.
+   */
+  private static final int MAX_ROWS_PER_DATA_ARRAY = 1000;
+
   /**
    * Ein String der möglichst nie in einem vom Benutzer eingegebenen Felder-Anpassen Feld auftauchen
    * sollte. Wird als Platzhalter für das Einfügen der Zeilennummer in den Formel-String verwendet.
@@ -173,6 +180,18 @@ public class MailMergeDatasource
    */
   private DBModel selectedDBModel = null;
 
+  /**
+   * Der Index über die sichtbaren Zeilen und Spalten der aktuell ausgewählten Calc-Tabelle oder
+   * null, wenn noch keiner erzeugt wurde.
+   */
+  private CalcSheetIndex calcSheetIndex = null;
+
+  /**
+   * Der Cursor über die aktuell ausgewählte Tabelle einer OOo-Datenquelle oder null, wenn noch
+   * keiner geöffnet wurde.
+   */
+  private DbRowCursor dbRowCursor = null;
+
   /**
    * Erzeugt eine neue Datenquelle.
    *
@@ -598,6 +617,9 @@ public class MailMergeDatasource
       return 0;
     }
 
+    // Beim Neuzählen soll auch die Vorschau den aktuellen Stand der Tabelle sehen.
+    closeDbRowCursor();
+
     XRowSet results = null;
     XConnection conn = null;
     try
@@ -689,15 +711,7 @@ public class MailMergeDatasource
     {
       try
       {
-        XCellRangesQuery sheet = UNO.XCellRangesQuery(calcDoc.getSheets().getByName(tableName));
-        SortedSet<Integer> columnIndexes = new TreeSet<>();
-        SortedSet<Integer> rowIndexes = new TreeSet<>();
-        getVisibleNonemptyRowsAndColumns(sheet, columnIndexes, rowIndexes);
-
-        if (!columnIndexes.isEmpty() && rowIndexes.size() > 1)
-        {
-          return rowIndexes.size() - 1;
-        }
+        return getCalcSheetIndex(calcDoc, tableName).getNumberOfDatasets();
       } catch (Exception x)
       {
         LOGGER.error(L.m("Kann Anzahl Datensätze nicht bestimmen"), x);
@@ -733,31 +747,7 @@ public class MailMergeDatasource
     }
     try
     {
-      XCellRangesQuery sheet = UNO.XCellRangesQuery(calcDoc.getSheets().getByName(tableName));
-      SortedSet<Integer> columnIndexes = new TreeSet<>();
-      SortedSet<Integer> rowIndexes = new TreeSet<>();
-      getVisibleNonemptyRowsAndColumns(sheet, columnIndexes, rowIndexes);
-
-      if (!columnIndexes.isEmpty() && !rowIndexes.isEmpty())
-      {
-        XCellRange sheetCellRange = UNO.XCellRange(sheet);
-
-        /*
-         * Erste sichtbare Zeile durchscannen und alle nicht-leeren Zelleninhalte als
-         * Tabellenspaltennamen interpretieren.
-         */
-        int ymin = rowIndexes.first().intValue();
-        Iterator<Integer> iter = columnIndexes.iterator();
-        while (iter.hasNext())
-        {
-          int x = iter.next().intValue();
-          String columnName = UNO.XTextRange(sheetCellRange.getCellByPosition(x, ymin)).getString();
-          if (columnName.length() > 0)
-          {
-            columnNames.add(columnName);
-          }
-        }
-      }
+      columnNames.addAll(getCalcSheetIndex(calcDoc, tableName).getColumnNames());
     } catch (Exception x)
     {
       LOGGER.error(L.m("Kann Spaltennamen nicht bestimmen"), x);
@@ -777,54 +767,80 @@ public class MailMergeDatasource
   private List<String> getDbValuesForDataset(Datasource oooDatasource, int rowIndex)
   {
     /*
-     * Die folgende Implementierung ist nicht schön. Sie hat die folgenden Probleme
-     *
-     * o Liest jedes Mal erneut die ganze Tabelle aus => langsam, übermäßige Garbage Produktion
-     *
-     * o Kann kein Ergebnis zurückliefern, wenn das Auslesen der gesamten Tabelle nicht innerhalb
-     * des Timeouts möglich ist => Vorschau broken bei langsamen Datenquellen
-     *
-     * Der große Vorteil dieser Implementierung ist ihre Einfachheit.
+     * Die Datensätze werden über einen scrollbaren Cursor seitenweise gelesen, so dass beim
+     * Blättern in der Vorschau nicht jedes Mal die ganze Tabelle ausgelesen werden muss.
      */
-
     List<String> list = getDbColumnNames(oooDatasource);
     try
     {
       if (rowIndex < 1)
         throw new IllegalArgumentException(L.m("Illegale Datensatznummer: %1", rowIndex));
-      QueryResults res = oooDatasource.getContents(MAILMERGE_GETCONTENTS_TIMEOUT);
-      for (Dataset ds : res)
+      if (dbRowCursor == null
+          || !dbRowCursor.isFor(selectedDBModel.datasourceName, tableName, list))
       {
-        if (--rowIndex == 0)
-        {
-          // Avoid needless obj creation by overwriting col names with return values
-          for (int i = 0; i < list.size(); ++i)
-          {
-            String str;
-            try
-            {
-              str = ds.get(list.get(i));
-            } catch (ColumnNotFoundException x)
-            {
-              str = "";
-            }
-            list.set(i, str);
-          }
-          return list;
-        }
+        closeDbRowCursor();
+        dbRowCursor = new DbRowCursor(selectedDBModel.datasourceName, tableName, list,
+            MAILMERGE_LOGIN_TIMEOUT);
       }
-
-      // Avoid needless object creation by overwriting col names with return values
-      for (int i = 0; i < list.size(); ++i)
-        list.set(i, "");
-      return list;
+      return dbRowCursor.getRow(rowIndex);
     } catch (Exception x)
     {
       LOGGER.error("", x);
+      closeDbRowCursor();
       return new ArrayList<>();
     }
   }
 
+  /**
+   * Schließt den Cursor über die Tabelle der OOo-Datenquelle, falls einer geöffnet ist.
+   */
+  private void closeDbRowCursor()
+  {
+    if (dbRowCursor != null)
+    {
+      dbRowCursor.close();
+      dbRowCursor = null;
+    }
+  }
+
+  /**
+   * Liefert den Index über die sichtbaren Zeilen und Spalten von Tabellenblatt tableName in
+   * Calc-Dokument calcDoc. Ein vorhandener Index wird wiederverwendet, solange das Dokument nicht
+   * verändert wurde.
+   */
+  private CalcSheetIndex getCalcSheetIndex(XSpreadsheetDocument calcDoc, String tableName)
+      throws Exception
+  {
+    if (calcSheetIndex == null || !calcSheetIndex.isValidFor(calcDoc, tableName))
+    {
+      disposeCalcSheetIndex();
+      calcSheetIndex = new CalcSheetIndex(calcDoc, tableName);
+    }
+    return calcSheetIndex;
+  }
+
+  /**
+   * Meldet den Index über die Calc-Tabelle ab, falls einer existiert.
+   */
+  private void disposeCalcSheetIndex()
+  {
+    if (calcSheetIndex != null)
+    {
+      calcSheetIndex.dispose();
+      calcSheetIndex = null;
+    }
+  }
+
+  /**
+   * Gibt die Ressourcen für den Zugriff auf die Datensätze der Vorschau frei, also den Cursor
+   * über die Tabelle der OOo-Datenquelle und den Index über die Calc-Tabelle.
+   */
+  public void dispose()
+  {
+    closeDbRowCursor();
+    disposeCalcSheetIndex();
+  }
+
   /**
    * Liefert die sichtbaren Inhalte (als Strings) der Zellen aus der rowIndex-ten sichtbaren
    * nicht-leeren Zeile (wobei die erste solche Zeile, diejenige die die Namen for
@@ -847,54 +863,11 @@ public class MailMergeDatasource
     }
     try
     {
-      XCellRangesQuery sheet = UNO.XCellRangesQuery(calcDoc.getSheets().getByName(tableName));
-      SortedSet<Integer> columnIndexes = new TreeSet<>();
-      SortedSet<Integer> rowIndexes = new TreeSet<>();
-      getVisibleNonemptyRowsAndColumns(sheet, columnIndexes, rowIndexes);
-
-      if (!columnIndexes.isEmpty())
-      {
-        XCellRange sheetCellRange = UNO.XCellRange(sheet);
-
-        /*
-         * Den Zeilenindex in der Tabelle von der rowIndex-ten sichtbaren Zeile bestimmen.
-         */
-        int yTargetRow = -1;
-        int count = rowIndex;
-
-        for (int index : rowIndexes)
-        {
-          if (--count < 0)
-          {
-            yTargetRow = index;
-            break;
-          }
-        }
-
-        /*
-         * Erste sichtbare Zeile durchscannen und alle nicht-leeren Zelleninhalte als
-         * Tabellenspaltennamen interpretieren (dies ist nötig, damit die zurückgelieferten Werte zu
-         * denen von getColumnNames() passen). Wurde ein Tabellenspaltenname identifiziert, so lies
-         * den zugehörigen Wert aus der rowIndex-ten Zeile aus.
-         */
-        int ymin = rowIndexes.first().intValue();
-        Iterator<Integer> iter = columnIndexes.iterator();
-        while (iter.hasNext())
-        {
-          int x = iter.next().intValue();
-          String columnName = UNO.XTextRange(sheetCellRange.getCellByPosition(x, ymin)).getString();
-          if (columnName.length() > 0)
-          {
-            if (yTargetRow >= 0)
-            {
-              String columnValue = UNO.XTextRange(sheetCellRange.getCellByPosition(x, yTargetRow))
-                  .getString();
-              columnValues.add(columnValue);
-            } else
-              columnValues.add("");
-          }
-        }
-      }
+      /*
+       * Der Index enthält nur die Spalten mit nicht-leerem Namen in der ersten sichtbaren Zeile,
+       * so dass die zurückgelieferten Werte zu denen von getColumnNames() passen.
+       */
+      columnValues.addAll(getCalcSheetIndex(calcDoc, tableName).getValues(rowIndex));
     } catch (Exception x)
     {
       LOGGER.error(L.m("Kann Spaltenwerte nicht bestimmen"), x);
@@ -976,9 +949,12 @@ public class MailMergeDatasource
       currentSourceType = SOURCE_TYPE.NONE;
       selectedCalcModel = null;
       selectedDBModel = null;
+      dispose();
       return;
     }
 
+    dispose();
+
     for (DatasourceModel model : connections)
     {
       for (String tableName : model.getTableNames())
@@ -1163,6 +1139,7 @@ public class MailMergeDatasource
 
     selectedDBModel.datasourceName = newDsName;
     oooDatasource = null;
+    dispose();
     storeDatasourceSettings();
   }
 
@@ -1216,8 +1193,8 @@ public class MailMergeDatasource
      * Zeile) auf Calc-Spaltennamen (z.B. "A") erstellen.
      */
     Map<String, String> mapColumnNameToCalcColumnName = new HashMap<>();
-    SortedSet<Integer> columnIndexes = new TreeSet<>();
-    SortedSet<Integer> rowIndexes = new TreeSet<>();
+    BitSet columnIndexes = new BitSet();
+    BitSet rowIndexes = new BitSet();
     try
     {
       getVisibleNonemptyRowsAndColumns(sheet, columnIndexes, rowIndexes);
@@ -1230,15 +1207,16 @@ public class MailMergeDatasource
          * Erste sichtbare Zeile durchscannen und alle nicht-leeren Zelleninhalte als
          * Tabellenspaltennamen interpretieren.
          */
-        int ymin = rowIndexes.first().intValue();
-        Iterator<Integer> iter = columnIndexes.iterator();
-        while (iter.hasNext())
+        BitSet headerRow = new BitSet();
+        headerRow.set(rowIndexes.nextSetBit(0));
+        int[] columns = columnIndexes.stream().toArray();
+        String[] header = getVisibleCellStrings(sheetCellRange, headerRow, columns)[0];
+        for (int i = 0; i < columns.length; ++i)
         {
-          int x = iter.next().intValue();
-          String columnName = UNO.XTextRange(sheetCellRange.getCellByPosition(x, ymin)).getString();
-          if (columnName.length() > 0)
+          if (header[i].length() > 0)
           {
-            mapColumnNameToCalcColumnName.put(columnName, getCalcColumnNameForColumnIndex(x + 1));
+            mapColumnNameToCalcColumnName.put(header[i],
+                getCalcColumnNameForColumnIndex(columns[i] + 1));
           }
         }
       }
@@ -1248,8 +1226,13 @@ public class MailMergeDatasource
       return;
     }
 
+    if (columnIndexes.isEmpty())
+    {
+      return;
+    }
+
     // Erste neue Spalte hinter die letzte Spalte
-    int newColumnX = columnIndexes.last() + 1;
+    int newColumnX = columnIndexes.length();
 
     for (Map.Entry<String, FieldSubstitution> ent : mapIdToSubstitution.entrySet())
     {
@@ -1298,8 +1281,8 @@ public class MailMergeDatasource
       {
         XCellRange sheetCellRange = UNO.XCellRange(sheet);
 
-        int ymin = rowIndexes.first();
-        int ymax = rowIndexes.last();
+        int ymin = rowIndexes.nextSetBit(0);
+        int ymax = rowIndexes.length() - 1;
         UNO.XTextRange(sheetCellRange.getCellByPosition(newColumnX, ymin)).setString(fieldId);
 
         /*
@@ -1419,8 +1402,8 @@ public class MailMergeDatasource
         XCellRangesQuery sheet = UNO.XCellRangesQuery(doc.getSheets().getByName(sheetName));
         if (sheet != null)
         {
-          SortedSet<Integer> columnIndexes = new TreeSet<>();
-          SortedSet<Integer> rowIndexes = new TreeSet<>();
+          BitSet columnIndexes = new BitSet();
+          BitSet rowIndexes = new BitSet();
           getVisibleNonemptyRowsAndColumns(sheet, columnIndexes, rowIndexes);
 
           if (!columnIndexes.isEmpty() && !rowIndexes.isEmpty())
@@ -1431,48 +1414,38 @@ public class MailMergeDatasource
              * Erste sichtbare Zeile durchscannen und alle nicht-leeren Zelleninhalte als
              * Tabellenspaltennamen interpretieren. Ein Mapping in mapColumnNameToIndex wird
              * erzeugt, wobei NICHT auf den Index in der Calc-Tabelle gemappt wird, sondern auf den
-             * Index im später für jeden Datensatz existierenden String[]-Array.
+             * Index im später für jeden Datensatz existierenden String[]-Array. Spalten mit leerem
+             * Spaltennamen werden nicht benötigt.
              */
-            int ymin = rowIndexes.first().intValue();
+            int ymin = rowIndexes.nextSetBit(0);
+            BitSet headerRow = new BitSet();
+            headerRow.set(ymin);
+            int[] allColumns = columnIndexes.stream().toArray();
+            String[] header = getVisibleCellStrings(sheetCellRange, headerRow, allColumns)[0];
+
             Map<String, Integer> mapColumnNameToIndex = new HashMap<>();
+            int[] columns = new int[allColumns.length];
             int idx = 0;
-            Iterator<Integer> iter = columnIndexes.iterator();
-            while (iter.hasNext())
+            for (int i = 0; i < allColumns.length; ++i)
             {
-              int x = iter.next().intValue();
-              String columnName = UNO.XTextRange(sheetCellRange.getCellByPosition(x, ymin))
-                  .getString();
-              if (columnName.length() > 0)
+              if (header[i].length() > 0)
               {
-                mapColumnNameToIndex.put(columnName, Integer.valueOf(idx));
-                schema.add(columnName);
-                ++idx;
-              } else
-                iter.remove(); // Spalten mit leerem Spaltennamen werden nicht
-              // benötigt.
+                mapColumnNameToIndex.put(header[i], Integer.valueOf(idx));
+                schema.add(header[i]);
+                columns[idx++] = allColumns[i];
+              }
             }
+            columns = Arrays.copyOf(columns, idx);
 
             results.setColumnNameToIndexMap(mapColumnNameToIndex);
 
             /*
-             * Datensätze erzeugen
+             * Datensätze erzeugen. Die erste Zeile enthält die Spaltennamen, keinen Datensatz.
              */
-            Iterator<Integer> rowIndexIter = rowIndexes.iterator();
-            rowIndexIter.next(); // erste Zeile enthält die Tabellennamen, keinen
-            // Datensatz
-            while (rowIndexIter.hasNext())
+            BitSet dataRows = (BitSet) rowIndexes.clone();
+            dataRows.clear(ymin);
+            for (String[] data : getVisibleCellStrings(sheetCellRange, dataRows, columns))
             {
-              int y = rowIndexIter.next().intValue();
-              String[] data = new String[columnIndexes.size()];
-              Iterator<Integer> columnIndexIter = columnIndexes.iterator();
-              idx = 0;
-              while (columnIndexIter.hasNext())
-              {
-                int x = columnIndexIter.next().intValue();
-                String value = UNO.XTextRange(sheetCellRange.getCellByPosition(x, y)).getString();
-                data[idx++] = value;
-              }
-
               results.addDataset(data);
             }
           }
@@ -1486,6 +1459,64 @@ public class MailMergeDatasource
     return results;
   }
 
+  /**
+   * Liefert die Inhalte (als Strings) der Zellen in den Zeilen rows und den Spalten columns von
+   * sheetCellRange. Die Zellen werden dabei nicht einzeln, sondern für jeden zusammenhängenden
+   * Zeilenbereich mit einem einzigen Aufruf von {@link XCellRangeData#getDataArray()} gelesen. Nur
+   * Zellen mit Zahlenwerten werden einzeln über {@link com.sun.star.text.XTextRange#getString()}
+   * gelesen, damit wie bisher der formatierte Wert geliefert wird.
+   *
+   * @param rows
+   *          die zu lesenden Zeilen
+   * @param columns
+   *          die zu lesenden Spalten in aufsteigender Reihenfolge
+   * @return je Zeile aus rows (in aufsteigender Reihenfolge) ein Array mit den Werten der Spalten
+   *         aus columns.
+   * @throws Exception
+   *           falls die Zellen nicht gelesen werden können.
+   */
+  static String[][] getVisibleCellStrings(XCellRange sheetCellRange, BitSet rows, int[] columns)
+      throws Exception
+  {
+    String[][] result = new String[rows.cardinality()][];
+    if (columns.length == 0)
+    {
+      Arrays.fill(result, new String[0]);
+      return result;
+    }
+
+    int xmin = columns[0];
+    int xmax = columns[columns.length - 1];
+    int idx = 0;
+    int start = rows.nextSetBit(0);
+    while (start >= 0)
+    {
+      int end = Math.min(rows.nextClearBit(start), start + MAX_ROWS_PER_DATA_ARRAY);
+      XCellRangeData block = UnoRuntime.queryInterface(XCellRangeData.class,
+          sheetCellRange.getCellRangeByPosition(xmin, start, xmax, end - 1));
+      Object[][] data = block.getDataArray();
+      for (int r = 0; r < data.length; ++r)
+      {
+        String[] values = new String[columns.length];
+        for (int c = 0; c < columns.length; ++c)
+        {
+          Object value = data[r][columns[c] - xmin];
+          if (value instanceof String)
+          {
+            values[c] = (String) value;
+          } else
+          {
+            values[c] = UNO.XTextRange(sheetCellRange.getCellByPosition(columns[c], start + r))
+                .getString();
+          }
+        }
+        result[idx++] = values;
+      }
+      start = rows.nextSetBit(end);
+    }
+    return result;
+  }
+
   /**
    * Liefert von Tabellenblatt sheet die Indizes aller Zeilen und Spalten, in denen mindestens eine
    * sichtbare nicht-leere Zelle existiert.
@@ -1493,13 +1524,13 @@ public class MailMergeDatasource
    * @param sheet
    *          das zu scannende Tabellenblatt
    * @param columnIndexes
-   *          diesem Set werden die Spaltenindizes hinzugefügt
+   *          in diesem Set werden die Spaltenindizes gesetzt
    * @param rowIndexes
-   *          diesem Set werden die Zeilenindizes hinzugefügt
+   *          in diesem Set werden die Zeilenindizes gesetzt
    * @author Matthias Benkmann (D-III-ITD 5.1)
    */
-  private static void getVisibleNonemptyRowsAndColumns(XCellRangesQuery sheet,
-      SortedSet<Integer> columnIndexes, SortedSet<Integer> rowIndexes)
+  static void getVisibleNonemptyRowsAndColumns(XCellRangesQuery sheet, BitSet columnIndexes,
+      BitSet rowIndexes)
   {
     XSheetCellRanges visibleCellRanges = sheet.queryVisibleCells();
     XSheetCellRanges nonEmptyCellRanges = sheet.queryContentCells(
@@ -1514,11 +1545,8 @@ public class MailMergeDatasource
       for (int k = 0; k < rangeAddresses.length; ++k)
       {
         CellRangeAddress addr = rangeAddresses[k];
-        for (int x = addr.StartColumn; x <= addr.EndColumn; ++x)
-          columnIndexes.add(Integer.valueOf(x));
-
-        for (int y = addr.StartRow; y <= addr.EndRow; ++y)
-          rowIndexes.add(Integer.valueOf(y));
+        columnIndexes.set(addr.StartColumn, addr.EndColumn + 1);
+        rowIndexes.set(addr.StartRow, addr.EndRow + 1);
       }
     }
   }
@@ -44,6 +44,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map.Entry;
 
@@ -64,17 +65,21 @@ import de.muenchen.allg.afid.UNO;
 import de.muenchen.allg.itd51.wollmux.XPrintModel;
 import de.muenchen.allg.itd51.wollmux.core.db.Dataset;
 import de.muenchen.allg.itd51.wollmux.core.db.QueryResults;
+import de.muenchen.allg.itd51.wollmux.core.document.SimulationResults;
 import de.muenchen.allg.itd51.wollmux.core.document.SimulationResults.SimulationResultsProcessor;
 import de.muenchen.allg.itd51.wollmux.core.document.TextDocumentModel;
 import de.muenchen.allg.itd51.wollmux.core.parser.ConfigurationErrorException;
 import de.muenchen.allg.itd51.wollmux.core.util.L;
 import de.muenchen.allg.itd51.wollmux.dialog.InfoDialog;
 import de.muenchen.allg.itd51.wollmux.document.DocumentManager;
+import de.muenchen.allg.itd51.wollmux.document.FormFieldSimulation;
 import de.muenchen.allg.itd51.wollmux.document.TextDocumentController;
 import de.muenchen.allg.itd51.wollmux.email.AuthenticationDialog;
 import de.muenchen.allg.itd51.wollmux.email.EMailSender;
 import de.muenchen.allg.itd51.wollmux.email.IAuthenticationDialogListener;
+import de.muenchen.allg.itd51.wollmux.email.MailDeliveryQueue;
 import de.muenchen.allg.itd51.wollmux.email.MailServerSettings;
+import de.muenchen.allg.itd51.wollmux.form.control.FormController;
 import de.muenchen.allg.itd51.wollmux.print.PrintModels;
 
 /**
@@ -131,6 +136,7 @@ public class MailMergeNew
    */
   public void dispose()
   {
+    ds.dispose();
     if (abortListener != null)
       abortListener.actionPerformed(new ActionEvent(this, 0, ""));
   }
@@ -195,6 +201,16 @@ public class MailMergeNew
       return;
     }
 
+    if (simProc != null)
+    {
+      FormFieldSimulation simulation = createFormFieldSimulation(pmod, documentController, schema);
+      if (simulation != null)
+      {
+        simulateMailMerge(pmod, simulation, data, schema, selection, simProc);
+        return;
+      }
+    }
+
     Iterator<Dataset> iter = data.iterator();
     Iterator<Integer> selIter = selection.iterator();
     int selectedIdx = selIter.next();
@@ -260,6 +276,87 @@ public class MailMergeNew
     }
   }
 
+  /**
+   * Liefert eine {@link FormFieldSimulation} für den Seriendruck über pmod oder
+   * null, wenn eine der Spalten aus schema oder eines der Spezialfelder von der
+   * Formularbeschreibung verwaltet wird. In diesem Fall müssen die Werte über den
+   * FormController gesetzt werden, damit Abhängigkeiten und Sichtbarkeiten aufgelöst
+   * werden.
+   */
+  private static FormFieldSimulation createFormFieldSimulation(XPrintModel pmod,
+      TextDocumentController documentController, Collection<String> schema)
+  {
+    FormController formController =
+      DocumentManager.getDocumentManager().getFormModel(pmod.getTextDocument());
+    if (formController != null)
+    {
+      List<String> ids = new ArrayList<>(schema);
+      ids.add(MailMergeController.TAG_DATENSATZNUMMER);
+      ids.add(MailMergeController.TAG_SERIENBRIEFNUMMER);
+      for (String id : ids)
+      {
+        if (formController.hasFieldId(id))
+          return null;
+      }
+    }
+    return documentController.createFormFieldSimulation();
+  }
+
+  /**
+   * Simuliert den Seriendruck für die ausgewählten Datensätze mit simulation ohne
+   * Zugriff auf das Dokument und übergibt die Ergebnisse in der Reihenfolge der
+   * Datensätze an simProc. Die Datensätze werden nacheinander im aufrufenden
+   * Thread berechnet, da die Trafofunktionen nicht threadsicher sein müssen.
+   */
+  private static void simulateMailMerge(XPrintModel pmod,
+      FormFieldSimulation simulation, QueryResults data, Collection<String> schema,
+      List<Integer> selection, SimulationResultsProcessor simProc) throws Exception
+  {
+    Iterator<Dataset> iter = data.iterator();
+    Iterator<Integer> selIter = selection.iterator();
+    int selectedIdx = selIter.next();
+
+    pmod.setPrintProgressMaxValue((short) selection.size());
+
+    int index = -1;
+    int serienbriefNummer = 1;
+    while (iter.hasNext() && selectedIdx >= 0)
+    {
+      if (pmod.isCanceled()) {
+        return;
+      }
+
+      Dataset ds = iter.next();
+      if (++index < selectedIdx) {
+        continue;
+      }
+
+      if (selIter.hasNext())
+        selectedIdx = selIter.next();
+      else
+        selectedIdx = -1;
+
+      HashMap<String, String> values = new LinkedHashMap<>();
+      for (String spalte : schema)
+        values.put(spalte, ds.get(spalte));
+      values.put(MailMergeController.TAG_DATENSATZNUMMER, "" + (index + 1));
+      values.put(MailMergeController.TAG_SERIENBRIEFNUMMER, "" + serienbriefNummer);
+      SimulationResults results = simulation.simulate(values);
+
+      // only used internally, isn't the datasource for the actual mailmerge
+      try
+      {
+        pmod.setPropertyValue(MailMergeController.PROP_DATASET_EXPORT, values);
+      }
+      catch (Exception x)
+      {}
+
+      simProc.processSimulationResults(results);
+      pmod.setPrintProgressValue((short) serienbriefNummer);
+      ++serienbriefNummer;
+    }
+  }
+
   /**
    * Liefert die Größe der von MailMergeNew im XPrintModel gesetzten Selection.
    */
@@ -444,38 +541,28 @@ public class MailMergeNew
       File document = saveOutputFile(createTempDocumentFileByFilePattern(pmod, isODT),
           pmod.getTextDocument());
 
-      sendMail(mail, smtpSettings, document);
-
-      // Wenn Properties noch nicht gesetzt worden sind initial setzen da
-      // sonst bei getPropertyValue() UnknownPropertyException geworfen wird.
-      if (!pmod.getPropertySetInfo()
-          .hasPropertyByName(MailMergeController.PROP_EMAIL_REPORT_RECIPIENT_LIST))
+      MailDeliveryQueue deliveryQueue = (MailDeliveryQueue) pmod
+          .getProp(MailMergeController.PROP_EMAIL_DELIVERY_QUEUE, null);
+      if (deliveryQueue == null)
       {
-        pmod.setPropertyValue(MailMergeController.PROP_EMAIL_REPORT_RECIPIENT_LIST,
-          new ArrayList<String>());
+        deliveryQueue = new MailDeliveryQueue(smtpSettings);
+        pmod.setPropertyValue(MailMergeController.PROP_EMAIL_DELIVERY_QUEUE, deliveryQueue);
       }
 
-      if (!pmod.getPropertySetInfo()
-          .hasPropertyByName(MailMergeController.PROP_EMAIL_REPORT_EMAILS_SENT_COUNT))
+      // Der Versand läuft im Hintergrund, während bereits das nächste Dokument
+      // erzeugt wird. Der Anhang wird nach dem Versand gelöscht.
+      File attachment = getAttachmentFile(document);
+      try
       {
-        pmod.setPropertyValue(MailMergeController.PROP_EMAIL_REPORT_EMAILS_SENT_COUNT, 0);
+        mail.addAttachment(attachment);
       }
-
-      List<String> reportRecipientList = (List<String>) pmod
-          .getPropertyValue(MailMergeController.PROP_EMAIL_REPORT_RECIPIENT_LIST);
-      int mailsSentCount = (int) pmod
-          .getPropertyValue(MailMergeController.PROP_EMAIL_REPORT_EMAILS_SENT_COUNT);
-
-      if (reportRecipientList == null)
-        reportRecipientList = new ArrayList<>();
-
-      reportRecipientList.add(to);
-      mailsSentCount++;
-
-      pmod.setPropertyValue(MailMergeController.PROP_EMAIL_REPORT_RECIPIENT_LIST,
-          reportRecipientList);
-      pmod.setPropertyValue(MailMergeController.PROP_EMAIL_REPORT_EMAILS_SENT_COUNT,
-          mailsSentCount);
+      catch (IOException e)
+      {
+        LOGGER.error("", e);
+        attachment.delete();
+        return;
+      }
+      deliveryQueue.submit(mail, to, attachment);
     }
     catch (ConfigurationErrorException e)
     {
@@ -502,27 +589,17 @@ public class MailMergeNew
     }
   }
 
-  private static void sendMail(EMailSender mail, MailServerSettings smtpSettings, File document)
+  private static File getAttachmentFile(File document)
   {
-    try
-    {
-      String path = document.getPath();
-      if (!document.isAbsolute())
-      {
-        // Pfad unter Windows korrigieren
-        path = path.replaceFirst("file:\\\\", "");
-        // Pfad unter Linux korrigieren
-        path = path.replaceFirst("file:", "");
-      }
-      mail.addAttachment(new File(path));
-      mail.sendMessage(smtpSettings);
-    } catch (ConfigurationErrorException | MessagingException | IOException e)
-    {
-      LOGGER.error("", e);
-    } finally
+    String path = document.getPath();
+    if (!document.isAbsolute())
     {
-      document.delete();
+      // Pfad unter Windows korrigieren
+      path = path.replaceFirst("file:\\\\", "");
+      // Pfad unter Linux korrigieren
+      path = path.replaceFirst("file:", "");
     }
+    return new File(path);
   }
 
   /**
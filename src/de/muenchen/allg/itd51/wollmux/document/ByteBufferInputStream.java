@@ -8,38 +8,62 @@ import com.sun.star.io.XSeekable;
 
 /**
  * Wrapper für ByteBuffer zur Benutzung mit UNO.
+ *
+ * Der Stream liest aus einer eigenen, schreibgeschützten Sicht auf den Puffer.
+ * Mehrere Streams können daher gleichzeitig denselben (z.B. gecachten) Puffer
+ * lesen, ohne sich gegenseitig die Position zu verändern. Der Inhalt des Puffers
+ * wird dabei nicht kopiert.
  */
 public class ByteBufferInputStream implements XInputStream, XSeekable
 {
 
   private ByteBuffer buffer;
 
+  /**
+   * Das zuletzt von {@link #readBytes(byte[][], int)} gelieferte Array. Es wird
+   * wiederverwendet, solange gleich große Blöcke gelesen werden, da UNO den Inhalt
+   * beim Aufruf über die Bridge ohnehin kopiert.
+   */
+  private byte[] chunk;
+
+  /**
+   * Erzeugt einen Stream über den Bereich von der aktuellen Position bis zum Limit
+   * von buffer. Position und Limit von buffer werden nicht verändert.
+   */
   public ByteBufferInputStream(ByteBuffer buffer)
   {
-    this.buffer = buffer;
+    this.buffer = buffer.asReadOnlyBuffer().slice();
   }
 
   @Override
   public int available() throws IOException
   {
-    return buffer.remaining();
+    return getBuffer().remaining();
   }
 
   @Override
   public void closeInput() throws IOException
   {
     buffer = null;
+    chunk = null;
   }
 
   @Override
   public int readBytes(byte[][] data, int len) throws IOException
   {
-    int n = Math.min(len, buffer.remaining());
-    if (n > 0)
+    ByteBuffer buf = getBuffer();
+    int n = Math.max(0, Math.min(len, buf.remaining()));
+    byte[] dest = data[0];
+    if (dest == null || dest.length != n)
     {
-      data[0] = new byte[n];
-      buffer.get(data[0], 0, n);
+      if (chunk == null || chunk.length != n)
+      {
+        chunk = new byte[n];
+      }
+      dest = chunk;
     }
+    buf.get(dest, 0, n);
+    data[0] = dest;
     return n;
   }
 
@@ -52,24 +76,35 @@ public class ByteBufferInputStream implements XInputStream, XSeekable
   @Override
   public void skipBytes(int n) throws IOException
   {
-    buffer.position(buffer.position() + n);
+    ByteBuffer buf = getBuffer();
+    buf.position(buf.position() + Math.max(0, Math.min(n, buf.remaining())));
   }
 
   @Override
   public long getLength() throws IOException
   {
-    return buffer.capacity();
+    return getBuffer().limit();
   }
 
   @Override
   public long getPosition() throws IOException
   {
-    return buffer.position();
+    return getBuffer().position();
   }
 
   @Override
   public void seek(long pos) throws IOException
   {
-    buffer.position((int) pos);
+    ByteBuffer buf = getBuffer();
+    buf.position((int) Math.max(0, Math.min(pos, buf.limit())));
+  }
+
+  private ByteBuffer getBuffer() throws IOException
+  {
+    if (buffer == null)
+    {
+      throw new IOException("Stream is closed");
+    }
+    return buffer;
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,61 @@
+package de.muenchen.allg.itd51.wollmux.document;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.sun.star.io.XOutputStream;
+
+/**
+ * Sammelt die über UNO geschriebenen Daten im Speicher, z.B. um ein Dokument über
+ * "private:stream" ohne temporäre Datei zu speichern. Die Daten können mit
+ * {@link #toByteBuffer()} über einen {@link ByteBufferInputStream} wieder gelesen
+ * werden.
+ */
+public class ByteBufferOutputStream implements XOutputStream
+{
+  private byte[] buffer;
+
+  private int count = 0;
+
+  public ByteBufferOutputStream()
+  {
+    this(64 * 1024);
+  }
+
+  public ByteBufferOutputStream(int initialSize)
+  {
+    buffer = new byte[Math.max(initialSize, 16)];
+  }
+
+  @Override
+  public synchronized void writeBytes(byte[] data)
+  {
+    if (count + data.length > buffer.length)
+    {
+      buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, count + data.length));
+    }
+    System.arraycopy(data, 0, buffer, count, data.length);
+    count += data.length;
+  }
+
+  @Override
+  public void flush()
+  {
+    // Die Daten liegen bereits im Speicher.
+  }
+
+  @Override
+  public void closeOutput()
+  {
+    // Die Daten bleiben für toByteBuffer() erhalten.
+  }
+
+  /**
+   * Liefert die bisher geschriebenen Daten, ohne sie zu kopieren. Die Kapazität des
+   * Puffers entspricht der Anzahl der geschriebenen Bytes.
+   */
+  public synchronized ByteBuffer toByteBuffer()
+  {
+    return ByteBuffer.wrap(buffer, 0, count).slice();
+  }
+}
@@ -1,48 +1,125 @@
 package de.muenchen.allg.itd51.wollmux.document;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.HttpURLConnection;
 import java.net.URL;
+import java.net.URLConnection;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
 import com.sun.star.beans.PropertyState;
 import com.sun.star.beans.PropertyValue;
 import com.sun.star.io.XInputStream;
 import com.sun.star.lang.IllegalArgumentException;
 import com.sun.star.lang.XComponent;
-import com.sun.star.uno.Exception;
 
 import de.muenchen.allg.afid.UNO;
 import de.muenchen.allg.afid.UnoHelperException;
+import de.muenchen.allg.itd51.wollmux.WollMuxFiles;
 import de.muenchen.allg.itd51.wollmux.core.util.L;
 
 /**
  * Funktionen zum Laden und Einfügen von Dokumenten. Geladene Dokumente werden
  * gecacht.
+ *
+ * Der Cache besteht aus zwei Stufen: Im Speicher werden Dokumente bis zu einer
+ * Gesamtgröße von {@link #MAX_MEMORY_BYTES} gehalten, zusätzlich werden sie im
+ * Verzeichnis {@link #CACHE_DIR} im WollMux-Verzeichnis gespeichert (siehe
+ * {@link TemplateDiskCache}). Dokumente aus dem Cache werden sofort geliefert und
+ * im Hintergrund anhand von Last-Modified/ETag bzw. dem Änderungszeitpunkt der
+ * Datei gegen das Original geprüft, wenn die letzte Prüfung länger als
+ * {@link #REVALIDATION_INTERVAL} Millisekunden her ist.
  */
 public class DocumentLoader
 {
   private static final Logger LOGGER = LoggerFactory
     .getLogger(DocumentLoader.class);
 
+  /**
+   * Maximale Größe der im Speicher gehaltenen Dokumente in Bytes.
+   */
+  private static final long MAX_MEMORY_BYTES = 64L * 1024 * 1024;
+
+  /**
+   * Name des Verzeichnisses im WollMux-Verzeichnis, in dem die Dokumente
+   * gespeichert werden.
+   */
+  private static final String CACHE_DIR = "templatecache";
+
+  /**
+   * Zeit in Millisekunden, nach der ein Dokument aus dem Cache erneut gegen das
+   * Original geprüft wird.
+   */
+  private static final long REVALIDATION_INTERVAL = TimeUnit.MINUTES.toMillis(5);
+
+  /**
+   * Anzahl der Dokumente, die von {@link #prefetch(Collection)} gleichzeitig
+   * geladen werden.
+   */
+  private static final int PREFETCH_THREADS = 8;
+
+  /**
+   * Zeit in Sekunden, die {@link #prefetch(Collection)} höchstens auf das Laden
+   * der Dokumente wartet.
+   */
+  private static final long PREFETCH_TIMEOUT = 60;
+
   private static DocumentLoader instance;
-  private LoadingCache<String, ByteBuffer> cache;
+
+  private final Cache<String, ByteBuffer> cache;
+
+  private final TemplateDiskCache diskCache;
+
+  private final ExecutorService revalidator;
+
+  private final ExecutorService prefetcher;
+
+  /**
+   * Die URLs, deren Prüfung gerade ansteht oder läuft.
+   */
+  private final Set<String> pendingRevalidations = ConcurrentHashMap.newKeySet();
+
+  private final AtomicLong memoryHits = new AtomicLong();
+
+  private final AtomicLong diskHits = new AtomicLong();
+
+  private final AtomicLong misses = new AtomicLong();
+
+  private final AtomicLong revalidations = new AtomicLong();
+
+  private final AtomicLong updates = new AtomicLong();
+
+  private final AtomicLong downloadedBytes = new AtomicLong();
+
+  private final AtomicLong prefetches = new AtomicLong();
 
   /**
    * Zugriff auf den DocumentLoader als Singleton.
    *
    * @return Singleton-Instanz des DocumentLoaders
    */
-  public static DocumentLoader getInstance()
+  public static synchronized DocumentLoader getInstance()
   {
     if (instance == null)
     {
@@ -54,32 +131,255 @@ public class DocumentLoader
   private DocumentLoader()
   {
     cache = CacheBuilder.newBuilder()
-      .maximumSize(50)
-      .expireAfterAccess(8, TimeUnit.HOURS)
-        .build(new CacheLoader<String, ByteBuffer>()
-      {
-        @Override
-          public ByteBuffer load(String url) throws Exception
-        {
-          return downloadDocument(url);
-        }
-      });
+      .maximumWeight(MAX_MEMORY_BYTES)
+      .weigher((String url, ByteBuffer buf) -> buf.capacity())
+      .build();
+
+    File wollmuxDir = WollMuxFiles.getWollMuxDir();
+    diskCache = new TemplateDiskCache(
+      wollmuxDir != null ? new File(wollmuxDir, CACHE_DIR) : null);
+
+    revalidator = Executors.newSingleThreadExecutor(r -> {
+      Thread t = new Thread(r, "WollMux DocumentLoader");
+      t.setDaemon(true);
+      return t;
+    });
+
+    AtomicInteger prefetchThreads = new AtomicInteger();
+    prefetcher = Executors.newFixedThreadPool(PREFETCH_THREADS, r -> {
+      Thread t = new Thread(r,
+        "WollMux DocumentLoader Prefetch " + prefetchThreads.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    });
   }
 
-  private ByteBuffer downloadDocument(String url)
+  /**
+   * Liefert das Dokument url aus dem Cache auf der Festplatte oder lädt es, wenn
+   * es dort nicht vorhanden ist.
+   */
+  private ByteBuffer loadCachedDocument(String url) throws IOException
   {
-    byte[] buf = null;
-    try (InputStream in = new URL(url).openStream())
+    ByteBuffer cached = diskCache.map(url);
+    if (cached != null)
+    {
+      diskHits.incrementAndGet();
+      scheduleRevalidation(url);
+      return cached;
+    }
+
+    misses.incrementAndGet();
+    byte[] data;
+    try
     {
-      buf = IOUtils.toByteArray(in);
+      data = downloadDocument(url, null);
     } catch (IOException e)
     {
       LOGGER.error(
         L.m("Die Vorlage mit der URL '%1' kann nicht geöffnet werden.", url),
         e);
+      throw e;
+    }
+    return ByteBuffer.wrap(data);
+  }
+
+  /**
+   * Lädt das Dokument url und speichert es im Cache auf der Festplatte. Ist entry
+   * != null, wird das Dokument nur geladen, wenn es sich gegenüber entry geändert
+   * hat.
+   *
+   * @return Das geladene Dokument oder null, wenn es sich nicht geändert hat.
+   */
+  private byte[] downloadDocument(String url, TemplateDiskCache.Entry entry)
+      throws IOException
+  {
+    URLConnection conn = new URL(url).openConnection();
+    if (entry != null)
+    {
+      if (entry.lastModified > 0)
+        conn.setIfModifiedSince(entry.lastModified);
+      if (entry.etag != null)
+        conn.setRequestProperty("If-None-Match", entry.etag);
+    }
+    conn.connect();
+
+    long lastModified = conn.getLastModified();
+    String etag = conn.getHeaderField("ETag");
+    if (entry != null)
+    {
+      boolean notModified;
+      if (conn instanceof HttpURLConnection)
+      {
+        notModified = ((HttpURLConnection) conn)
+          .getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED;
+      } else
+      {
+        notModified = lastModified > 0 && lastModified == entry.lastModified
+          && conn.getContentLengthLong() == entry.length;
+      }
+      if (notModified)
+      {
+        closeConnection(conn);
+        return null;
+      }
+    }
+
+    byte[] data;
+    try (InputStream in = conn.getInputStream())
+    {
+      data = IOUtils.toByteArray(in);
+    }
+    downloadedBytes.addAndGet(data.length);
+
+    TemplateDiskCache.Entry stored = diskCache.store(url, data, lastModified, etag);
+    if (entry != null && entry.hash.equals(stored.hash))
+    {
+      return null;
+    }
+    return data;
+  }
+
+  private static void closeConnection(URLConnection conn)
+  {
+    if (conn instanceof HttpURLConnection)
+    {
+      ((HttpURLConnection) conn).disconnect();
+      return;
+    }
+    try
+    {
+      conn.getInputStream().close();
+    } catch (IOException e)
+    {
+      LOGGER.trace("", e);
+    }
+  }
+
+  /**
+   * Prüft das Dokument url im Hintergrund gegen das Original, wenn die letzte
+   * Prüfung länger als {@link #REVALIDATION_INTERVAL} her ist.
+   */
+  private void scheduleRevalidation(String url)
+  {
+    TemplateDiskCache.Entry entry = diskCache.getEntry(url);
+    if (entry != null
+      && System.currentTimeMillis() - entry.validated < REVALIDATION_INTERVAL)
+    {
+      return;
+    }
+    if (!pendingRevalidations.add(url))
+    {
+      return;
+    }
+
+    revalidator.execute(() -> {
+      try
+      {
+        revalidate(url);
+      } finally
+      {
+        pendingRevalidations.remove(url);
+      }
+    });
+  }
+
+  private void revalidate(String url)
+  {
+    revalidations.incrementAndGet();
+    TemplateDiskCache.Entry entry = diskCache.getEntry(url);
+    try
+    {
+      byte[] data = downloadDocument(url, entry);
+      if (data != null)
+      {
+        updates.incrementAndGet();
+        cache.put(url, ByteBuffer.wrap(data));
+        LOGGER.debug(L.m("Die Vorlage '%1' wurde im Cache aktualisiert.", url));
+      } else
+      {
+        diskCache.touch(url);
+      }
+    } catch (IOException e)
+    {
+      // Das Original ist gerade nicht erreichbar. Der Inhalt des Caches bleibt
+      // gültig und wird beim nächsten Zugriff erneut geprüft.
+      LOGGER.debug(
+        L.m("Die Vorlage '%1' kann nicht geprüft werden.", url), e);
+    }
+  }
+
+  /**
+   * Liefert eine Beschreibung des Zustands des Caches für
+   * {@link WollMuxFiles#dumpInfo()}.
+   */
+  public String getCacheStatistics()
+  {
+    long memoryBytes = 0;
+    for (ByteBuffer buf : cache.asMap().values())
+    {
+      memoryBytes += buf.capacity();
     }
 
-    return ByteBuffer.wrap(buf);
+    StringBuilder buffy = new StringBuilder();
+    buffy.append("Memory: ").append(cache.size()).append(" documents, ")
+      .append(memoryBytes / 1024).append(" KB of ")
+      .append(MAX_MEMORY_BYTES / 1024).append(" KB\n");
+    buffy.append("Disk: ").append(diskCache.size()).append(" documents, ")
+      .append(diskCache.getBytes() / 1024).append(" KB\n");
+    buffy.append("Memory hits: ").append(memoryHits.get()).append("\n");
+    buffy.append("Disk hits: ").append(diskHits.get()).append("\n");
+    buffy.append("Misses: ").append(misses.get()).append("\n");
+    buffy.append("Revalidations: ").append(revalidations.get())
+      .append(" (updated: ").append(updates.get()).append(")\n");
+    buffy.append("Prefetched: ").append(prefetches.get()).append("\n");
+    buffy.append("Downloaded: ").append(downloadedBytes.get() / 1024)
+      .append(" KB\n");
+    return buffy.toString();
+  }
+
+  /**
+   * Lädt alle Dokumente aus paths, die noch nicht im Cache sind, gleichzeitig in
+   * den Cache und kehrt zurück, wenn alle geladen sind oder
+   * {@link #PREFETCH_TIMEOUT} Sekunden vergangen sind. Fehler beim Laden werden
+   * nur protokolliert, sie treten beim eigentlichen Zugriff auf das Dokument
+   * erneut auf und werden dort behandelt.
+   *
+   * @param paths
+   *          URLs der Dokumente in der Form, wie sie auch
+   *          {@link #insertDocument(Object, String)} übergeben werden.
+   */
+  public void prefetch(Collection<String> paths)
+  {
+    List<Future<ByteBuffer>> futures = new ArrayList<>();
+    for (String path : new LinkedHashSet<>(paths))
+    {
+      if (!isCached(path))
+      {
+        prefetches.incrementAndGet();
+        futures.add(prefetcher.submit(() -> cache.get(path, () -> loadCachedDocument(path))));
+      }
+    }
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(PREFETCH_TIMEOUT);
+    for (Future<ByteBuffer> future : futures)
+    {
+      try
+      {
+        future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+      } catch (ExecutionException e)
+      {
+        LOGGER.debug("", e);
+      } catch (TimeoutException e)
+      {
+        LOGGER.debug(L.m("Das Laden der Textfragmente dauert länger als %1 Sekunden.",
+          PREFETCH_TIMEOUT));
+        return;
+      } catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
   }
 
   /**
@@ -131,14 +431,39 @@ public class DocumentLoader
     return null;
   }
 
+  /**
+   * Liefert true, wenn das Dokument path im Speicher gecacht ist.
+   */
   public boolean hasDocument(String path)
   {
     return cache.getIfPresent(path) != null;
   }
 
+  /**
+   * Liefert true, wenn das Dokument path im Speicher oder auf der Festplatte
+   * gecacht ist und daher über {@link #insertDocument(Object, String)},
+   * {@link #loadDocument(String, boolean, boolean)} bzw.
+   * {@link #getDocumentStream(String)} ohne Zugriff auf das Original geöffnet
+   * werden kann. Für Aufrufe, die Office die URL selbst auflösen lassen (z.B.
+   * XStyleLoader.loadStylesFromURL), gilt das nicht.
+   */
+  public boolean isCached(String path)
+  {
+    return hasDocument(path) || diskCache.contains(path);
+  }
+
   public XInputStream getDocumentStream(String path) throws ExecutionException
   {
-    ByteBuffer buf = cache.get(path);
+    ByteBuffer buf = cache.getIfPresent(path);
+    if (buf != null)
+    {
+      memoryHits.incrementAndGet();
+      scheduleRevalidation(path);
+    } else
+    {
+      buf = cache.get(path, () -> loadCachedDocument(path));
+    }
+    // Jeder Stream liest aus einer eigenen Sicht auf den gecachten Puffer.
     return new ByteBufferInputStream(buf);
   }
 }
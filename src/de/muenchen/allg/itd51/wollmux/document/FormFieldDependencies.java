@@ -0,0 +1,189 @@
+package de.muenchen.allg.itd51.wollmux.document;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.muenchen.allg.itd51.wollmux.core.document.FormFieldFactory.FormField;
+import de.muenchen.allg.itd51.wollmux.core.functions.Function;
+import de.muenchen.allg.itd51.wollmux.core.functions.FunctionLibrary;
+
+/**
+ * Ein Index von Formularfeld-IDs auf die Textfelder (InputUser- und
+ * Database-Felder), deren Inhalt von der ID abhängt. Die Abhängigkeiten werden
+ * einmalig beim Aufbau aus den Parametern der TRAFO-Funktionen
+ * ({@link Function#parameters()}) bestimmt, so dass beim Ändern eines
+ * Formularwertes nur die TRAFOs der abhängigen Felder berechnet werden müssen,
+ * und zwar jede TRAFO nur einmal, auch wenn sie von mehreren Feldern verwendet
+ * wird.
+ *
+ * Felder, deren TRAFO keine Parameter hat, hängen von keinem Formularwert ab und
+ * sind nur über {@link #getStaticTrafos()} erreichbar.
+ *
+ * Der Index gilt nur für die Textfelder und die Funktionsbibliothek, mit denen er
+ * erzeugt wurde, und muss verworfen werden, sobald sich die Textfelder ändern
+ * (siehe {@link TextDocumentController#collectNonWollMuxFormFields()}).
+ */
+class FormFieldDependencies
+{
+  /**
+   * Eine TRAFO mit den Feldern, die sie verwenden.
+   */
+  static class Trafo
+  {
+    private final String name;
+
+    /**
+     * Die Funktion aus der Funktionsbibliothek oder null, wenn sie nicht definiert
+     * ist.
+     */
+    private final Function func;
+
+    private final String[] parameters;
+
+    private final List<FormField> fields = new ArrayList<>();
+
+    Trafo(String name, Function func)
+    {
+      this.name = name;
+      this.func = func;
+      this.parameters = func != null ? func.parameters() : new String[] {};
+    }
+
+    String getName()
+    {
+      return name;
+    }
+
+    Function getFunction()
+    {
+      return func;
+    }
+
+    /**
+     * Die IDs der Formularwerte, die der Funktion übergeben werden.
+     */
+    String[] getParameters()
+    {
+      return parameters;
+    }
+
+    List<FormField> getFields()
+    {
+      return fields;
+    }
+  }
+
+  /**
+   * Die Felder ohne TRAFO je ID, die den Formularwert unverändert anzeigen.
+   */
+  private final Map<String, List<FormField>> untransformedFields = new HashMap<>();
+
+  /**
+   * Die TRAFOs je ID, die die ID als Parameter erwarten.
+   */
+  private final Map<String, List<Trafo>> trafosById = new HashMap<>();
+
+  private final List<Trafo> staticTrafos = new ArrayList<>();
+
+  /**
+   * Erzeugt den Index.
+   *
+   * @param idToTextFieldFormFields
+   *          Die Zuordnung von IDs auf die Textfelder, die die ID verwenden (siehe
+   *          TextDocumentModel#getIdToTextFieldFormFields()).
+   * @param staticTextFieldFormFields
+   *          Die Textfelder mit parameterlosen TRAFOs (siehe
+   *          TextDocumentModel#getStaticTextFieldFormFields()).
+   * @param funcLib
+   *          Die Funktionsbibliothek, aus der die TRAFOs aufgelöst werden.
+   */
+  FormFieldDependencies(Map<String, List<FormField>> idToTextFieldFormFields,
+      List<FormField> staticTextFieldFormFields, FunctionLibrary funcLib)
+  {
+    Map<String, Trafo> trafos = new HashMap<>();
+    Map<FormField, Boolean> indexed = new IdentityHashMap<>();
+    for (Map.Entry<String, List<FormField>> entry : idToTextFieldFormFields.entrySet())
+    {
+      String id = entry.getKey();
+      for (FormField field : entry.getValue())
+      {
+        String trafoName = field.getTrafoName();
+        if (trafoName == null)
+        {
+          add(untransformedFields, id, field);
+          continue;
+        }
+
+        Trafo trafo = trafos.get(trafoName);
+        if (trafo == null)
+        {
+          trafo = new Trafo(trafoName, funcLib.get(trafoName));
+          trafos.put(trafoName, trafo);
+        }
+        // Ein Feld ist unter jedem Parameter seiner TRAFO eingetragen, gehört
+        // aber nur einmal zur TRAFO.
+        if (indexed.put(field, Boolean.TRUE) == null)
+          trafo.fields.add(field);
+        List<Trafo> list = trafosById.get(id);
+        if (list == null || !list.contains(trafo))
+          add(trafosById, id, trafo);
+      }
+    }
+
+    Map<String, Trafo> statics = new HashMap<>();
+    for (FormField field : staticTextFieldFormFields)
+    {
+      String trafoName = field.getTrafoName();
+      Trafo trafo = statics.get(trafoName);
+      if (trafo == null)
+      {
+        trafo = new Trafo(trafoName, funcLib.get(trafoName));
+        statics.put(trafoName, trafo);
+        staticTrafos.add(trafo);
+      }
+      trafo.fields.add(field);
+    }
+  }
+
+  private static <T> void add(Map<String, List<T>> map, String id, T element)
+  {
+    List<T> list = map.get(id);
+    if (list == null)
+    {
+      list = new ArrayList<>();
+      map.put(id, list);
+    }
+    list.add(element);
+  }
+
+  /**
+   * Liefert die Felder ohne TRAFO, die den Formularwert zu id anzeigen.
+   */
+  List<FormField> getUntransformedFields(String id)
+  {
+    List<FormField> fields = untransformedFields.get(id);
+    return fields != null ? fields : Collections.<FormField> emptyList();
+  }
+
+  /**
+   * Liefert die TRAFOs, die von id abhängen.
+   */
+  List<Trafo> getTrafos(String id)
+  {
+    List<Trafo> trafos = trafosById.get(id);
+    return trafos != null ? trafos : Collections.<Trafo> emptyList();
+  }
+
+  /**
+   * Liefert die parameterlosen TRAFOs der Felder, die von keinem Formularwert
+   * abhängen.
+   */
+  List<Trafo> getStaticTrafos()
+  {
+    return staticTrafos;
+  }
+}
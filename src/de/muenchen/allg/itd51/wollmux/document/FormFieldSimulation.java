@@ -0,0 +1,211 @@
+package de.muenchen.allg.itd51.wollmux.document;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.muenchen.allg.itd51.wollmux.core.document.FormFieldFactory.FormField;
+import de.muenchen.allg.itd51.wollmux.core.document.SimulationResults;
+import de.muenchen.allg.itd51.wollmux.core.functions.Function;
+import de.muenchen.allg.itd51.wollmux.core.functions.FunctionLibrary;
+import de.muenchen.allg.itd51.wollmux.core.functions.Values.SimpleMap;
+import de.muenchen.allg.itd51.wollmux.core.util.L;
+
+/**
+ * Eine Momentaufnahme der Formularfelder eines Dokuments, mit der sich das Setzen
+ * von Formularwerten im Simulationsmodus (siehe
+ * {@link TextDocumentController#startSimulation()}) rein in Java nachbilden lässt,
+ * ohne für jeden Datensatz auf das Dokument zuzugreifen.
+ *
+ * Die Simulation bildet nur das Setzen von Werten nach, die nicht von der
+ * Formularbeschreibung verwaltet werden (siehe
+ * {@link TextDocumentController#addFormFieldValue(String, String)}), da nur dann
+ * keine Abhängigkeiten zu anderen Formularfeldern oder Sichtbarkeiten aufgelöst
+ * werden müssen. Die Inhalte und TRAFO-Namen der Formularfelder werden nur beim
+ * Erzeugen der Momentaufnahme gelesen, {@link #simulate(Map)} greift nicht mehr auf
+ * das Dokument zu. Da die Trafofunktionen nicht threadsicher sein müssen, darf
+ * {@link #simulate(Map)} nicht parallel aufgerufen werden.
+ */
+public class FormFieldSimulation
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger(FormFieldSimulation.class);
+
+  private final FunctionLibrary functionLib;
+
+  private final boolean previewMode;
+
+  private final Map<String, String> formFieldValues;
+
+  private final Map<String, Boolean> groupState;
+
+  private final Map<FormField, String> formFieldContents;
+
+  /**
+   * Die TRAFO-Namen der Formularfelder. Felder ohne TRAFO sind nicht enthalten.
+   */
+  private final Map<FormField, String> trafoNames;
+
+  private final Map<String, List<FormField>> idToFormFields;
+
+  private final Map<String, List<FormField>> idToTextFieldFormFields;
+
+  /**
+   * Erzeugt die Momentaufnahme. Die Maps und Listen werden kopiert, die Inhalte
+   * und TRAFO-Namen der Formularfelder werden einmalig aus dem Dokument gelesen.
+   */
+  FormFieldSimulation(FunctionLibrary functionLib, boolean previewMode,
+      Map<String, String> formFieldValues, Map<String, Boolean> groupState,
+      Map<String, List<FormField>> idToFormFields,
+      Map<String, List<FormField>> idToTextFieldFormFields,
+      List<FormField> staticTextFieldFormFields)
+  {
+    this.functionLib = functionLib;
+    this.previewMode = previewMode;
+    this.formFieldValues = new HashMap<>(formFieldValues);
+    this.groupState = new HashMap<>(groupState);
+    this.idToFormFields = copy(idToFormFields);
+    this.idToTextFieldFormFields = copy(idToTextFieldFormFields);
+
+    Set<FormField> fields = new HashSet<>();
+    for (List<FormField> l : this.idToFormFields.values())
+      fields.addAll(l);
+    for (List<FormField> l : this.idToTextFieldFormFields.values())
+      fields.addAll(l);
+    fields.addAll(staticTextFieldFormFields);
+    formFieldContents = new HashMap<>();
+    trafoNames = new HashMap<>();
+    for (FormField field : fields)
+    {
+      formFieldContents.put(field, field.getValue());
+      String trafoName = field.getTrafoName();
+      if (trafoName != null)
+        trafoNames.put(field, trafoName);
+    }
+  }
+
+  private static Map<String, List<FormField>> copy(Map<String, List<FormField>> map)
+  {
+    Map<String, List<FormField>> result = new HashMap<>();
+    for (Map.Entry<String, List<FormField>> entry : map.entrySet())
+      result.put(entry.getKey(), Collections.unmodifiableList(new ArrayList<>(entry.getValue())));
+    return result;
+  }
+
+  /**
+   * Simuliert das Setzen der Formularwerte values in der Iterationsreihenfolge der
+   * Map, ausgehend vom Zustand des Dokuments beim Erzeugen der Momentaufnahme, und
+   * liefert das Ergebnis so, wie es {@link TextDocumentController#stopSimulation()}
+   * nach den entsprechenden Aufrufen von
+   * {@link TextDocumentController#addFormFieldValue(String, String)} liefern würde.
+   */
+  public SimulationResults simulate(Map<String, String> values)
+  {
+    Map<String, String> simValues = new HashMap<>(formFieldValues);
+    Map<FormField, String> contents = new HashMap<>(formFieldContents);
+
+    for (Map.Entry<String, String> entry : values.entrySet())
+    {
+      String fieldId = entry.getKey();
+      simValues.put(fieldId, entry.getValue());
+
+      String value;
+      boolean applyTrafo;
+      if (previewMode)
+      {
+        value = simValues.get(fieldId);
+        if (value == null)
+          value = "";
+        applyTrafo = true;
+      }
+      else
+      {
+        value = "<" + fieldId + ">";
+        applyTrafo = false;
+      }
+
+      setFormFields(contents, simValues, idToFormFields.get(fieldId), value,
+        applyTrafo, false, new HashMap<String, String>());
+      setFormFields(contents, simValues, idToTextFieldFormFields.get(fieldId),
+        value, applyTrafo, true, new HashMap<String, String>());
+    }
+
+    // Die statischen Felder hängen von keinem Formularwert ab und behalten wie im
+    // TextDocumentController ihren Inhalt beim Erzeugen der Momentaufnahme.
+
+    SimulationResults result = new SimulationResults();
+    result.setFormFieldValues(simValues);
+    result.setGroupsVisibilityState(new HashMap<>(groupState));
+    for (Map.Entry<FormField, String> content : contents.entrySet())
+      result.setFormFieldContent(content.getKey(), content.getValue());
+    return result;
+  }
+
+  /**
+   * Entspricht TextDocumentController#setFormFields(String, String, boolean) im
+   * Simulationsmodus.
+   */
+  private void setFormFields(Map<FormField, String> contents,
+      Map<String, String> simValues, List<FormField> formFields, String value,
+      boolean applyTrafo, boolean useKnownFormValues,
+      Map<String, String> transformedValues)
+  {
+    if (formFields == null)
+      return;
+
+    for (FormField field : formFields)
+    {
+      try
+      {
+        String result;
+        String trafoName = trafoNames.get(field);
+        if (trafoName != null && applyTrafo)
+        {
+          result = transformedValues.get(trafoName);
+          if (result == null)
+          {
+            result = getTransformedValue(trafoName, simValues, useKnownFormValues
+                ? null : value);
+            transformedValues.put(trafoName, result);
+          }
+        }
+        else
+          result = value;
+        contents.put(field, result);
+      }
+      catch (RuntimeException e)
+      {
+        // Absicherung wie im TextDocumentController.
+      }
+    }
+  }
+
+  /**
+   * Führt die Trafofunktion trafoName aus. Ist value != null, so wird value für
+   * alle Parameter übergeben, ansonsten werden die Parameter aus simValues
+   * bestimmt.
+   */
+  private String getTransformedValue(String trafoName, Map<String, String> simValues,
+      String value)
+  {
+    Function func = functionLib.get(trafoName);
+    if (func != null)
+    {
+      SimpleMap args = new SimpleMap();
+      for (String par : func.parameters())
+        args.put(par, value != null ? value : simValues.get(par));
+      return func.getString(args);
+    }
+    else
+    {
+      LOGGER.error(L.m("Die TRAFO '%1' ist nicht definiert.", trafoName));
+      return L.m("<FEHLER: TRAFO '%1' nicht definiert>", trafoName);
+    }
+  }
+}
@@ -0,0 +1,360 @@
+package de.muenchen.allg.itd51.wollmux.document;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.hash.Hashing;
+
+import de.muenchen.allg.itd51.wollmux.core.util.L;
+
+/**
+ * Speichert Vorlagen inhaltsadressiert in einem Verzeichnis, damit sie auch nach
+ * einem Neustart von Office ohne Zugriff auf den Server geöffnet werden können.
+ *
+ * Jeder Inhalt liegt genau einmal in einer Datei, deren Name der SHA-256-Hash des
+ * Inhalts ist. Die Datei {@link #INDEX_FILE} ordnet jeder URL den Hash ihres
+ * Inhalts sowie die Angaben zu, mit denen später geprüft werden kann, ob sich die
+ * Vorlage geändert hat (Last-Modified, ETag, Länge).
+ */
+class TemplateDiskCache
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger(TemplateDiskCache.class);
+
+  static final String INDEX_FILE = "index.properties";
+
+  /**
+   * Länge eines Hashs (SHA-256) als Hex-String.
+   */
+  private static final int HASH_LENGTH = 64;
+
+  private final File dir;
+
+  private final Map<String, Entry> index = new ConcurrentHashMap<>();
+
+  /**
+   * Erzeugt den Cache im Verzeichnis dir und liest dessen Index ein. Kann das
+   * Verzeichnis nicht angelegt werden, werden nur die Angaben zu den URLs im
+   * Speicher gehalten, damit sie weiterhin geprüft werden können; die Inhalte
+   * werden dann nicht gespeichert.
+   */
+  TemplateDiskCache(File dir)
+  {
+    if (dir != null && !dir.isDirectory() && !dir.mkdirs())
+    {
+      LOGGER.error(L.m("Das Verzeichnis '%1' kann nicht angelegt werden.", dir));
+      dir = null;
+    }
+    this.dir = dir;
+    loadIndex();
+  }
+
+  /**
+   * Liefert die Angaben zur URL url oder null, wenn sie nicht im Cache ist.
+   */
+  Entry getEntry(String url)
+  {
+    return index.get(url);
+  }
+
+  /**
+   * Liefert true, wenn der Inhalt der URL url im Verzeichnis gespeichert ist.
+   */
+  boolean contains(String url)
+  {
+    return dir != null && index.containsKey(url);
+  }
+
+  /**
+   * Liefert den gespeicherten Inhalt zur URL url oder null, wenn er nicht im Cache
+   * ist oder die Datei nicht mehr zum Hash passt. Die Datei wird dabei nicht
+   * eingelesen, sondern schreibgeschützt in den Speicher eingeblendet.
+   */
+  ByteBuffer map(String url)
+  {
+    Entry entry = index.get(url);
+    if (entry == null || dir == null)
+      return null;
+
+    try (FileChannel channel = FileChannel.open(new File(dir, entry.hash).toPath(),
+      StandardOpenOption.READ))
+    {
+      ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (entry.hash.equals(Hashing.sha256().hashBytes(data.duplicate()).toString()))
+        return data;
+      LOGGER.debug(L.m("Die Vorlage '%1' im Cache ist beschädigt.", url));
+    }
+    catch (IOException e)
+    {
+      LOGGER.debug("", e);
+    }
+    remove(url);
+    return null;
+  }
+
+  /**
+   * Speichert data als Inhalt der URL url mit den Angaben lastModified, etag (darf
+   * null sein) und liefert den neuen Eintrag.
+   */
+  synchronized Entry store(String url, byte[] data, long lastModified, String etag)
+  {
+    Entry entry = new Entry(hash(data), lastModified, etag, data.length,
+      System.currentTimeMillis());
+    if (dir == null)
+    {
+      index.put(url, entry);
+      return entry;
+    }
+
+    File file = new File(dir, entry.hash);
+    try
+    {
+      if (!file.exists())
+      {
+        File tmp = File.createTempFile(entry.hash, ".tmp", dir);
+        try
+        {
+          Files.write(tmp.toPath(), data);
+          Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally
+        {
+          tmp.delete();
+        }
+      }
+      Entry old = index.put(url, entry);
+      if (old != null && !old.hash.equals(entry.hash))
+        deleteUnreferenced(old.hash);
+      saveIndex();
+    }
+    catch (IOException e)
+    {
+      LOGGER.error(L.m("Die Vorlage '%1' kann nicht im Cache gespeichert werden.", url), e);
+    }
+    return entry;
+  }
+
+  /**
+   * Vermerkt, dass der Inhalt der URL url gerade als aktuell bestätigt wurde.
+   */
+  synchronized void touch(String url)
+  {
+    Entry entry = index.get(url);
+    if (entry == null)
+      return;
+    index.put(url, new Entry(entry.hash, entry.lastModified, entry.etag, entry.length,
+      System.currentTimeMillis()));
+    saveIndex();
+  }
+
+  synchronized void remove(String url)
+  {
+    Entry old = index.remove(url);
+    if (old != null)
+    {
+      deleteUnreferenced(old.hash);
+      saveIndex();
+    }
+  }
+
+  /**
+   * Liefert die Anzahl der URLs im Cache.
+   */
+  int size()
+  {
+    return index.size();
+  }
+
+  /**
+   * Liefert die Größe der gespeicherten Inhalte in Bytes.
+   */
+  long getBytes()
+  {
+    Set<String> hashes = new HashSet<>();
+    long bytes = 0;
+    for (Entry entry : index.values())
+    {
+      if (hashes.add(entry.hash))
+        bytes += entry.length;
+    }
+    return bytes;
+  }
+
+  private void deleteUnreferenced(String hash)
+  {
+    if (dir == null)
+      return;
+    for (Entry entry : index.values())
+    {
+      if (entry.hash.equals(hash))
+        return;
+    }
+    new File(dir, hash).delete();
+  }
+
+  private void loadIndex()
+  {
+    if (dir == null)
+      return;
+    File file = new File(dir, INDEX_FILE);
+    if (!file.exists())
+      return;
+
+    Properties props = new Properties();
+    try (InputStream in = new FileInputStream(file))
+    {
+      props.load(in);
+    }
+    catch (IOException e)
+    {
+      LOGGER.error(L.m("Der Index des Vorlagen-Caches '%1' kann nicht gelesen werden.", file), e);
+      return;
+    }
+
+    for (String url : props.stringPropertyNames())
+    {
+      Entry entry = Entry.parse(props.getProperty(url));
+      if (entry != null && new File(dir, entry.hash).isFile())
+        index.put(url, entry);
+    }
+    deleteOrphans();
+  }
+
+  /**
+   * Löscht Inhalte, auf die keine URL mehr verweist. Solche Dateien entstehen,
+   * wenn eine eingeblendete Datei (siehe {@link #map(String)}) beim Ersetzen nicht
+   * gelöscht werden konnte.
+   */
+  private void deleteOrphans()
+  {
+    Set<String> hashes = new HashSet<>();
+    for (Entry entry : index.values())
+      hashes.add(entry.hash);
+
+    File[] files = dir.listFiles();
+    if (files == null)
+      return;
+    for (File file : files)
+    {
+      if (file.getName().length() == HASH_LENGTH && !hashes.contains(file.getName()))
+        file.delete();
+    }
+  }
+
+  private void saveIndex()
+  {
+    if (dir == null)
+      return;
+
+    Properties props = new Properties();
+    for (Map.Entry<String, Entry> entry : index.entrySet())
+      props.setProperty(entry.getKey(), entry.getValue().toString());
+
+    File file = new File(dir, INDEX_FILE);
+    try
+    {
+      File tmp = File.createTempFile(INDEX_FILE, ".tmp", dir);
+      try
+      {
+        try (OutputStream out = new FileOutputStream(tmp))
+        {
+          props.store(out, "WollMux template cache");
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      }
+      finally
+      {
+        tmp.delete();
+      }
+    }
+    catch (IOException e)
+    {
+      LOGGER.error(L.m("Der Index des Vorlagen-Caches '%1' kann nicht gespeichert werden.", file), e);
+    }
+  }
+
+  static String hash(byte[] data)
+  {
+    return Hashing.sha256().hashBytes(data).toString();
+  }
+
+  /**
+   * Die Angaben zu einer URL im Cache.
+   */
+  static class Entry
+  {
+    /**
+     * SHA-256-Hash des Inhalts und zugleich Name der Datei mit dem Inhalt.
+     */
+    final String hash;
+
+    /**
+     * Last-Modified des Servers bzw. Änderungszeitpunkt der Datei oder 0, wenn
+     * unbekannt.
+     */
+    final long lastModified;
+
+    /**
+     * ETag des Servers oder null.
+     */
+    final String etag;
+
+    final long length;
+
+    /**
+     * Zeitpunkt, zu dem der Inhalt zuletzt geladen oder als aktuell bestätigt
+     * wurde.
+     */
+    final long validated;
+
+    Entry(String hash, long lastModified, String etag, long length, long validated)
+    {
+      this.hash = hash;
+      this.lastModified = lastModified;
+      this.etag = etag;
+      this.length = length;
+      this.validated = validated;
+    }
+
+    static Entry parse(String value)
+    {
+      String[] parts = value.split("\\|", 5);
+      if (parts.length < 4)
+        return null;
+      try
+      {
+        return new Entry(parts[0], Long.parseLong(parts[1]),
+          parts.length > 4 ? parts[4] : null, Long.parseLong(parts[2]),
+          Long.parseLong(parts[3]));
+      }
+      catch (NumberFormatException e)
+      {
+        return null;
+      }
+    }
+
+    @Override
+    public String toString()
+    {
+      return hash + "|" + lastModified + "|" + length + "|" + validated
+        + (etag != null ? "|" + etag : "");
+    }
+  }
+}
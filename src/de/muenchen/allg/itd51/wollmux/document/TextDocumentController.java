@@ -2,12 +2,16 @@ package de.muenchen.allg.itd51.wollmux.document;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.WeakHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -16,6 +20,7 @@ import com.sun.star.beans.XPropertySet;
 import com.sun.star.container.XEnumeration;
 import com.sun.star.container.XNameAccess;
 import com.sun.star.frame.XFrame;
+import com.sun.star.frame.XModel;
 import com.sun.star.lang.XComponent;
 import com.sun.star.lang.XMultiServiceFactory;
 import com.sun.star.text.XBookmarksSupplier;
@@ -24,10 +29,11 @@ import com.sun.star.text.XTextContent;
 import com.sun.star.text.XTextCursor;
 import com.sun.star.text.XTextRange;
 import com.sun.star.uno.RuntimeException;
+import com.sun.star.uno.UnoRuntime;
 
 import de.muenchen.allg.afid.UNO;
 import de.muenchen.allg.itd51.wollmux.SachleitendeVerfuegung;
-import de.muenchen.allg.itd51.wollmux.WollMuxFiles;
+import de.muenchen.allg.itd51.wollmux.WollMuxConfIndex;
 import de.muenchen.allg.itd51.wollmux.core.db.ColumnNotFoundException;
 import de.muenchen.allg.itd51.wollmux.core.db.Dataset;
 import de.muenchen.allg.itd51.wollmux.core.db.DatasetNotFoundException;
@@ -42,6 +48,7 @@ import de.muenchen.allg.itd51.wollmux.core.document.TextDocumentModel.FieldSubst
 import de.muenchen.allg.itd51.wollmux.core.document.TextDocumentModel.OverrideFragChainException;
 import de.muenchen.allg.itd51.wollmux.core.document.VisibilityElement;
 import de.muenchen.allg.itd51.wollmux.core.document.commands.DocumentCommand;
+import de.muenchen.allg.itd51.wollmux.core.document.commands.DocumentCommands;
 import de.muenchen.allg.itd51.wollmux.core.document.commands.DocumentCommand.OptionalHighlightColorProvider;
 import de.muenchen.allg.itd51.wollmux.core.exceptions.UnavailableException;
 import de.muenchen.allg.itd51.wollmux.core.form.model.FormModel;
@@ -115,6 +122,44 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
 
   private FormModel formModel;
 
+  /**
+   * Index der Sichtbarkeitselemente nach Gruppen oder null, wenn er neu aufgebaut
+   * werden muss.
+   */
+  private VisibilityIndex visibilityIndex;
+
+  /**
+   * Index der Textfelder nach den Formularwerten, von denen sie abhängen, oder
+   * null, wenn er neu aufgebaut werden muss.
+   */
+  private FormFieldDependencies formFieldDependencies;
+
+  /**
+   * Die von {@link #collectNonWollMuxFormFields()} zuletzt gefundenen Textfelder
+   * in Dokumentreihenfolge, zugeordnet über ihre UNO-OID.
+   */
+  private Map<String, TextFieldEntry> textFields = new LinkedHashMap<>();
+
+  /**
+   * Die zuletzt von {@link #setPrintBlocksProps(String, boolean, boolean)} für einen
+   * Druckblock gesetzten Eigenschaften (siehe {@link #PRINT_BLOCK_VISIBLE} und
+   * {@link #PRINT_BLOCK_HIGHLIGHTED}). Damit werden unveränderte Druckblöcke beim
+   * erneuten Setzen übersprungen.
+   */
+  private Map<DocumentCommand, Integer> printBlockStates = new WeakHashMap<>();
+
+  private static final int PRINT_BLOCK_VISIBLE = 1;
+
+  private static final int PRINT_BLOCK_HIGHLIGHTED = 2;
+
+  /**
+   * Anzahl der über UNO gesetzten bzw. übersprungenen Sichtbarkeits- und
+   * Hintergrundfarb-Eigenschaften von Druckblöcken und Sichtbarkeitselementen.
+   */
+  private long visibilityWrites = 0;
+
+  private long visibilitySkips = 0;
+
   public TextDocumentController(TextDocumentModel model, FunctionLibrary globalFunctions, DialogLibrary globalDialogs)
   {
     this.model = model;
@@ -303,7 +348,7 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
   private ConfigThingy applyFormularanpassung(ConfigThingy formularConf)
   {
     ConfigThingy anpassungen =
-        WollMuxFiles.getWollmuxConf().query("Formularanpassung", 1);
+        WollMuxConfIndex.getInstance().queryTopLevel("Formularanpassung");
     if (anpassungen.count() == 0) {
       return formularConf;
     }
@@ -398,9 +443,18 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
     return false;
   }
 
-  public synchronized void updateDocumentCommands()
+  /**
+   * Aktualisiert die Dokumentkommandos und verwirft den Index der
+   * Sichtbarkeitselemente. Alle Aufrufe von {@link DocumentCommands#update()}
+   * müssen über diese Methode laufen.
+   *
+   * @return true, wenn sich die Dokumentkommandos verändert haben.
+   */
+  public synchronized boolean updateDocumentCommands()
   {
-    model.getDocumentCommands().update();
+    boolean changed = model.getDocumentCommands().update();
+    visibilityIndex = null;
+    return changed;
   }
 
   /**
@@ -514,13 +568,21 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
    * c,s,s,t,textfield,Database-Felder und manche
    * c,s,s,t,textfield,InputUser-Felder).
    *
+   * Die Felder werden in {@link #textFields} vermerkt. Bei einem erneuten Aufruf
+   * wird für bereits bekannte Felder nur geprüft, ob sie noch auf dieselbe Variable
+   * bzw. Datenbankspalte verweisen, und ansonsten das vorhandene FormField
+   * wiederverwendet. Nur neue oder geänderte Felder werden vollständig ausgewertet.
+   *
    * @author Matthias Benkmann (D-III-ITD 5.1) TESTED
    */
   public synchronized void collectNonWollMuxFormFields()
   {
+    formFieldDependencies = null;
     model.getIdToTextFieldFormFields().clear();
     model.getStaticTextFieldFormFields().clear();
 
+    Map<String, TextFieldEntry> current = new LinkedHashMap<>();
+    int created = 0;
     try
     {
       XEnumeration xenu =
@@ -534,58 +596,15 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
             continue;
           }
 
-          if (UNO.supportsService(tf, "com.sun.star.text.TextField.InputUser"))
-          {
-            String varName = UNO.getProperty(tf, "Content").toString();
-            String funcName = TextDocumentModel.getFunctionNameForUserFieldName(varName);
-
-            if (funcName == null) {
-              continue;
-            }
-
-            XPropertySet master = getUserFieldMaster(varName);
-            FormField f = FormFieldFactory.createInputUserFormField(model.doc, tf, master);
-            Function func = getFunctionLibrary().get(funcName);
-
-            if (func == null)
-            {
-              LOGGER.error(L.m(
-                "Die im Formularfeld verwendete Funktion '%1' ist nicht definiert.",
-                funcName));
-              continue;
-            }
-
-            String[] pars = func.parameters();
-            if (pars.length == 0) {
-              model.getStaticTextFieldFormFields().add(f);
-            }
-            for (int i = 0; i < pars.length; i++)
-            {
-              String id = pars[i];
-              if (id != null && id.length() > 0)
-              {
-                if (!model.getIdToTextFieldFormFields().containsKey(id))
-                  model.getIdToTextFieldFormFields().put(id, new ArrayList<FormField>());
-
-                List<FormField> formFields = model.getIdToTextFieldFormFields().get(id);
-                formFields.add(f);
-              }
-            }
-          }
-
-          if (UNO.supportsService(tf, "com.sun.star.text.TextField.Database"))
+          String oid = UnoRuntime.generateOid(tf);
+          TextFieldEntry entry = textFields.get(oid);
+          if (entry == null || !entry.isCurrent(tf, getFunctionLibrary()))
           {
-            XPropertySet master = tf.getTextFieldMaster();
-            String id = (String) UNO.getProperty(master, "DataColumnName");
-            if (id != null && id.length() > 0)
-            {
-              if (!model.getIdToTextFieldFormFields().containsKey(id))
-                model.getIdToTextFieldFormFields().put(id, new ArrayList<FormField>());
-
-              List<FormField> formFields = model.getIdToTextFieldFormFields().get(id);
-              formFields.add(FormFieldFactory.createDatabaseFormField(model.doc, tf));
-            }
+            entry = createTextFieldEntry(tf);
+            created++;
           }
+          current.put(oid, entry);
+          entry.register(model);
         }
         catch (Exception x)
         {
@@ -597,6 +616,160 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
     {
       LOGGER.error("", x);
     }
+
+    textFields = current;
+    LOGGER.debug(L.m("%1 Textfelder gefunden, davon %2 neu ausgewertet.",
+      current.size(), created));
+  }
+
+  /**
+   * Wertet das Textfeld tf für {@link #collectNonWollMuxFormFields()} aus.
+   */
+  private TextFieldEntry createTextFieldEntry(XDependentTextField tf)
+      throws Exception
+  {
+    if (UNO.supportsService(tf, "com.sun.star.text.TextField.InputUser"))
+    {
+      String varName = UNO.getProperty(tf, "Content").toString();
+      String funcName = TextDocumentModel.getFunctionNameForUserFieldName(varName);
+
+      if (funcName == null) {
+        return new TextFieldEntry(tf, TextFieldEntry.INPUT_USER, varName, null,
+          null, null);
+      }
+
+      XPropertySet master = getUserFieldMaster(varName);
+      FormField f = FormFieldFactory.createInputUserFormField(model.doc, tf, master);
+      Function func = getFunctionLibrary().get(funcName);
+
+      if (func == null)
+      {
+        LOGGER.error(L.m(
+          "Die im Formularfeld verwendete Funktion '%1' ist nicht definiert.",
+          funcName));
+        return new TextFieldEntry(tf, TextFieldEntry.INPUT_USER, varName, null,
+          null, null);
+      }
+
+      return new TextFieldEntry(tf, TextFieldEntry.INPUT_USER, varName, func, f,
+        func.parameters());
+    }
+
+    if (UNO.supportsService(tf, "com.sun.star.text.TextField.Database"))
+    {
+      String id = getDataColumnName(tf);
+      FormField f = null;
+      if (id != null && id.length() > 0)
+        f = FormFieldFactory.createDatabaseFormField(model.doc, tf);
+      return new TextFieldEntry(tf, TextFieldEntry.DATABASE, id, null, f,
+        new String[] { id });
+    }
+
+    return new TextFieldEntry(tf, TextFieldEntry.OTHER, null, null, null, null);
+  }
+
+  private static String getDataColumnName(XDependentTextField tf)
+  {
+    XPropertySet master = tf.getTextFieldMaster();
+    return (String) UNO.getProperty(master, "DataColumnName");
+  }
+
+  /**
+   * Ein von {@link TextDocumentController#collectNonWollMuxFormFields()}
+   * ausgewertetes Textfeld.
+   */
+  private static class TextFieldEntry
+  {
+    static final int OTHER = 0;
+
+    static final int INPUT_USER = 1;
+
+    static final int DATABASE = 2;
+
+    /**
+     * Das ausgewertete Textfeld. Die Referenz wird gehalten, damit die UNO-OID, unter
+     * der der Eintrag abgelegt ist, nicht an ein neues Textfeld vergeben werden kann.
+     */
+    private final XDependentTextField textField;
+
+    private final int type;
+
+    /**
+     * Der Name der Variable (InputUser) bzw. der Datenbankspalte (Database), auf
+     * die das Feld bei der Auswertung verwiesen hat.
+     */
+    private final String key;
+
+    /**
+     * Die Funktion eines InputUser-Feldes aus der Funktionsbibliothek, sonst null.
+     */
+    private final Function func;
+
+    /**
+     * Das FormField zum Textfeld oder null, wenn das Textfeld vom WollMux nicht
+     * befüllt wird.
+     */
+    private final FormField formField;
+
+    private final String[] ids;
+
+    TextFieldEntry(XDependentTextField textField, int type, String key,
+        Function func, FormField formField, String[] ids)
+    {
+      this.textField = textField;
+      this.type = type;
+      this.key = key;
+      this.func = func;
+      this.formField = formField;
+      this.ids = ids;
+    }
+
+    /**
+     * Liefert true, wenn tf das ausgewertete Textfeld ist, noch auf dieselbe
+     * Variable bzw. Datenbankspalte verweist wie bei der Auswertung und bei
+     * InputUser-Feldern funcLib noch dieselbe Funktion liefert.
+     */
+    boolean isCurrent(XDependentTextField tf, FunctionLibrary funcLib)
+    {
+      if (!UnoRuntime.areSame(textField, tf))
+        return false;
+
+      switch (type)
+      {
+        case INPUT_USER:
+          if (!key.equals(String.valueOf(UNO.getProperty(tf, "Content"))))
+            return false;
+          String funcName = TextDocumentModel.getFunctionNameForUserFieldName(key);
+          return funcName == null || funcLib.get(funcName) == func;
+        case DATABASE:
+          return Objects.equals(key, getDataColumnName(tf));
+        default:
+          return true;
+      }
+    }
+
+    /**
+     * Trägt das FormField in die Zuordnungen von model ein.
+     */
+    void register(TextDocumentModel model)
+    {
+      if (formField == null)
+        return;
+
+      if (ids.length == 0 && type == INPUT_USER)
+        model.getStaticTextFieldFormFields().add(formField);
+
+      for (String id : ids)
+      {
+        if (id != null && id.length() > 0)
+        {
+          if (!model.getIdToTextFieldFormFields().containsKey(id))
+            model.getIdToTextFieldFormFields().put(id, new ArrayList<FormField>());
+
+          model.getIdToTextFieldFormFields().get(id).add(formField);
+        }
+      }
+    }
   }
 
   /**
@@ -806,6 +979,25 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
     return transformed;
   }
 
+  /**
+   * Berechnet die Trafo aus dem Index der Textfelder mit den bekannten
+   * Formularwerten wie {@link #getTransformedValue(String)}, ohne die Funktion und
+   * ihre Parameter erneut zu bestimmen.
+   */
+  private String getTransformedValue(FormFieldDependencies.Trafo trafo)
+  {
+    if (trafo.getFunction() == null)
+      return getTransformedValue(trafo.getName());
+
+    Map<String, String> values = model.getFormFieldValuesMap();
+    if (simulationResult != null)
+      values = simulationResult.getFormFieldValues();
+    SimpleMap args = new SimpleMap();
+    for (String par : trafo.getParameters())
+      args.put(par, values.get(par));
+    return trafo.getFunction().getString(args);
+  }
+
   /**
    * Diese Methode führt die Trafofunktion trafoName aus, wobei die Werte der
    * erwarteten Parameter aus mapIdToValues gewonnen werden, und liefert das
@@ -980,7 +1172,58 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
       boolean showHighlightColor)
   {
     model.updateLastTouchedByVersionInfo();
+    applyPrintBlocksProps(blockName, visible, showHighlightColor);
+  }
+
+  /**
+   * Setzt die Eigenschaften mehrerer Druckblocktypen (siehe
+   * {@link #setPrintBlocksProps(String, boolean, boolean)}) und die
+   * Sichtbarkeitsstatus mehrerer Gruppen (siehe {@link #setVisibleStates(Map)}) in
+   * einem Durchgang. Während der Änderungen sind die Controller des Dokuments
+   * gesperrt, so dass Office das Dokument nur einmal neu formatiert. Druckblöcke
+   * und Sichtbarkeitselemente, deren Zustand sich nicht ändert, werden nicht
+   * angefasst.
+   *
+   * @param printBlocks
+   *          Abbildung der Blocktypen (z.B. allVersions) auf die neue Sichtbarkeit.
+   * @param showHighlightColor
+   *          gibt an ob die Hintergrundfarbe der Druckblöcke angezeigt werden soll.
+   * @param groups
+   *          Abbildung der Gruppen-IDs auf den neuen Sichtbarkeitsstatus.
+   */
+  public synchronized void setPrintVisibility(Map<String, Boolean> printBlocks,
+      boolean showHighlightColor, Map<String, Boolean> groups)
+  {
+    long writes = visibilityWrites;
+    long skips = visibilitySkips;
+
+    XModel xModel = UNO.XModel(model.doc);
+    if (xModel != null)
+      xModel.lockControllers();
+    try
+    {
+      if (!printBlocks.isEmpty())
+      {
+        model.updateLastTouchedByVersionInfo();
+        for (Map.Entry<String, Boolean> block : printBlocks.entrySet())
+          applyPrintBlocksProps(block.getKey(), block.getValue(), showHighlightColor);
+      }
+      if (!groups.isEmpty())
+        setVisibleStates(groups);
+    }
+    finally
+    {
+      if (xModel != null)
+        xModel.unlockControllers();
+    }
+
+    LOGGER.debug(L.m("Sichtbarkeit: %1 Eigenschaften gesetzt, %2 unverändert.",
+      visibilityWrites - writes, visibilitySkips - skips));
+  }
 
+  private void applyPrintBlocksProps(String blockName, boolean visible,
+      boolean showHighlightColor)
+  {
     Iterator<DocumentCommand> iter = new HashSet<DocumentCommand>().iterator();
     if (blockName.equals(SachleitendeVerfuegung.BLOCKNAME_SLV_ALL_VERSIONS))
       iter = model.getDocumentCommands().allVersionsIterator();
@@ -996,12 +1239,26 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
     while (iter.hasNext())
     {
       DocumentCommand cmd = iter.next();
-      cmd.setVisible(visible);
       String highlightColor =
         ((OptionalHighlightColorProvider) cmd).getHighlightColor();
 
+      int state = visible ? PRINT_BLOCK_VISIBLE : 0;
+      if (highlightColor != null && showHighlightColor)
+        state |= PRINT_BLOCK_HIGHLIGHTED;
+      Integer oldState = printBlockStates.get(cmd);
+      if (oldState != null && oldState == state)
+      {
+        visibilitySkips++;
+        continue;
+      }
+      printBlockStates.put(cmd, state);
+
+      cmd.setVisible(visible);
+      visibilityWrites++;
+
       if (highlightColor != null)
       {
+        visibilityWrites++;
         if (showHighlightColor)
           try
           {
@@ -1265,6 +1522,7 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
         model.getIdToTextFieldFormFields().put(fieldId, new ArrayList<FormField>());
       List<FormField> formFields = model.getIdToTextFieldFormFields().get(fieldId);
       formFields.add(FormFieldFactory.createDatabaseFormField(model.doc, field));
+      formFieldDependencies = null;
 
       // Ansicht des Formularfeldes aktualisieren:
       updateFormFields(fieldId);
@@ -1392,6 +1650,21 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
    * @param visible
    */
   public synchronized void setVisibleState(String groupId, boolean visible)
+  {
+    setVisibleStates(Collections.singletonMap(groupId, visible));
+  }
+
+  /**
+   * Setzt die Sichtbarkeitsstatus mehrerer Gruppen in einem Durchgang und blendet
+   * die betroffenen Sichtbarkeitselemente ein oder aus. Dabei werden nur die
+   * Elemente betrachtet, die zu einer der Gruppen gehören, und der ViewCursor wird
+   * nur einmal auf das erste Element gesetzt, dessen Sichtbarkeit sich ändert.
+   *
+   * @param groupStates
+   *          Abbildung der Gruppen-IDs auf den neuen Sichtbarkeitsstatus
+   *          (true=sichtbar, false=ausgeblendet).
+   */
+  public synchronized void setVisibleStates(Map<String, Boolean> groupStates)
   {
     try
     {
@@ -1399,29 +1672,18 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
       if (simulationResult != null)
         groupState = simulationResult.getGroupsVisibilityState();
 
-      groupState.put(groupId, visible);
+      DocumentCommands commands = model.getDocumentCommands();
+      if (visibilityIndex == null || !visibilityIndex.isUpToDate(commands, groupState))
+      {
+        visibilityIndex = new VisibilityIndex(commands, groupState);
+      }
 
       VisibilityElement firstChangedElement = null;
 
-      // Sichtbarkeitselemente durchlaufen und alle ggf. updaten:
-      Iterator<VisibilityElement> iter = model.getDocumentCommands().getSetGroups().iterator();
-      while (iter.hasNext())
+      // nur die Sichtbarkeitselemente der geänderten Gruppen updaten:
+      for (VisibilityElement visibleElement : visibilityIndex.setGroupStates(groupStates))
       {
-        VisibilityElement visibleElement = iter.next();
-        Set<String> groups = visibleElement.getGroups();
-        if (!groups.contains(groupId)) {
-          continue;
-        }
-
-        // Visibility-Status neu bestimmen:
-        boolean setVisible = true;
-        for (String gid : groups)
-        {
-          if (Boolean.FALSE.equals(groupState.get(gid)))
-          {
-            setVisible = false;
-          }
-        }
+        boolean setVisible = visibilityIndex.isVisible(visibleElement);
 
         // Element merken, dessen Sichtbarkeitsstatus sich zuerst ändert und
         // den focus (ViewCursor) auf den Start des Bereichs setzen. Da das
@@ -1437,10 +1699,18 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
           }
         }
 
-        // neuen Sichtbarkeitsstatus setzen:
+        // neuen Sichtbarkeitsstatus nur setzen, wenn er sich ändert:
         try
         {
-          visibleElement.setVisible(setVisible);
+          if (setVisible != visibleElement.isVisible())
+          {
+            visibleElement.setVisible(setVisible);
+            visibilityWrites++;
+          }
+          else
+          {
+            visibilitySkips++;
+          }
         }
         catch (RuntimeException e)
         {
@@ -1474,6 +1744,38 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
     {
       updateFormFields(fieldId);
     }
+
+    // Die Felder mit parameterlosen TRAFOs hängen von keinem Formularwert ab und
+    // werden daher nicht von updateFormFields(fieldId), sondern nur hier gesetzt.
+    List<FormFieldDependencies.Trafo> staticTrafos =
+      getFormFieldDependencies().getStaticTrafos();
+    if (!staticTrafos.isEmpty() && simulationResult == null)
+      model.updateLastTouchedByVersionInfo();
+    for (FormFieldDependencies.Trafo trafo : staticTrafos)
+    {
+      String result;
+      if (formFieldPreviewMode)
+        result = getTransformedValue(trafo);
+      else
+        result = "<" + trafo.getName() + ">";
+      for (FormField field : trafo.getFields())
+        setFormFieldContent(field, result, false);
+    }
+  }
+
+  /**
+   * Liefert den Index der Textfelder nach den Formularwerten, von denen sie
+   * abhängen, und baut ihn bei Bedarf neu auf.
+   */
+  private FormFieldDependencies getFormFieldDependencies()
+  {
+    if (formFieldDependencies == null)
+    {
+      formFieldDependencies =
+        new FormFieldDependencies(model.getIdToTextFieldFormFields(),
+          model.getStaticTextFieldFormFields(), getFunctionLibrary());
+    }
+    return formFieldDependencies;
   }
 
   /**
@@ -1486,30 +1788,43 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
    */
   private void setFormFields(String fieldId, String value, boolean applyTrafo)
   {
-    setFormFields(model.getIdToFormFields().get(fieldId), value, applyTrafo, false);
-    setFormFields(model.getIdToTextFieldFormFields().get(fieldId), value, applyTrafo, true);
-    setFormFields(model.getStaticTextFieldFormFields(), value, applyTrafo, true);
+    setFormFields(model.getIdToFormFields().get(fieldId), value, applyTrafo);
+
+    // Die Trafos der InputUser-Felder werden mit den bekannten Formularwerten
+    // berechnet. Es werden nur die Trafos berechnet, die fieldId als Parameter
+    // erwarten, und jede nur einmal für alle Felder, die sie verwenden.
+    FormFieldDependencies dependencies = getFormFieldDependencies();
+    List<FormField> untransformed = dependencies.getUntransformedFields(fieldId);
+    List<FormFieldDependencies.Trafo> trafos = dependencies.getTrafos(fieldId);
+    if ((!untransformed.isEmpty() || !trafos.isEmpty()) && simulationResult == null)
+      model.updateLastTouchedByVersionInfo();
+
+    for (FormField field : untransformed)
+      setFormFieldContent(field, value, true);
+    for (FormFieldDependencies.Trafo trafo : trafos)
+    {
+      String result = applyTrafo ? getTransformedValue(trafo) : value;
+      for (FormField field : trafo.getFields())
+        setFormFieldContent(field, result, true);
+    }
   }
 
   /**
    * Setzt den Inhalt aller Formularfelder aus der Liste formFields auf value und
-   * wendet dabei ggf; (abhängig von applyTrafo und useKnownFormValues) die für die
-   * Formularfelder korrekte Transformation an; Wenn simulateResult != null ist, so
-   * werden die Werte nicht tatsächlich gesetzt, sondern das Setzen in die HashMap
+   * wendet dabei ggf. (abhängig von applyTrafo) die für die Formularfelder korrekte
+   * Transformation an, wobei alle erwarteten Parameter mit dem Wert value versorgt
+   * werden - wird aus Gründen der Abwärtskompatiblität zu den bisherigen
+   * insertFormValue-Kommandos benötigt; Wenn simulateResult != null ist, so werden
+   * die Werte nicht tatsächlich gesetzt, sondern das Setzen in die HashMap
    * simulateResult simuliert. formFields kann null sein, dann passiert nichts.
    *
    * @param applyTrafo
    *          gibt an ob eine evtl. vorhandenen Trafofunktion verwendet werden soll.
-   * @param useKnownFormValues
-   *          gibt an, ob die Trafofunktion mit den bekannten Formularwerten (true)
-   *          als Parameter, oder ob alle erwarteten Parameter mit dem Wert value
-   *          (false) versorgt werden - wird aus Gründen der Abwärtskompatiblität zu
-   *          den bisherigen insertFormValue-Kommandos benötigt.
    *
    * @author Matthias Benkmann, Christoph Lutz (D-III-ITD 5.1)
    */
   private void setFormFields(List<FormField> formFields, String value,
-      boolean applyTrafo, boolean useKnownFormValues)
+      boolean applyTrafo)
   {
     if (formFields == null) {
       return;
@@ -1518,6 +1833,8 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
     if (simulationResult == null)
       model.updateLastTouchedByVersionInfo();
 
+    // Felder mit der gleichen Trafo teilen sich das Ergebnis.
+    Map<String, String> transformedValues = new HashMap<>();
     for (FormField field : formFields)
       try
       {
@@ -1525,18 +1842,17 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
         String trafoName = field.getTrafoName();
         if (trafoName != null && applyTrafo)
         {
-          if (useKnownFormValues)
-            result = getTransformedValue(trafoName);
-          else
+          result = transformedValues.get(trafoName);
+          if (result == null)
+          {
             result = getTransformedValue(trafoName, value);
+            transformedValues.put(trafoName, result);
+          }
         }
         else
           result = value;
 
-        if (simulationResult == null)
-          field.setValue(result);
-        else
-          simulationResult.setFormFieldContent(field, result);
+        setFormFieldContent(field, result, true);
       }
       catch (RuntimeException e)
       {
@@ -1544,6 +1860,36 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
       }
   }
 
+  /**
+   * Setzt den Inhalt von field auf result bzw. simuliert das Setzen, wenn
+   * simulationResult != null ist.
+   *
+   * @param onlyIfChanged
+   *          gibt an, ob der aktuelle Inhalt des Feldes vorher gelesen und nur ein
+   *          geänderter Wert geschrieben werden soll. Das Lesen ist deutlich
+   *          billiger als das Schreiben, das die Formatierung des Dokuments neu
+   *          anstößt, lohnt sich aber nur für Felder, deren Wert sich häufig nicht
+   *          ändert.
+   */
+  private void setFormFieldContent(FormField field, String result,
+      boolean onlyIfChanged)
+  {
+    try
+    {
+      if (simulationResult == null)
+      {
+        if (!onlyIfChanged || !result.equals(field.getValue()))
+          field.setValue(result);
+      }
+      else
+        simulationResult.setFormFieldContent(field, result);
+    }
+    catch (RuntimeException e)
+    {
+      // Absicherung gegen das manuelle Löschen von Dokumentinhalten.
+    }
+  }
+
   /**
    * Schaltet den Vorschaumodus für Formularfelder an oder aus - ist der
    * Vorschaumodus aktiviert, so werden alle Formularfelder mit den zuvor gesetzten
@@ -1605,6 +1951,19 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
     }
   }
 
+  /**
+   * Erzeugt eine Momentaufnahme der Formularfelder dieses Dokuments, mit der sich
+   * der Simulationsmodus für Formularwerte, die nicht von der Formularbeschreibung
+   * verwaltet werden, ohne Zugriff auf das Dokument nachbilden lässt.
+   */
+  public synchronized FormFieldSimulation createFormFieldSimulation()
+  {
+    return new FormFieldSimulation(getFunctionLibrary(), formFieldPreviewMode,
+        model.getFormFieldValuesMap(), model.getMapGroupIdToVisibilityState(),
+        model.getIdToFormFields(), model.getIdToTextFieldFormFields(),
+        model.getStaticTextFieldFormFields());
+  }
+
   /**
    * Beendet den mit {@link #startSimulation()} gestarteten Simulationsmodus und
    * liefert das Simulationsergebnis in SimulationResults zurück oder null, wenn der
@@ -2345,7 +2704,8 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
 
     String overrideFragDbSpalte = null;
     ConfigThingy overrideFragDbSpalteConf =
-      WollMuxFiles.getWollmuxConf().query(TextDocumentModel.OVERRIDE_FRAG_DB_SPALTE, 1);
+      WollMuxConfIndex.getInstance()
+          .queryTopLevel(TextDocumentModel.OVERRIDE_FRAG_DB_SPALTE);
     try
     {
       overrideFragDbSpalte = overrideFragDbSpalteConf.getLastChild().toString();
@@ -2423,7 +2783,7 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
       ConfigThingy formFensterConf;
       try
       {
-        formFensterConf = WollMuxFiles.getWollmuxConf().query("Fenster").query("Formular")
+        formFensterConf = WollMuxConfIndex.getInstance().query("Fenster", "Formular")
             .getLastChild();
       } catch (NodeNotFoundException x)
       {
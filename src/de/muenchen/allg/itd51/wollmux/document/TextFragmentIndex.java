@@ -0,0 +1,190 @@
+package de.muenchen.allg.itd51.wollmux.document;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import de.muenchen.allg.afid.UNO;
+import de.muenchen.allg.itd51.wollmux.AbstractConfIndex;
+import de.muenchen.allg.itd51.wollmux.WollMuxFiles;
+import de.muenchen.allg.itd51.wollmux.core.document.VisibleTextFragmentList;
+import de.muenchen.allg.itd51.wollmux.core.parser.ConfigThingy;
+import de.muenchen.allg.itd51.wollmux.core.parser.InvalidIdentifierException;
+
+/**
+ * Index der Textfragmente der wollmux.conf, der zu einer FRAG_ID die URLs mit
+ * bereits ersetzten Variablen liefert, jeweils schon über
+ * {@link WollMuxFiles#makeURL(String)} und {@link UNO#getParsedUNOUrl(String)}
+ * aufbereitet.
+ *
+ * Jede FRAG_ID wird nur beim ersten Zugriff über
+ * {@link VisibleTextFragmentList#getURLsByID(ConfigThingy, String)} aufgelöst,
+ * danach kommt das Ergebnis aus dem Index. Da die Auflösung nur von der
+ * wollmux.conf abhängt, gilt der Index solange, bis eine neue wollmux.conf geladen
+ * wird (siehe {@link #getInstance()}).
+ */
+public class TextFragmentIndex extends AbstractConfIndex
+{
+  private static TextFragmentIndex instance;
+
+  private final Map<String, Fragment> fragments = new ConcurrentHashMap<>();
+
+  /**
+   * Liefert den Index zur aktuellen wollmux.conf.
+   */
+  public static synchronized TextFragmentIndex getInstance()
+  {
+    if (!isCurrent(instance))
+    {
+      instance = new TextFragmentIndex(WollMuxFiles.getWollmuxConf());
+    }
+    return instance;
+  }
+
+  private TextFragmentIndex(ConfigThingy conf)
+  {
+    super(conf);
+  }
+
+  /**
+   * Liefert die URLs des Textfragments fragId in der Reihenfolge, in der sie
+   * ausprobiert werden sollen. Ist das Textfragment nicht definiert, wird eine leere
+   * Liste geliefert.
+   *
+   * @throws InvalidIdentifierException
+   *           falls fragId kein gültiger Bezeichner ist.
+   */
+  public List<FragmentURL> getURLs(String fragId) throws InvalidIdentifierException
+  {
+    long start = System.nanoTime();
+    Fragment fragment = fragments.get(fragId);
+    if (fragment != null)
+    {
+      hit(start);
+    } else
+    {
+      fragment = resolve(fragId);
+      fragments.putIfAbsent(fragId, fragment);
+      miss(start);
+    }
+
+    if (fragment.error != null)
+    {
+      throw fragment.error;
+    }
+    return fragment.urls;
+  }
+
+  private Fragment resolve(String fragId)
+  {
+    try
+    {
+      List<FragmentURL> urls = new ArrayList<>();
+      for (String urlStr : VisibleTextFragmentList.getURLsByID(getConf(), fragId))
+      {
+        urls.add(new FragmentURL(urlStr));
+      }
+      return new Fragment(Collections.unmodifiableList(urls), null);
+    } catch (InvalidIdentifierException e)
+    {
+      return new Fragment(Collections.<FragmentURL> emptyList(), e);
+    }
+  }
+
+  @Override
+  protected int size()
+  {
+    return fragments.size();
+  }
+
+  private static class Fragment
+  {
+    private final List<FragmentURL> urls;
+
+    private final InvalidIdentifierException error;
+
+    Fragment(List<FragmentURL> urls, InvalidIdentifierException error)
+    {
+      this.urls = urls;
+      this.error = error;
+    }
+  }
+
+  /**
+   * Eine URL eines Textfragments.
+   */
+  public static class FragmentURL
+  {
+    private final String urlStr;
+
+    private final URL url;
+
+    private final String unoUrl;
+
+    private final MalformedURLException error;
+
+    FragmentURL(String urlStr)
+    {
+      this.urlStr = urlStr;
+      URL u = null;
+      String uno = null;
+      MalformedURLException e = null;
+      try
+      {
+        u = WollMuxFiles.makeURL(urlStr);
+        uno = UNO.getParsedUNOUrl(u.toExternalForm()).Complete;
+      } catch (MalformedURLException x)
+      {
+        e = x;
+      }
+      this.url = u;
+      this.unoUrl = uno;
+      this.error = e;
+    }
+
+    /**
+     * Liefert die URL so, wie sie in der wollmux.conf steht.
+     */
+    @Override
+    public String toString()
+    {
+      return urlStr;
+    }
+
+    /**
+     * Liefert die URL relativ zum DEFAULT_CONTEXT aufgelöst (siehe
+     * {@link WollMuxFiles#makeURL(String)}).
+     *
+     * @throws MalformedURLException
+     *           falls die URL ungültig ist.
+     */
+    public URL getURL() throws MalformedURLException
+    {
+      if (error != null)
+      {
+        throw error;
+      }
+      return url;
+    }
+
+    /**
+     * Liefert die URL in der Form, wie sie der URLTransformer von Office liefert
+     * (siehe {@link UNO#getParsedUNOUrl(String)}).
+     *
+     * @throws MalformedURLException
+     *           falls die URL ungültig ist.
+     */
+    public String getUnoURL() throws MalformedURLException
+    {
+      if (error != null)
+      {
+        throw error;
+      }
+      return unoUrl;
+    }
+  }
+}
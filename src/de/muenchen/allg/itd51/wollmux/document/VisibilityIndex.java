@@ -0,0 +1,139 @@
+package de.muenchen.allg.itd51.wollmux.document;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.muenchen.allg.itd51.wollmux.core.document.VisibilityElement;
+import de.muenchen.allg.itd51.wollmux.core.document.commands.DocumentCommands;
+
+/**
+ * Ein invertierter Index von Sichtbarkeitsgruppen auf die Sichtbarkeitselemente
+ * (setGroups-Dokumentkommandos und Bereiche mit Namensanhang 'GROUPS ...') eines
+ * Dokuments. Zu jedem Element wird mitgezählt, wie viele seiner Gruppen aktuell
+ * ausgeblendet sind, so dass beim Umschalten einer Gruppe nur die Elemente dieser
+ * Gruppe betrachtet werden müssen.
+ *
+ * Der Index gilt nur für die Dokumentkommandos und die Zuordnung von Gruppen auf
+ * Sichtbarkeitsstatus, mit denen er erzeugt wurde (siehe
+ * {@link #isUpToDate(DocumentCommands, Map)}), und muss nach jedem
+ * {@link DocumentCommands#update()} verworfen werden, da dieses neue Elemente in
+ * das selbe DocumentCommands-Objekt einfügt (siehe
+ * {@link TextDocumentController#updateDocumentCommands()}). Die Zuordnung darf nur
+ * über {@link #setGroupStates(Map)} verändert werden.
+ */
+class VisibilityIndex
+{
+  private final DocumentCommands documentCommands;
+
+  private final Map<String, Boolean> groupState;
+
+  /**
+   * Die Sichtbarkeitselemente je Gruppe in Dokumentreihenfolge.
+   */
+  private final Map<String, List<VisibilityElement>> elementsByGroup = new HashMap<>();
+
+  /**
+   * Die Position eines Elements in der Dokumentreihenfolge.
+   */
+  private final Map<VisibilityElement, Integer> positions = new IdentityHashMap<>();
+
+  /**
+   * Die Anzahl der ausgeblendeten Gruppen eines Elements.
+   */
+  private final Map<VisibilityElement, int[]> hiddenGroups = new IdentityHashMap<>();
+
+  /**
+   * Erzeugt den Index über die Sichtbarkeitselemente der Dokumentkommandos.
+   *
+   * @param documentCommands
+   *          Die Dokumentkommandos des Dokuments.
+   * @param groupState
+   *          Die Zuordnung von Gruppen auf Sichtbarkeitsstatus. Gruppen ohne
+   *          Eintrag gelten als sichtbar.
+   */
+  VisibilityIndex(DocumentCommands documentCommands,
+      Map<String, Boolean> groupState)
+  {
+    this.documentCommands = documentCommands;
+    this.groupState = groupState;
+
+    int pos = 0;
+    for (VisibilityElement element : documentCommands.getSetGroups())
+    {
+      positions.put(element, pos++);
+      int hidden = 0;
+      for (String groupId : element.getGroups())
+      {
+        List<VisibilityElement> list = elementsByGroup.get(groupId);
+        if (list == null)
+        {
+          list = new ArrayList<>();
+          elementsByGroup.put(groupId, list);
+        }
+        list.add(element);
+        if (Boolean.FALSE.equals(groupState.get(groupId)))
+        {
+          hidden++;
+        }
+      }
+      hiddenGroups.put(element, new int[] { hidden });
+    }
+  }
+
+  /**
+   * Liefert true, wenn der Index für die Dokumentkommandos documentCommands und
+   * die Zuordnung groupState erzeugt wurde.
+   */
+  boolean isUpToDate(DocumentCommands documentCommands,
+      Map<String, Boolean> groupState)
+  {
+    return this.documentCommands == documentCommands
+        && this.groupState == groupState;
+  }
+
+  /**
+   * Übernimmt die neuen Sichtbarkeitsstatus der Gruppen aus changes in die
+   * Zuordnung und liefert alle Elemente, die zu einer der Gruppen gehören, in
+   * Dokumentreihenfolge zurück. Ob ein Element danach sichtbar sein soll, liefert
+   * {@link #isVisible(VisibilityElement)}.
+   */
+  List<VisibilityElement> setGroupStates(Map<String, Boolean> changes)
+  {
+    Map<VisibilityElement, Boolean> affected = new IdentityHashMap<>();
+    for (Map.Entry<String, Boolean> change : changes.entrySet())
+    {
+      String groupId = change.getKey();
+      boolean wasHidden = Boolean.FALSE.equals(groupState.get(groupId));
+      boolean hidden = !change.getValue();
+      groupState.put(groupId, change.getValue());
+
+      List<VisibilityElement> list = elementsByGroup.get(groupId);
+      if (list == null)
+      {
+        continue;
+      }
+      int delta = (hidden ? 1 : 0) - (wasHidden ? 1 : 0);
+      for (VisibilityElement element : list)
+      {
+        hiddenGroups.get(element)[0] += delta;
+        affected.put(element, Boolean.TRUE);
+      }
+    }
+
+    List<VisibilityElement> result = new ArrayList<>(affected.keySet());
+    Collections.sort(result, (a, b) -> positions.get(a) - positions.get(b));
+    return result;
+  }
+
+  /**
+   * Liefert true, wenn keine der Gruppen des Elements ausgeblendet ist.
+   */
+  boolean isVisible(VisibilityElement element)
+  {
+    return hiddenGroups.get(element)[0] == 0;
+  }
+}
@@ -1,6 +1,8 @@
 package de.muenchen.allg.itd51.wollmux.document.commands;
 
+import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -28,7 +30,6 @@ import de.muenchen.allg.afid.UnoProps;
 import de.muenchen.allg.itd51.wollmux.WollMuxFiles;
 import de.muenchen.allg.itd51.wollmux.WollMuxSingleton;
 import de.muenchen.allg.itd51.wollmux.core.document.TextDocumentModel.OverrideFragChainException;
-import de.muenchen.allg.itd51.wollmux.core.document.VisibleTextFragmentList;
 import de.muenchen.allg.itd51.wollmux.core.document.WMCommandsFailedException;
 import de.muenchen.allg.itd51.wollmux.core.document.commands.AbstractExecutor;
 import de.muenchen.allg.itd51.wollmux.core.document.commands.DocumentCommand;
@@ -38,11 +39,14 @@ import de.muenchen.allg.itd51.wollmux.core.document.commands.DocumentCommand.Ove
 import de.muenchen.allg.itd51.wollmux.core.document.commands.DocumentCommands;
 import de.muenchen.allg.itd51.wollmux.core.parser.ConfigThingy;
 import de.muenchen.allg.itd51.wollmux.core.parser.ConfigurationErrorException;
+import de.muenchen.allg.itd51.wollmux.core.parser.InvalidIdentifierException;
 import de.muenchen.allg.itd51.wollmux.core.parser.NodeNotFoundException;
 import de.muenchen.allg.itd51.wollmux.core.util.L;
 import de.muenchen.allg.itd51.wollmux.core.util.Utils;
 import de.muenchen.allg.itd51.wollmux.dialog.InfoDialog;
 import de.muenchen.allg.itd51.wollmux.document.DocumentLoader;
+import de.muenchen.allg.itd51.wollmux.document.TextFragmentIndex;
+import de.muenchen.allg.itd51.wollmux.document.TextFragmentIndex.FragmentURL;
 import de.muenchen.allg.itd51.wollmux.event.WollMuxEventHandler;
 
 /**
@@ -108,12 +112,87 @@ class DocumentExpander extends AbstractExecutor
     {
       i++;
       errors += executeOverrideFrags(commands);
+      prefetchFragments(commands);
       errors += executeAll(commands);
-    } while (commands.update() && i < 50);
+    } while (documentCommandInterpreter.getDocumentController()
+        .updateDocumentCommands() && i < 50);
 
     return errors;
   }
 
+  /**
+   * Lädt die Textfragmente aller noch nicht ausgeführten insertFrag- und
+   * insertContent-Kommandos aus commands gleichzeitig in den Cache des
+   * {@link DocumentLoader}, damit sie beim anschließenden Einfügen nicht einzeln
+   * nacheinander geladen werden müssen. Muss nach
+   * {@link #executeOverrideFrags(DocumentCommands)} aufgerufen werden, damit die
+   * Fragmente bereits umgemapped sind. Von jedem Textfragment wird nur die erste
+   * URL geladen, da die weiteren nur im Fehlerfall benötigt werden.
+   *
+   * @param commands
+   */
+  private void prefetchFragments(DocumentCommands commands)
+  {
+    List<String> urls = new ArrayList<>();
+    boolean insertContent = false;
+    for (Iterator<DocumentCommand> iter = commands.iterator(); iter.hasNext();)
+    {
+      DocumentCommand cmd = iter.next();
+      if (cmd.isDone() || cmd.hasError())
+      {
+        continue;
+      }
+
+      if (cmd instanceof InsertFrag)
+      {
+        String fragId = documentCommandInterpreter.getModel()
+            .getOverrideFrag(((InsertFrag) cmd).getFragID());
+        if (fragId.length() == 0)
+        {
+          continue;
+        }
+        try
+        {
+          List<FragmentURL> candidates = TextFragmentIndex.getInstance().getURLs(fragId);
+          if (!candidates.isEmpty())
+          {
+            urls.add(candidates.get(0).getUnoURL());
+          }
+        }
+        catch (InvalidIdentifierException | MalformedURLException e)
+        {
+          // Der Fehler wird beim Ausführen des Kommandos gemeldet.
+          LOGGER.trace("", e);
+        }
+      }
+      else if (cmd instanceof InsertContent)
+      {
+        insertContent = true;
+      }
+    }
+
+    if (insertContent)
+    {
+      for (int i = fragUrlsCount; i < fragUrls.length; i++)
+      {
+        try
+        {
+          urls.add(UNO.getParsedUNOUrl(
+            WollMuxFiles.makeURL(fragUrls[i]).toExternalForm()).Complete);
+        }
+        catch (MalformedURLException e)
+        {
+          LOGGER.trace("", e);
+        }
+      }
+    }
+
+    if (!urls.isEmpty())
+    {
+      DocumentLoader.getInstance().prefetch(urls);
+    }
+  }
+
   /**
    * führt alle OverrideFrag-Kommandos aus commands aus, wenn sie nicht den Status
    * DONE=true oder ERROR=true besitzen.
@@ -191,7 +270,7 @@ class DocumentExpander extends AbstractExecutor
         return 0;
       }
 
-      List<String> urls = VisibleTextFragmentList.getURLsByID(WollMuxFiles.getWollmuxConf(), fragId);
+      List<FragmentURL> urls = TextFragmentIndex.getInstance().getURLs(fragId);
       if (urls.isEmpty())
       {
         throw new ConfigurationErrorException(L.m(
@@ -199,22 +278,22 @@ class DocumentExpander extends AbstractExecutor
           cmd.getFragID()));
       }
       // Iterator über URLs
-      Iterator<String> iter = urls.iterator();
+      Iterator<FragmentURL> iter = urls.iterator();
       while (iter.hasNext() && !found)
       {
-        String urlStr = iter.next();
+        FragmentURL fragUrl = iter.next();
         try
         {
-          URL url = WollMuxFiles.makeURL(urlStr);
+          URL url = fragUrl.getURL();
 
           LOGGER.debug(L.m("Füge Textfragment '%1' von URL '%2' ein.",
             cmd.getFragID(), url.toExternalForm()));
 
           // styles bzw. fragment einfügen:
           if (cmd.importStylesOnly())
-            insertStylesFromURL(cmd, cmd.getStyles(), url);
+            insertStylesFromURL(cmd, cmd.getStyles(), url, fragUrl.getUnoURL());
           else
-            insertDocumentFromURL(cmd, url);
+            insertDocumentFromURL(cmd, url, fragUrl.getUnoURL());
 
           found = true;
         }
@@ -331,17 +410,25 @@ class DocumentExpander extends AbstractExecutor
    */
   private void insertDocumentFromURL(DocumentCommand cmd, URL url)
       throws IllegalArgumentException, java.io.IOException, IOException
+  {
+    // URL durch den URLTransformer von OOo jagen, damit die URL auch von OOo
+    // verarbeitet werden kann.
+    insertDocumentFromURL(cmd, url, UNO.getParsedUNOUrl(url.toExternalForm()).Complete);
+  }
+
+  /**
+   * Wie {@link #insertDocumentFromURL(DocumentCommand, URL)}, jedoch mit der
+   * bereits durch den URLTransformer von OOo aufbereiteten URL urlStr (siehe
+   * {@link TextFragmentIndex.FragmentURL#getUnoURL()}).
+   */
+  private void insertDocumentFromURL(DocumentCommand cmd, URL url, String urlStr)
+      throws IllegalArgumentException, java.io.IOException, IOException
   {
     // Workaround: OOo friert ein, wenn ressource bei insertDocumentFromURL
     // nicht auflösbar. http://qa.openoffice.org/issues/show_bug.cgi?id=57049
     // Hier wird versucht, die URL über den java-Klasse url aufzulösen und bei
     // Fehlern abgebrochen.
-
-    // URL durch den URLTransformer von OOo jagen, damit die URL auch von OOo
-    // verarbeitet werden kann.
-    String urlStr = UNO.getParsedUNOUrl(url.toExternalForm()).Complete;
-
-    if (!DocumentLoader.getInstance().hasDocument(urlStr))
+    if (!DocumentLoader.getInstance().isCached(urlStr))
     {
       WollMuxSingleton.checkURL(url);
     }
@@ -421,21 +508,19 @@ class DocumentExpander extends AbstractExecutor
    *          importierenden styles.
    * @param url
    *          die URL des einzufügenden Textfragments
+   * @param urlStr
+   *          die durch den URLTransformer von OOo aufbereitete URL (siehe
+   *          {@link TextFragmentIndex.FragmentURL#getUnoURL()})
    * @throws java.io.IOException
    * @throws IOException
    */
-  private void insertStylesFromURL(DocumentCommand cmd, Set<String> styles, URL url)
-      throws java.io.IOException, IOException
+  private void insertStylesFromURL(DocumentCommand cmd, Set<String> styles, URL url,
+      String urlStr) throws java.io.IOException, IOException
   {
     // Workaround: OOo friert ein, wenn ressource bei insertDocumentFromURL
     // nicht auflösbar. http://qa.openoffice.org/issues/show_bug.cgi?id=57049
     // Hier wird versucht, die URL über den java-Klasse url aufzulösen und bei
     // Fehlern abgebrochen.
-
-    // URL durch den URLTransformer von OOo jagen, damit die URL auch von OOo
-    // verarbeitet werden kann.
-    String urlStr = UNO.getParsedUNOUrl(url.toExternalForm()).Complete;
-
     if (!DocumentLoader.getInstance().hasDocument(urlStr))
     {
       WollMuxSingleton.checkURL(url);
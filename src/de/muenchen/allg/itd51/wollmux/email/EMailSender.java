@@ -94,13 +94,15 @@ public class EMailSender
       // Notwendig um MIME Types auf Java-Klassen zu mappen.
       // Manchmal funktioniert der ClassLoader nicht richtig
       Thread.currentThread().setContextClassLoader(getClass().getClassLoader());
-      Transport tr = session.getTransport("smtp");
-      // FYI: falls getUsername() || getPassword() = "" muss NULL übergeben werden,
-      // auch bei "" glaubt javamail AUTH aktivieren zu müssen was zu einer Auth-Exception führt.
-      tr.connect(mailServerSettings.getMailserver(), mailServerSettings.getMailserverport(),
-          mailServerSettings.getUsername(), mailServerSettings.getPassword());
-      email.saveChanges();
-      tr.sendMessage(email, email.getAllRecipients());
+      Transport tr = connect(mailServerSettings);
+      try
+      {
+        sendMessage(tr);
+      }
+      finally
+      {
+        tr.close();
+      }
     }
     catch (MessagingException e)
     {
@@ -108,6 +110,30 @@ public class EMailSender
     }
   }
 
+  /**
+   * Baut eine Verbindung zum Mailserver mailServerSettings auf, über die mit
+   * {@link #sendMessage(Transport)} mehrere E-Mails versendet werden können. Die
+   * Verbindung muss vom Aufrufer geschlossen werden.
+   */
+  public Transport connect(MailServerSettings mailServerSettings) throws MessagingException
+  {
+    Transport tr = session.getTransport("smtp");
+    // FYI: falls getUsername() || getPassword() = "" muss NULL übergeben werden,
+    // auch bei "" glaubt javamail AUTH aktivieren zu müssen was zu einer Auth-Exception führt.
+    tr.connect(mailServerSettings.getMailserver(), mailServerSettings.getMailserverport(),
+        mailServerSettings.getUsername(), mailServerSettings.getPassword());
+    return tr;
+  }
+
+  /**
+   * Versendet die E-Mail über die bereits aufgebaute Verbindung tr.
+   */
+  public void sendMessage(Transport tr) throws MessagingException
+  {
+    email.saveChanges();
+    tr.sendMessage(email, email.getAllRecipients());
+  }
+
   public MailServerSettings getWollMuxMailServerSettings()
       throws ConfigurationErrorException
   { 
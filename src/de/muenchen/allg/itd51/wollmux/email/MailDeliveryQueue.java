@@ -0,0 +1,375 @@
+/*
+ * Dateiname: MailDeliveryQueue.java
+ * Projekt  : WollMux
+ * Funktion : Versendet E-Mails im Hintergrund über dauerhafte SMTP-Verbindungen.
+ *
+ * Copyright (c) 2011-2019 Landeshauptstadt München
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the European Union Public Licence (EUPL),
+ * version 1.0 (or any later version).
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * European Union Public Licence for more details.
+ *
+ * You should have received a copy of the European Union Public Licence
+ * along with this program. If not, see
+ * http://ec.europa.eu/idabc/en/document/7330
+ */
+
+package de.muenchen.allg.itd51.wollmux.email;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.Address;
+import javax.mail.AuthenticationFailedException;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Transport;
+import javax.mail.internet.AddressException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.muenchen.allg.itd51.wollmux.core.util.L;
+
+/**
+ * Versendet E-Mails im Hintergrund, damit das Erzeugen der Dokumente und der
+ * Versand parallel laufen können. Die E-Mails werden in eine beschränkte
+ * Warteschlange gestellt und von einer festen Anzahl an Threads versendet, die
+ * jeweils eine SMTP-Verbindung offen halten und bei Bedarf neu aufbauen.
+ * Fehlgeschlagene Sendeversuche werden mit wachsender Wartezeit wiederholt, außer
+ * bei dauerhaften Fehlern (siehe {@link #isPermanent(MessagingException)}).
+ * Schlägt die Anmeldung am Mailserver fehl, werden alle weiteren E-Mails
+ * verworfen.
+ *
+ * Nach dem letzten {@link #submit(EMailSender, String, File)} liefert
+ * {@link #close()} einen {@link DeliveryReport} über alle versendeten und nicht
+ * versendeten E-Mails.
+ */
+public class MailDeliveryQueue
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger(MailDeliveryQueue.class);
+
+  /**
+   * Anzahl der SMTP-Verbindungen, über die parallel versendet wird.
+   */
+  private static final int CONNECTIONS = 2;
+
+  /**
+   * Anzahl der E-Mails, die höchstens auf den Versand warten. Ist die
+   * Warteschlange voll, blockiert {@link #submit(EMailSender, String, File)}.
+   */
+  private static final int QUEUE_CAPACITY = 20;
+
+  /**
+   * Anzahl der Sendeversuche je E-Mail.
+   */
+  private static final int MAX_ATTEMPTS = 3;
+
+  /**
+   * Wartezeit vor dem zweiten Sendeversuch in Millisekunden; verdoppelt sich mit
+   * jedem weiteren Versuch.
+   */
+  private static final long INITIAL_BACKOFF = 1000;
+
+  private final MailServerSettings settings;
+
+  private final BlockingQueue<Delivery> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+  private final List<Thread> workers = new ArrayList<>();
+
+  private final List<String> sent = new ArrayList<>();
+
+  private final List<String> failed = new ArrayList<>();
+
+  private volatile boolean closed = false;
+
+  private volatile boolean canceled = false;
+
+  /**
+   * Der Fehler, mit dem die Anmeldung am Mailserver fehlgeschlagen ist, oder null.
+   */
+  private volatile AuthenticationFailedException authenticationError = null;
+
+  /**
+   * Erzeugt eine Warteschlange, die über den Mailserver settings versendet. Da
+   * settings z.B. nach einer Passwortabfrage noch verändert werden kann, werden die
+   * Einstellungen erst beim Verbindungsaufbau gelesen.
+   */
+  public MailDeliveryQueue(MailServerSettings settings)
+  {
+    this.settings = settings;
+    for (int i = 0; i < CONNECTIONS; ++i)
+    {
+      Thread worker = new Thread(this::processQueue, "WollMux MailDelivery " + i);
+      worker.setDaemon(true);
+      worker.setContextClassLoader(getClass().getClassLoader());
+      worker.start();
+      workers.add(worker);
+    }
+  }
+
+  /**
+   * Stellt die E-Mail mail an den Empfänger to in die Warteschlange. Die Datei
+   * attachment wird nach dem Versand gelöscht (darf null sein). Ist die
+   * Warteschlange voll, wird gewartet, bis wieder Platz ist.
+   *
+   * @throws InterruptedException
+   *           falls der Thread beim Warten unterbrochen wird.
+   */
+  public void submit(EMailSender mail, String to, File attachment)
+      throws InterruptedException
+  {
+    Delivery delivery = new Delivery(mail, to, attachment);
+    if (closed)
+    {
+      discard(delivery, L.m("Versand bereits beendet"));
+      return;
+    }
+    queue.put(delivery);
+  }
+
+  /**
+   * Wartet, bis alle E-Mails der Warteschlange versendet wurden, beendet die
+   * SMTP-Verbindungen und liefert den Bericht über den Versand.
+   */
+  public DeliveryReport close()
+  {
+    closed = true;
+    for (Thread worker : workers)
+    {
+      try
+      {
+        worker.join();
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    synchronized (this)
+    {
+      return new DeliveryReport(new ArrayList<>(sent), new ArrayList<>(failed));
+    }
+  }
+
+  /**
+   * Verwirft alle noch nicht versendeten E-Mails und beendet die
+   * SMTP-Verbindungen. Bereits laufende Sendeversuche werden noch abgeschlossen.
+   */
+  public DeliveryReport cancel()
+  {
+    canceled = true;
+    return close();
+  }
+
+  private void processQueue()
+  {
+    Transport transport = null;
+    try
+    {
+      while (true)
+      {
+        Delivery delivery = queue.poll(100, TimeUnit.MILLISECONDS);
+        if (delivery == null)
+        {
+          if (closed)
+            break;
+          continue;
+        }
+
+        if (canceled)
+        {
+          discard(delivery, L.m("Versand abgebrochen"));
+          continue;
+        }
+
+        if (authenticationError != null)
+        {
+          discard(delivery, authenticationError.getMessage());
+          continue;
+        }
+
+        transport = deliver(delivery, transport);
+      }
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+    }
+    finally
+    {
+      closeQuietly(transport);
+      Delivery delivery;
+      while ((delivery = queue.poll()) != null)
+        discard(delivery, L.m("Versand abgebrochen"));
+    }
+  }
+
+  /**
+   * Versendet delivery über transport und liefert die weiter zu verwendende
+   * Verbindung zurück.
+   */
+  private Transport deliver(Delivery delivery, Transport transport)
+      throws InterruptedException
+  {
+    MessagingException lastError = null;
+    long backoff = INITIAL_BACKOFF;
+    try
+    {
+      for (int attempt = 1; attempt <= MAX_ATTEMPTS && !canceled
+          && authenticationError == null; ++attempt)
+      {
+        try
+        {
+          if (transport == null || !transport.isConnected())
+          {
+            closeQuietly(transport);
+            transport = delivery.mail.connect(settings);
+          }
+          delivery.mail.sendMessage(transport);
+          synchronized (this)
+          {
+            sent.add(delivery.to);
+          }
+          return transport;
+        }
+        catch (MessagingException e)
+        {
+          lastError = e;
+          LOGGER.debug(L.m("Sendeversuch %1 an %2 fehlgeschlagen", attempt, delivery.to), e);
+          closeQuietly(transport);
+          transport = null;
+          if (e instanceof AuthenticationFailedException)
+          {
+            authenticationError = (AuthenticationFailedException) e;
+          }
+          if (isPermanent(e))
+          {
+            break;
+          }
+          if (attempt < MAX_ATTEMPTS)
+          {
+            Thread.sleep(backoff);
+            backoff *= 2;
+          }
+        }
+      }
+      LOGGER.error(L.m("E-Mail an %1 konnte nicht versendet werden", delivery.to), lastError);
+      synchronized (this)
+      {
+        failed.add(delivery.to + " (" + (lastError == null ? L.m("Versand abgebrochen")
+            : lastError.getMessage()) + ")");
+      }
+      return transport;
+    }
+    finally
+    {
+      delivery.deleteAttachment();
+    }
+  }
+
+  /**
+   * Liefert true, wenn ein erneuter Sendeversuch nach e nicht erfolgreich sein
+   * kann, d.h. bei fehlgeschlagener Anmeldung und bei ungültigen Adressen.
+   */
+  private static boolean isPermanent(MessagingException e)
+  {
+    if (e instanceof AuthenticationFailedException || e instanceof AddressException)
+    {
+      return true;
+    }
+    if (e instanceof SendFailedException)
+    {
+      Address[] invalid = ((SendFailedException) e).getInvalidAddresses();
+      return invalid != null && invalid.length > 0;
+    }
+    return false;
+  }
+
+  private synchronized void discard(Delivery delivery, String reason)
+  {
+    failed.add(delivery.to + " (" + reason + ")");
+    delivery.deleteAttachment();
+  }
+
+  private static void closeQuietly(Transport transport)
+  {
+    if (transport == null)
+      return;
+    try
+    {
+      transport.close();
+    }
+    catch (MessagingException e)
+    {
+      LOGGER.debug("", e);
+    }
+  }
+
+  private static class Delivery
+  {
+    private final EMailSender mail;
+
+    private final String to;
+
+    private final File attachment;
+
+    Delivery(EMailSender mail, String to, File attachment)
+    {
+      this.mail = mail;
+      this.to = to;
+      this.attachment = attachment;
+    }
+
+    void deleteAttachment()
+    {
+      if (attachment != null)
+        attachment.delete();
+    }
+  }
+
+  /**
+   * Das Ergebnis eines Versands über eine {@link MailDeliveryQueue}.
+   */
+  public static class DeliveryReport
+  {
+    private final List<String> sent;
+
+    private final List<String> failed;
+
+    DeliveryReport(List<String> sent, List<String> failed)
+    {
+      this.sent = Collections.unmodifiableList(sent);
+      this.failed = Collections.unmodifiableList(failed);
+    }
+
+    /**
+     * Die Empfänger, an die erfolgreich versendet wurde, in der Reihenfolge des
+     * Versands.
+     */
+    public List<String> getSent()
+    {
+      return sent;
+    }
+
+    /**
+     * Die Empfänger, an die nicht versendet werden konnte, jeweils mit dem Grund in
+     * Klammern.
+     */
+    public List<String> getFailed()
+    {
+      return failed;
+    }
+  }
+}
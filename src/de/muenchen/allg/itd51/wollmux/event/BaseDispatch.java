@@ -1,8 +1,12 @@
 package de.muenchen.allg.itd51.wollmux.event;
 
 import java.io.UnsupportedEncodingException;
-import java.lang.reflect.Method;
+import java.lang.invoke.MethodHandle;
 import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -11,6 +15,7 @@ import com.sun.star.beans.PropertyValue;
 import com.sun.star.frame.FeatureStateEvent;
 import com.sun.star.frame.XDispatch;
 import com.sun.star.frame.XStatusListener;
+import com.sun.star.uno.UnoRuntime;
 import com.sun.star.util.URL;
 
 import de.muenchen.allg.itd51.wollmux.core.parser.ConfigThingy;
@@ -46,6 +51,12 @@ public abstract class BaseDispatch implements XDispatch
   private static final Logger LOGGER = LoggerFactory
       .getLogger(BaseDispatch.class);
 
+  /**
+   * Die registrierten Listener für URLs, deren Status über eine status_-Methode
+   * bestimmt wird (siehe {@link #refreshStatus()}).
+   */
+  private final List<StatusRegistration> statusRegistrations = new ArrayList<>();
+
   /**
    * Liefert zu url den Namen der Methode, die den Dispatch behandeln würde.
    *
@@ -54,8 +65,7 @@ public abstract class BaseDispatch implements XDispatch
    */
   public static String getDispatchMethodName(URL url)
   {
-    String part = url.Complete.split("#")[0];
-    return "dispatch_" + part.replaceAll("\\W", "_").toLowerCase();
+    return DispatchMethods.DISPATCH_PREFIX + getMethodNameSuffix(url);
   }
 
   /**
@@ -67,8 +77,34 @@ public abstract class BaseDispatch implements XDispatch
    */
   public static String getStatusMethodName(URL url)
   {
-    String part = url.Complete.split("#")[0];
-    return "status_" + part.replaceAll("\\W", "_").toLowerCase();
+    return DispatchMethods.STATUS_PREFIX + getMethodNameSuffix(url);
+  }
+
+  /**
+   * Liefert den Teil von url vor dem "#" in Kleinbuchstaben, wobei alle
+   * nichtalphanumerischen Zeichen durch Unterstrich ersetzt sind. Entspricht
+   * part.replaceAll("\\W", "_").toLowerCase(), kommt aber ohne regulären Ausdruck
+   * aus, da diese Methode bei jedem Kontextwechsel für alle URLs aufgerufen wird.
+   */
+  private static String getMethodNameSuffix(URL url)
+  {
+    String complete = url.Complete;
+    int end = complete.indexOf('#');
+    if (end < 0)
+      end = complete.length();
+
+    StringBuilder buffy = new StringBuilder(end);
+    for (int i = 0; i < end;)
+    {
+      int c = complete.codePointAt(i);
+      if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+        || c == '_')
+        buffy.append((char) c);
+      else
+        buffy.append('_');
+      i += Character.charCount(c);
+    }
+    return buffy.toString().toLowerCase();
   }
   
   /**
@@ -122,8 +158,12 @@ public abstract class BaseDispatch implements XDispatch
    */
   protected void notifyStatusListener(XStatusListener listener, URL url)
   {
-    boolean isEnabled = queryStatus(url);
-    
+    notifyStatusListener(listener, url, queryStatus(url));
+  }
+
+  private static void notifyStatusListener(XStatusListener listener, URL url,
+      boolean isEnabled)
+  {
     FeatureStateEvent fse = new FeatureStateEvent();
     fse.FeatureURL = url;
     fse.IsEnabled = isEnabled;
@@ -146,11 +186,17 @@ public abstract class BaseDispatch implements XDispatch
 
     String methodName = getDispatchMethodName(url);
 
+    MethodHandle method =
+      DispatchMethods.forClass(this.getClass()).getDispatchMethod(methodName);
+    if (method == null)
+    {
+      LOGGER.error(L.m("Die Methode '%1' ist in %2 nicht definiert.", methodName,
+        this.getClass().getSimpleName()));
+      return;
+    }
+
     try
     {
-      Class<? extends BaseDispatch> myClass = this.getClass();
-      Method method =
-        myClass.getDeclaredMethod(methodName, String.class, PropertyValue[].class);
       method.invoke(this, arg, props);
     }
     catch (Throwable x)
@@ -161,21 +207,24 @@ public abstract class BaseDispatch implements XDispatch
   
   /**
    * Sucht im Dispatcher nach einer Methode "status_<url>", über die entschieden wird,
-   * ob ein Menüpunkt oder Toolbarbutton aktiv ist.
+   * ob ein Menüpunkt oder Toolbarbutton aktiv ist. Gibt es keine solche Methode, ist
+   * der Menüpunkt immer aktiv.
    * 
    * @param url
    * @return
    */
   public boolean queryStatus(URL url)
   {
+    MethodHandle method = DispatchMethods.forClass(this.getClass())
+        .getStatusMethod(getStatusMethodName(url));
+    if (method == null)
+    {
+      return true;
+    }
+
     try
     {
-      String methodName = getStatusMethodName(url);
-      Class<? extends BaseDispatch> myClass = this.getClass();
-      Method method =
-        myClass.getDeclaredMethod(methodName);
-      Boolean ret = (Boolean) method.invoke(this);
-      return ret.booleanValue();
+      return (boolean) method.invoke(this);
     }
     catch (Throwable x)
     {
@@ -185,6 +234,66 @@ public abstract class BaseDispatch implements XDispatch
     return true;
   }
 
+  /**
+   * Liefert true, wenn der Status von url über eine status_-Methode bestimmt wird
+   * und sich daher ändern kann.
+   */
+  private boolean hasStatusMethod(URL url)
+  {
+    return DispatchMethods.forClass(this.getClass())
+        .getStatusMethod(getStatusMethodName(url)) != null;
+  }
+
+  /**
+   * Liefert true, wenn sich dieses Dispatch-Objekt die Listener für
+   * {@link #refreshStatus()} merken soll. Das machen nur die dokumentgebundenen
+   * Dispatch-Objekte, von denen es eines pro Frame gibt. {@link Dispatch} und
+   * {@link NotifyingDispatch} werden von allen Frames gemeinsam verwendet und
+   * dürfen keine Listener festhalten.
+   */
+  protected boolean isStatusTracked()
+  {
+    return false;
+  }
+
+  /**
+   * Bestimmt den Status aller registrierten URLs, deren Status über eine
+   * status_-Methode bestimmt wird, in einem Durchgang neu und benachrichtigt die
+   * zugehörigen Listener. Jede status_-Methode wird dabei nur einmal aufgerufen.
+   * Listener, die nicht mehr erreichbar sind, werden entfernt.
+   */
+  public void refreshStatus()
+  {
+    List<StatusRegistration> registrations;
+    synchronized (statusRegistrations)
+    {
+      if (statusRegistrations.isEmpty())
+      {
+        return;
+      }
+      registrations = new ArrayList<>(statusRegistrations);
+    }
+
+    Map<String, Boolean> states = new HashMap<>();
+    for (StatusRegistration registration : registrations)
+    {
+      boolean isEnabled = states.computeIfAbsent(
+        getStatusMethodName(registration.url), name -> queryStatus(registration.url));
+      try
+      {
+        notifyStatusListener(registration.listener, registration.url, isEnabled);
+      }
+      catch (RuntimeException x)
+      {
+        LOGGER.trace("", x);
+        synchronized (statusRegistrations)
+        {
+          statusRegistrations.remove(registration);
+        }
+      }
+    }
+  }
+
   /*
    * (non-Javadoc)
    *
@@ -195,13 +304,27 @@ public abstract class BaseDispatch implements XDispatch
   @Override
   public void addStatusListener(XStatusListener listener, URL url)
   {
-    // boolean alreadyRegistered = false;
-    // Iterator<XStatusListener> iter = statusListener.iterator();
-    // while (iter.hasNext())
-    // if (UnoRuntime.areSame(UNO.XInterface(iter.next()), listener))
-    // alreadyRegistered = true;
-    //
-    // if (!alreadyRegistered) statusListener.add(listener);
+    // Nur URLs mit status_-Methode werden für refreshStatus() gemerkt; der Status
+    // aller anderen URLs ändert sich nie.
+    if (isStatusTracked() && hasStatusMethod(url))
+    {
+      synchronized (statusRegistrations)
+      {
+        boolean alreadyRegistered = false;
+        for (StatusRegistration registration : statusRegistrations)
+        {
+          if (registration.matches(listener, url))
+          {
+            alreadyRegistered = true;
+            break;
+          }
+        }
+        if (!alreadyRegistered)
+        {
+          statusRegistrations.add(new StatusRegistration(listener, url));
+        }
+      }
+    }
 
     notifyStatusListener(listener, url);
   }
@@ -214,10 +337,34 @@ public abstract class BaseDispatch implements XDispatch
    * , com.sun.star.util.URL)
    */
   @Override
-  public void removeStatusListener(XStatusListener listener, URL x)
+  public void removeStatusListener(XStatusListener listener, URL url)
+  {
+    synchronized (statusRegistrations)
+    {
+      statusRegistrations.removeIf(registration -> registration.matches(listener, url));
+    }
+  }
+
+  /**
+   * Ein über {@link BaseDispatch#addStatusListener(XStatusListener, URL)}
+   * registrierter Listener.
+   */
+  private static class StatusRegistration
   {
-    // Iterator<XStatusListener> iter = statusListener.iterator();
-    // while (iter.hasNext())
-    // if (UnoRuntime.areSame(UNO.XInterface(iter.next()), listener)) iter.remove();
+    private final XStatusListener listener;
+
+    private final URL url;
+
+    StatusRegistration(XStatusListener listener, URL url)
+    {
+      this.listener = listener;
+      this.url = url;
+    }
+
+    boolean matches(XStatusListener listener, URL url)
+    {
+      return this.url.Complete.equals(url.Complete)
+        && UnoRuntime.areSame(this.listener, listener);
+    }
   }
 }
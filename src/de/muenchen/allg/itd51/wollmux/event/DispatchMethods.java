@@ -0,0 +1,143 @@
+package de.muenchen.allg.itd51.wollmux.event;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.star.beans.PropertyValue;
+import com.sun.star.frame.XDispatchResultListener;
+
+/**
+ * Die Methoden dispatch_name(String, PropertyValue[]),
+ * dispatch_name(String, PropertyValue[], XDispatchResultListener) und
+ * status_name() einer Dispatch-Klasse (siehe {@link BaseDispatch}) als vorab
+ * aufgelöste {@link MethodHandle}s. Die Methoden einer Klasse werden einmalig
+ * beim ersten Zugriff über {@link #forClass(Class)} bestimmt, so dass bei der
+ * Suche nach einer Methode keine Reflection und keine Exceptions mehr nötig sind.
+ *
+ * Wie bei {@link Class#getDeclaredMethod(String, Class...)} werden nur die in der
+ * Klasse selbst deklarierten Methoden berücksichtigt.
+ */
+final class DispatchMethods
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger(DispatchMethods.class);
+
+  static final String DISPATCH_PREFIX = "dispatch_";
+
+  static final String STATUS_PREFIX = "status_";
+
+  private static final Class<?>[] DISPATCH_PARAMETERS = { String.class,
+      PropertyValue[].class };
+
+  private static final Class<?>[] NOTIFYING_DISPATCH_PARAMETERS = { String.class,
+      PropertyValue[].class, XDispatchResultListener.class };
+
+  private static final ClassValue<DispatchMethods> METHODS = new ClassValue<DispatchMethods>()
+  {
+    @Override
+    protected DispatchMethods computeValue(Class<?> type)
+    {
+      return new DispatchMethods(type);
+    }
+  };
+
+  /**
+   * Bildet die Namen der dispatch_-Methoden auf die zugehörigen MethodHandles ab.
+   */
+  private final Map<String, MethodHandle> dispatchMethods;
+
+  /**
+   * Bildet die Namen der dispatch_-Methoden mit XDispatchResultListener auf die
+   * zugehörigen MethodHandles ab.
+   */
+  private final Map<String, MethodHandle> notifyingDispatchMethods;
+
+  /**
+   * Bildet die Namen der status_-Methoden auf die zugehörigen MethodHandles ab.
+   */
+  private final Map<String, MethodHandle> statusMethods;
+
+  private DispatchMethods(Class<?> c)
+  {
+    MethodHandles.Lookup lookup = MethodHandles.lookup();
+    Map<String, MethodHandle> dispatch = new HashMap<>();
+    Map<String, MethodHandle> notifying = new HashMap<>();
+    Map<String, MethodHandle> status = new HashMap<>();
+    for (Method m : c.getDeclaredMethods())
+    {
+      try
+      {
+        if (m.getName().startsWith(DISPATCH_PREFIX))
+        {
+          if (Arrays.equals(m.getParameterTypes(), DISPATCH_PARAMETERS))
+            dispatch.put(m.getName(), lookup.unreflect(m));
+          else if (Arrays.equals(m.getParameterTypes(), NOTIFYING_DISPATCH_PARAMETERS))
+            notifying.put(m.getName(), lookup.unreflect(m));
+        }
+        else if (m.getName().startsWith(STATUS_PREFIX)
+          && m.getParameterCount() == 0
+          && (m.getReturnType() == boolean.class || m.getReturnType() == Boolean.class))
+        {
+          status.put(m.getName(), lookup.unreflect(m));
+        }
+      }
+      catch (IllegalAccessException x)
+      {
+        LOGGER.trace("", x);
+      }
+    }
+    dispatchMethods = Collections.unmodifiableMap(dispatch);
+    notifyingDispatchMethods = Collections.unmodifiableMap(notifying);
+    statusMethods = Collections.unmodifiableMap(status);
+  }
+
+  /**
+   * Liefert die Methoden der Klasse c.
+   */
+  static DispatchMethods forClass(Class<?> c)
+  {
+    return METHODS.get(c);
+  }
+
+  /**
+   * Liefert die Methode methodName(String, PropertyValue[]) oder null, wenn es sie
+   * nicht gibt.
+   */
+  MethodHandle getDispatchMethod(String methodName)
+  {
+    return dispatchMethods.get(methodName);
+  }
+
+  /**
+   * Liefert die Methode methodName(String, PropertyValue[],
+   * XDispatchResultListener) oder null, wenn es sie nicht gibt.
+   */
+  MethodHandle getNotifyingDispatchMethod(String methodName)
+  {
+    return notifyingDispatchMethods.get(methodName);
+  }
+
+  /**
+   * Liefert die Methode methodName() oder null, wenn es sie nicht gibt.
+   */
+  MethodHandle getStatusMethod(String methodName)
+  {
+    return statusMethods.get(methodName);
+  }
+
+  /**
+   * Liefert die Namen aller dispatch_-Methoden.
+   */
+  Set<String> getDispatchMethodNames()
+  {
+    return dispatchMethods.keySet();
+  }
+}
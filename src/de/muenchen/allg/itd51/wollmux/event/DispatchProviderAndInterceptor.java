@@ -35,26 +35,35 @@
  */
 package de.muenchen.allg.itd51.wollmux.event;
 
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.sun.star.beans.PropertyValue;
 import com.sun.star.frame.DispatchDescriptor;
 import com.sun.star.frame.FrameAction;
+import com.sun.star.frame.LayoutManagerEvents;
 import com.sun.star.frame.XDispatch;
 import com.sun.star.frame.XDispatchProvider;
 import com.sun.star.frame.XDispatchProviderInterceptor;
 import com.sun.star.frame.XFrame;
 import com.sun.star.frame.XFrameActionListener;
+import com.sun.star.frame.XLayoutManagerEventBroadcaster;
+import com.sun.star.frame.XLayoutManagerListener;
 import com.sun.star.lang.EventObject;
 import com.sun.star.uno.UnoRuntime;
 import com.sun.star.util.URL;
 
 import de.muenchen.allg.afid.UNO;
 import de.muenchen.allg.itd51.wollmux.core.util.L;
+import de.muenchen.allg.itd51.wollmux.core.util.Utils;
 
 /**
  * Liefert zu Dispatch-URLs, die der WollMux behandeln kann XDispatch-Objekte.
@@ -76,16 +85,60 @@ public class DispatchProviderAndInterceptor implements XDispatchProvider,
     new DispatchProviderAndInterceptor();
 
   /**
-   * Einthält eine Liste aller jemals registrierten dokumentgebundener
-   * {@link DispatchProviderAndInterceptor}-Objekte; Die Liste wird benötigt um
-   * festzustellen, ob der WollMux bereits einen
-   * {@link DispatchProviderAndInterceptor} auf einem Frame registriert hat
-   * (Vermeidung von Doppeleintragungen) und um
+   * Enthält alle registrierten dokumentgebundenen
+   * {@link DispatchProviderAndInterceptor}-Objekte, abgelegt unter der
+   * UNO-Objektidentität (OID) ihres Frames; Die Map wird benötigt um festzustellen,
+   * ob der WollMux bereits einen {@link DispatchProviderAndInterceptor} auf einem
+   * Frame registriert hat (Vermeidung von Doppeleintragungen) und um
    * {@link DispatchProviderAndInterceptor}-Objekte deregistrieren zu können, wenn
    * das zugehörige Textdokument geschlossen wird.
    */
-  private static final Set<DispatchProviderAndInterceptor> documentDispatchProviderAndInterceptors =
-    new HashSet<DispatchProviderAndInterceptor>();
+  private static final Map<String, DispatchProviderAndInterceptor> documentDispatchProviderAndInterceptors =
+    new ConcurrentHashMap<>();
+
+  /**
+   * Die Arten von Dispatch-Objekten in der Reihenfolge, in der sie nach einer
+   * passenden dispatch_-Methode durchsucht werden.
+   */
+  private enum DispatchKind
+  {
+    DISPATCH(Dispatch.class),
+    NOTIFYING_DISPATCH(NotifyingDispatch.class),
+    DOCUMENT_DISPATCH(DocumentDispatch.class),
+    DOCUMENT_NOTIFYING_DISPATCH(DocumentNotifyingDispatch.class),
+    NONE(null);
+
+    private final Class<? extends BaseDispatch> dispatchClass;
+
+    private DispatchKind(Class<? extends BaseDispatch> dispatchClass)
+    {
+      this.dispatchClass = dispatchClass;
+    }
+  }
+
+  /**
+   * Maximale Anzahl an URLs in {@link #dispatchKinds}.
+   */
+  private static final int MAX_CACHED_FEATURES = 4096;
+
+  private static final Map<String, DispatchKind> DISPATCH_ROUTES =
+    buildDispatchRoutes();
+
+  /**
+   * Cache für {@link #getDispatchKind(URL)}.
+   */
+  private static final Map<String, DispatchKind> dispatchKinds =
+    new ConcurrentHashMap<>();
+
+  /**
+   * {@link Dispatch} und {@link NotifyingDispatch} haben keinen Zustand und werden
+   * daher für alle URLs gemeinsam verwendet. Sie merken sich deshalb auch keine
+   * Status-Listener (siehe {@link BaseDispatch#isStatusTracked()}).
+   */
+  private static final Dispatch GLOBAL_DISPATCH = new Dispatch();
+
+  private static final NotifyingDispatch GLOBAL_NOTIFYING_DISPATCH =
+    new NotifyingDispatch();
 
   private XDispatchProvider slave = null;
 
@@ -97,6 +150,11 @@ public class DispatchProviderAndInterceptor implements XDispatchProvider,
    */
   private XFrame frame = null;
 
+  /**
+   * Die UNO-Objektidentität von {@link #frame} oder null.
+   */
+  private String frameOid = null;
+
   /**
    * Bei dokumentgebundenen {@link DispatchProviderAndInterceptor}-Objekten wird auf
    * dem Frame zusätzlich ein {@link XFrameActionListener} registriert um überwachen
@@ -105,6 +163,22 @@ public class DispatchProviderAndInterceptor implements XDispatchProvider,
    */
   private XFrameActionListener frameActionListener = null;
 
+  /**
+   * Bei dokumentgebundenen {@link DispatchProviderAndInterceptor}-Objekten wird am
+   * LayoutManager des Frames zusätzlich ein {@link XLayoutManagerListener}
+   * registriert, der beim Ein- und Ausblenden von Symbolleisten (z.B. beim Wechsel
+   * in die Seitenansicht) den Status der Dispatches neu bestimmt (siehe
+   * {@link #refreshStatus(XFrame)}).
+   */
+  private XLayoutManagerListener layoutManagerListener = null;
+
+  /**
+   * Die für den Frame erzeugten dokumentgebundenen Dispatch-Objekte, solange sie
+   * von Office noch verwendet werden.
+   */
+  private final Set<BaseDispatch> documentDispatches =
+    Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
   /**
    * Erzeugt einen {@link DispatchProviderAndInterceptor}, der nur globale URLs
    * behandeln kann.
@@ -125,6 +199,7 @@ public class DispatchProviderAndInterceptor implements XDispatchProvider,
   private DispatchProviderAndInterceptor(XFrame frame)
   {
     this.frame = frame;
+    this.frameOid = UnoRuntime.generateOid(frame);
   }
 
   public XDispatchProvider getSlaveDispatchProvider()
@@ -147,56 +222,104 @@ public class DispatchProviderAndInterceptor implements XDispatchProvider,
     this.master = master;
   }
 
-  /**
-   * Liefert true, wenn die Methode methodName(String, PropertyValue[]) in der Klasse
-   * c vorhanden ist, andern falls false.
-   * 
-   * @author Matthias Benkmann (D-III-ITD-D101)
+  /*
+   * (non-Javadoc)
    * 
-   *         TESTED
+   * @see com.sun.star.frame.XDispatchProvider#queryDispatch(com.sun.star.util.URL,
+   * java.lang.String, int)
    */
-  protected boolean hasMethod(Class<?> c, String methodName)
+  public XDispatch queryDispatch(URL url, String frameName, int fsFlag)
   {
-    try
+    switch (getDispatchKind(url))
     {
-      c.getDeclaredMethod(methodName, String.class, PropertyValue[].class);
-      return true;
+      case DISPATCH:
+        return GLOBAL_DISPATCH;
+      case NOTIFYING_DISPATCH:
+        return GLOBAL_NOTIFYING_DISPATCH;
+      case DOCUMENT_DISPATCH:
+        if (frame != null)
+          return addDocumentDispatch(new DocumentDispatch(getOrigDispatch(url,
+            frameName, fsFlag), url, frame));
+        break;
+      case DOCUMENT_NOTIFYING_DISPATCH:
+        if (frame != null)
+          return addDocumentDispatch(new DocumentNotifyingDispatch(getOrigDispatch(
+            url, frameName, fsFlag), url, frame));
+        break;
+      default:
+        break;
     }
-    catch (Throwable x)
+
+    // ergibt return null, wenn kein Slave registriert
+    return getOrigDispatch(url, frameName, fsFlag);
+  }
+
+  private BaseDispatch addDocumentDispatch(BaseDispatch dispatch)
+  {
+    documentDispatches.add(dispatch);
+    return dispatch;
+  }
+
+  /**
+   * Bestimmt den Status aller bei den dokumentgebundenen Dispatch-Objekten des
+   * Frames frame registrierten URLs in einem Durchgang neu (siehe
+   * {@link BaseDispatch#refreshStatus()}). Hat der WollMux auf frame keinen
+   * {@link DispatchProviderAndInterceptor} registriert, wird nichts gemacht.
+   */
+  public static void refreshStatus(XFrame frame)
+  {
+    DispatchProviderAndInterceptor dpi = getRegisteredDPI(frame);
+    if (dpi == null) return;
+
+    List<BaseDispatch> dispatches;
+    synchronized (dpi.documentDispatches)
     {
-      return false;
+      dispatches = new ArrayList<>(dpi.documentDispatches);
     }
+    for (BaseDispatch dispatch : dispatches)
+      dispatch.refreshStatus();
   }
 
-  /*
-   * (non-Javadoc)
-   * 
-   * @see com.sun.star.frame.XDispatchProvider#queryDispatch(com.sun.star.util.URL,
-   * java.lang.String, int)
+  /**
+   * Liefert die Art des Dispatch-Objekts, das url behandelt. Das Ergebnis wird
+   * anhand des Teils von url vor dem "#" gecacht, auch für URLs, die der WollMux
+   * nicht behandelt.
    */
-  public XDispatch queryDispatch(URL url, String frameName, int fsFlag)
+  private static DispatchKind getDispatchKind(URL url)
   {
-    String methodName = Dispatch.getDispatchMethodName(url);
+    String complete = url.Complete;
+    int end = complete.indexOf('#');
+    String feature = end < 0 ? complete : complete.substring(0, end);
 
-    if (hasMethod(Dispatch.class, methodName))
-      return new Dispatch();
-    else if (hasMethod(NotifyingDispatch.class, methodName))
-      return new NotifyingDispatch();
-    else
+    DispatchKind kind = dispatchKinds.get(feature);
+    if (kind == null)
     {
-      if (frame != null)
-      {
-        if (hasMethod(DocumentDispatch.class, methodName))
-          return new DocumentDispatch(getOrigDispatch(url, frameName, fsFlag), url,
-            frame);
-        else if (hasMethod(DocumentNotifyingDispatch.class, methodName))
-          return new DocumentNotifyingDispatch(getOrigDispatch(url, frameName,
-            fsFlag), url, frame);
-      }
+      kind = DISPATCH_ROUTES.get(Dispatch.getDispatchMethodName(url));
+      if (kind == null)
+        kind = DispatchKind.NONE;
+      if (dispatchKinds.size() < MAX_CACHED_FEATURES)
+        dispatchKinds.put(feature, kind);
     }
+    return kind;
+  }
 
-    // ergibt return null, wenn kein Slave registriert
-    return getOrigDispatch(url, frameName, fsFlag);
+  /**
+   * Bildet die Namen aller dispatch_-Methoden auf die Art des Dispatch-Objekts ab,
+   * das sie implementiert. Ist eine Methode in mehreren Klassen vorhanden, gewinnt
+   * die erste Art in der Reihenfolge von {@link DispatchKind}.
+   */
+  private static Map<String, DispatchKind> buildDispatchRoutes()
+  {
+    Map<String, DispatchKind> routes = new HashMap<>();
+    for (DispatchKind kind : DispatchKind.values())
+    {
+      if (kind.dispatchClass == null)
+        continue;
+      for (String methodName : DispatchMethods.forClass(kind.dispatchClass)
+          .getDispatchMethodNames())
+        routes.putIfAbsent(methodName, kind);
+    }
+    return Collections.unmodifiableMap(routes);
   }
 
   /*
@@ -244,19 +367,24 @@ public class DispatchProviderAndInterceptor implements XDispatchProvider,
       || UNO.XDispatchProvider(frame) == null) return;
 
     // DispatchInterceptor registrieren (wenn nicht bereits registriert):
-    if (getRegisteredDPI(frame) == null)
+    DispatchProviderAndInterceptor dpi = new DispatchProviderAndInterceptor(frame);
+    if (registerDPI(dpi))
     {
-      DispatchProviderAndInterceptor dpi = new DispatchProviderAndInterceptor(frame);
-
       LOGGER.debug(L.m("Registriere DocumentDispatchInterceptor #%1 für frame #%2",
         Integer.valueOf(dpi.hashCode()), Integer.valueOf(frame.hashCode())));
 
       UNO.XDispatchProviderInterception(frame).registerDispatchProviderInterceptor(
         dpi);
-      registerDPI(dpi);
 
-      dpi.frameActionListener = new DPIFrameActionListener();
+      dpi.frameActionListener = new DPIFrameActionListener(dpi);
       frame.addFrameActionListener(dpi.frameActionListener);
+
+      XLayoutManagerEventBroadcaster layoutManager = getLayoutManager(frame);
+      if (layoutManager != null)
+      {
+        dpi.layoutManagerListener = new DPILayoutManagerListener(dpi);
+        layoutManager.addLayoutManagerEventListener(dpi.layoutManagerListener);
+      }
     }
     else
       LOGGER.debug(L.m(
@@ -276,17 +404,23 @@ public class DispatchProviderAndInterceptor implements XDispatchProvider,
    */
   private static class DPIFrameActionListener implements XFrameActionListener
   {
+    private final DispatchProviderAndInterceptor dpi;
+
+    DPIFrameActionListener(DispatchProviderAndInterceptor dpi)
+    {
+      this.dpi = dpi;
+    }
+
     public void disposing(EventObject e)
     {
-      deregisterDPI(getRegisteredDPI(UNO.XFrame(e.Source)));
+      deregisterDPI(dpi);
     }
 
     public void frameAction(com.sun.star.frame.FrameActionEvent e)
     {
       if (e.Action == FrameAction.COMPONENT_REATTACHED)
       {
-        DispatchProviderAndInterceptor dpi = getRegisteredDPI(UNO.XFrame(e.Source));
-        if (dpi != null && dpi.frame != null
+        if (dpi.frame != null
           && UNO.XTextDocument(dpi.frame.getController().getModel()) == null)
         {
           if (dpi.frameActionListener != null)
@@ -295,6 +429,15 @@ public class DispatchProviderAndInterceptor implements XDispatchProvider,
             dpi.frameActionListener = null;
           }
 
+          XLayoutManagerEventBroadcaster layoutManager =
+            getLayoutManager(dpi.frame);
+          if (dpi.layoutManagerListener != null && layoutManager != null)
+          {
+            layoutManager.removeLayoutManagerEventListener(
+              dpi.layoutManagerListener);
+            dpi.layoutManagerListener = null;
+          }
+
           LOGGER.debug(L.m(
             "Deregistrierung von DocumentDispatchInterceptor #%1 aus frame #%2",
             Integer.valueOf(dpi.hashCode()), Integer.valueOf(dpi.frame.hashCode())));
@@ -308,56 +451,85 @@ public class DispatchProviderAndInterceptor implements XDispatchProvider,
   }
 
   /**
-   * Merkt sich den übergebenen dokumentgebundenen DispatchProviderAndInterceptor in
-   * einem internen statischen Set; Der Zugriff auf dieses Set erfolgt
-   * synchronisiert. Ist dpi==null wird nichts gemacht.
-   * 
-   * @author Christoph Lutz (D-III-ITD-D101) TESTED
+   * Bestimmt den Status der dokumentgebundenen Dispatch-Objekte neu, wenn auf dem
+   * Frame eine Symbolleiste ein- oder ausgeblendet wird. Davon hängen z.B. die
+   * status_-Methoden von {@link DocumentDispatch} ab, die die WollMux-Schaltflächen
+   * in der Seitenansicht deaktivieren.
    */
-  private static void registerDPI(DispatchProviderAndInterceptor dpi)
+  private static class DPILayoutManagerListener implements XLayoutManagerListener
   {
-    if (dpi == null) return;
-    synchronized (documentDispatchProviderAndInterceptors)
+    private final DispatchProviderAndInterceptor dpi;
+
+    DPILayoutManagerListener(DispatchProviderAndInterceptor dpi)
+    {
+      this.dpi = dpi;
+    }
+
+    public void disposing(EventObject e)
     {
-      documentDispatchProviderAndInterceptors.add(dpi);
+      dpi.layoutManagerListener = null;
+    }
+
+    public void layoutEvent(EventObject source, short layoutEvent, Object info)
+    {
+      if (layoutEvent == LayoutManagerEvents.UIELEMENT_VISIBLE
+        || layoutEvent == LayoutManagerEvents.UIELEMENT_INVISIBLE)
+        refreshStatus(dpi.frame);
     }
   }
 
+  /**
+   * Liefert den LayoutManager von frame als {@link XLayoutManagerEventBroadcaster}
+   * oder null, wenn frame keinen hat.
+   */
+  private static XLayoutManagerEventBroadcaster getLayoutManager(XFrame frame)
+  {
+    return UnoRuntime.queryInterface(XLayoutManagerEventBroadcaster.class,
+      Utils.getProperty(frame, "LayoutManager"));
+  }
+
+  /**
+   * Merkt sich den übergebenen dokumentgebundenen DispatchProviderAndInterceptor
+   * unter der Objektidentität seines Frames in einer internen statischen Map, wenn
+   * für diesen Frame noch keiner registriert ist; Der Zugriff auf diese Map
+   * blockiert nicht. Ist dpi==null wird nichts gemacht.
+   * 
+   * @return true, wenn dpi registriert wurde.
+   * @author Christoph Lutz (D-III-ITD-D101) TESTED
+   */
+  private static boolean registerDPI(DispatchProviderAndInterceptor dpi)
+  {
+    if (dpi == null || dpi.frameOid == null) return false;
+    return documentDispatchProviderAndInterceptors.putIfAbsent(dpi.frameOid, dpi) == null;
+  }
+
   /**
    * Entfernt den übergebenen dokumentgebundenen DispatchProviderAndInterceptor aus
-   * einem internen statischen Set; Der Zugriff auf dieses Set erfolgt
-   * synchronisiert. Ist dpi==null wird nichts gemacht.
+   * einer internen statischen Map; Der Zugriff auf diese Map blockiert nicht. Ist
+   * dpi==null wird nichts gemacht.
    * 
    * @author Christoph Lutz (D-III-ITD-D101) TESTED
    */
   private static void deregisterDPI(DispatchProviderAndInterceptor dpi)
   {
-    if (dpi == null) return;
-    synchronized (documentDispatchProviderAndInterceptors)
-    {
+    if (dpi == null || dpi.frameOid == null) return;
+    dpi.documentDispatches.clear();
+    if (documentDispatchProviderAndInterceptors.remove(dpi.frameOid, dpi))
       LOGGER.debug(L.m("Interne Freigabe des DocumentDispatchInterceptor #%1",
         Integer.valueOf(dpi.hashCode())));
-      documentDispatchProviderAndInterceptors.remove(dpi);
-    }
   }
 
   /**
    * Liefert den für frame bereits vom WollMux registrierten
    * {@link DispatchProviderAndInterceptor} zurück, oder null, wenn der WollMux auf
    * diesen Frame noch keinen {@link DispatchProviderAndInterceptor} registriert hat;
-   * Die Abfrage auf das interne Set der registrierten
-   * {@link DispatchProviderAndInterceptor}-Objekten ist synchronisiert.
+   * Die Suche erfolgt über die Objektidentität von frame und blockiert nicht.
    * 
    * @author Christoph Lutz (D-III-ITD-D101) TESTED
    */
   private static DispatchProviderAndInterceptor getRegisteredDPI(XFrame frame)
   {
     if (frame == null) return null;
-    synchronized (documentDispatchProviderAndInterceptors)
-    {
-      for (DispatchProviderAndInterceptor dpi : documentDispatchProviderAndInterceptors)
-        if (dpi.frame != null && UnoRuntime.areSame(dpi.frame, frame)) return dpi;
-    }
-    return null;
+    return documentDispatchProviderAndInterceptors.get(UnoRuntime.generateOid(frame));
   }
 }
@@ -89,6 +89,12 @@ public class DocumentDispatch extends Dispatch
     this.frame = frame;
   }
 
+  @Override
+  protected boolean isStatusTracked()
+  {
+    return true;
+  }
+
   /**
    * Wenn wir ein Original-Dispatch-Objekt haben, überlassen wir diesem das
    * managen des Status.
@@ -77,6 +77,12 @@ public class DocumentNotifyingDispatch extends NotifyingDispatch implements Disp
     this.frame = frame;
   }
 
+  @Override
+  protected boolean isStatusTracked()
+  {
+    return true;
+  }
+
   /**
    * Wenn wir ein Original-Dispatch-Objekt haben, überlassen wir diesem das managen
    * des Status.
@@ -269,12 +269,12 @@ public class GlobalEventListener implements com.sun.star.document.XEventListener
     // Seriendrucks handelt
     /**
      * ACHTUNG! ACHTUNG! Zu folgender Zeile unbedingt {@link
-     * WollMuxEventHandler#handleTextDocumentClosed(DocumentManager.Info} lesen. Hier
+     * WollMuxEventHandler#handleTextDocumentClosed(Object, DocumentManager.Info)} lesen. Hier
      * darf AUF KEINEN FALL info.hasTextDocumentModel() getestet oder
      * info.getTextDocumentModel() aufgerufen werden!
      */
     if (info != null)
-      WollMuxEventHandler.getInstance().handleTextDocumentClosed(info);
+      WollMuxEventHandler.getInstance().handleTextDocumentClosed(source, info);
   }
 
   /**
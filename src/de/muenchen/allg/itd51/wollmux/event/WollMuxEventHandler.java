@@ -1,6 +1,7 @@
 package de.muenchen.allg.itd51.wollmux.event;
 
 import java.awt.event.ActionListener;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -14,6 +15,7 @@ import com.sun.star.frame.XDispatch;
 import com.sun.star.frame.XFrame;
 import com.sun.star.text.XTextDocument;
 
+import de.muenchen.allg.itd51.wollmux.HashableComponent;
 import de.muenchen.allg.itd51.wollmux.XPALChangeEventListener;
 import de.muenchen.allg.itd51.wollmux.core.document.TextDocumentModel;
 import de.muenchen.allg.itd51.wollmux.core.parser.ConfigThingy;
@@ -23,6 +25,7 @@ import de.muenchen.allg.itd51.wollmux.core.util.L;
 import de.muenchen.allg.itd51.wollmux.document.DocumentManager;
 import de.muenchen.allg.itd51.wollmux.document.DocumentManager.TextDocumentInfo;
 import de.muenchen.allg.itd51.wollmux.document.TextDocumentController;
+import de.muenchen.allg.itd51.wollmux.event.WollMuxEventProcessor.Priority;
 import de.muenchen.allg.itd51.wollmux.event.handlers.BasicEvent;
 import de.muenchen.allg.itd51.wollmux.event.handlers.OnAbdruck;
 import de.muenchen.allg.itd51.wollmux.event.handlers.OnAbout;
@@ -59,11 +62,13 @@ import de.muenchen.allg.itd51.wollmux.event.handlers.OnRemoveDocumentEventListen
 import de.muenchen.allg.itd51.wollmux.event.handlers.OnRemovePALChangeEventListener;
 import de.muenchen.allg.itd51.wollmux.event.handlers.OnReprocessTextDocument;
 import de.muenchen.allg.itd51.wollmux.event.handlers.OnSaveAs;
+import de.muenchen.allg.itd51.wollmux.event.handlers.OnSaveCacheAndLOS;
 import de.muenchen.allg.itd51.wollmux.event.handlers.OnSaveTempAndOpenExt;
 import de.muenchen.allg.itd51.wollmux.event.handlers.OnSetFormValue;
 import de.muenchen.allg.itd51.wollmux.event.handlers.OnSetFormValueFinished;
 import de.muenchen.allg.itd51.wollmux.event.handlers.OnSetInsertValues;
 import de.muenchen.allg.itd51.wollmux.event.handlers.OnSetPrintBlocksPropsViaPrintModel;
+import de.muenchen.allg.itd51.wollmux.event.handlers.OnSetPrintVisibility;
 import de.muenchen.allg.itd51.wollmux.event.handlers.OnSetSender;
 import de.muenchen.allg.itd51.wollmux.event.handlers.OnSetVisibleState;
 import de.muenchen.allg.itd51.wollmux.event.handlers.OnSetWindowVisible;
@@ -88,6 +93,8 @@ public class WollMuxEventHandler
   private static WollMuxEventHandler instance;
   private EventBus eventBus;
 
+  private WollMuxEventProcessor eventProcessor;
+
   private InitEventListener initEventListener;
 
   private CheckInstallation checkInstallationListener;
@@ -118,6 +125,8 @@ public class WollMuxEventHandler
     checkInstallationListener = new CheckInstallation();
     eventBus.register(checkInstallationListener);
     eventBus.register(new WollMuxEventListener());
+    eventProcessor = new WollMuxEventProcessor(eventBus);
+    eventProcessor.start();
   }
 
   public static WollMuxEventHandler getInstance()
@@ -148,11 +157,109 @@ public class WollMuxEventHandler
    * @param event
    */
   private void handle(WollMuxEvent event)
+  {
+    handle(event, Priority.NORMAL);
+  }
+
+  /**
+   * Stellt das WollMuxEvent event mit der Priorität priority in die EventQueue des
+   * EventProcessors.
+   *
+   * @param event
+   * @param priority
+   */
+  private void handle(WollMuxEvent event, Priority priority)
+  {
+    enqueue(event, priority, null, null);
+  }
+
+  /**
+   * Stellt das WollMuxEvent event, das das Dokument von documentController
+   * betrifft, mit der Priorität priority in die EventQueue des EventProcessors.
+   * Events desselben Dokuments werden in der Reihenfolge ihres Eintreffens
+   * bearbeitet.
+   *
+   * @param event
+   * @param priority
+   * @param documentController
+   */
+  private void handle(WollMuxEvent event, Priority priority,
+      TextDocumentController documentController)
+  {
+    enqueue(event, priority, getDocumentKey(documentController), null);
+  }
+
+  /**
+   * Stellt das WollMuxEvent event, das das Dokument doc betrifft, mit der
+   * Priorität priority in die EventQueue des EventProcessors. Events desselben
+   * Dokuments werden in der Reihenfolge ihres Eintreffens bearbeitet.
+   *
+   * @param event
+   * @param priority
+   * @param doc
+   */
+  private void handle(WollMuxEvent event, Priority priority, XTextDocument doc)
+  {
+    enqueue(event, priority, getDocumentKey(doc), null);
+  }
+
+  /**
+   * Wie {@link #handle(WollMuxEvent, Priority, TextDocumentController)}, jedoch
+   * ersetzt event ein noch nicht bearbeitetes Event desselben Dokuments mit dem
+   * gleichen coalesceKey (siehe
+   * {@link WollMuxEventProcessor#enqueue(WollMuxEvent, Priority, Object, Object)}).
+   *
+   * @param event
+   * @param priority
+   * @param documentController
+   * @param coalesceKey
+   */
+  private void handleCoalescing(WollMuxEvent event, Priority priority,
+      TextDocumentController documentController, Object coalesceKey)
+  {
+    enqueue(event, priority, getDocumentKey(documentController), coalesceKey);
+  }
+
+  private void enqueue(WollMuxEvent event, Priority priority, Object document,
+      Object coalesceKey)
   {
     if (acceptEvents)
     {
-      eventBus.post(event);
+      eventProcessor.enqueue(event, priority, document, coalesceKey);
+    }
+  }
+
+  private static Object getDocumentKey(TextDocumentController documentController)
+  {
+    if (documentController == null)
+    {
+      return null;
     }
+    return getDocumentKey(documentController.getModel().doc);
+  }
+
+  private static Object getDocumentKey(Object doc)
+  {
+    if (doc != null)
+    {
+      try
+      {
+        return new HashableComponent(doc);
+      } catch (java.lang.Exception e)
+      {
+        LOGGER.trace("", e);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Liefert Informationen über die Warteschlange des EventProcessors und die
+   * Warte- und Bearbeitungszeiten der bisher bearbeiteten Events.
+   */
+  public String getEventProcessorStatistics()
+  {
+    return eventProcessor.getStatistics();
   }
 
   // *******************************************************************************************
@@ -210,7 +317,8 @@ public class WollMuxEventHandler
   public void handleReprocessTextDocument(
       TextDocumentController documentController)
   {
-    handle(new OnReprocessTextDocument(documentController));
+    handle(new OnReprocessTextDocument(documentController),
+        Priority.LOW, documentController);
   }
 
   /**
@@ -223,7 +331,8 @@ public class WollMuxEventHandler
   public void handleFormularMax4000Returned(
       TextDocumentController documentController)
   {
-    handle(new OnFormularMax4000Returned(documentController));
+    handle(new OnFormularMax4000Returned(documentController),
+        Priority.NORMAL, documentController);
   }
 
   /**
@@ -239,7 +348,8 @@ public class WollMuxEventHandler
       XDispatch origDisp,
       com.sun.star.util.URL origUrl, PropertyValue[] origArgs)
   {
-    handle(new OnPrint(documentController, origDisp, origUrl, origArgs));
+    handle(new OnPrint(documentController, origDisp, origUrl, origArgs),
+        Priority.LOW, documentController);
   }
 
   /**
@@ -253,7 +363,8 @@ public class WollMuxEventHandler
   public void handleFunctionDialog(TextDocumentController documentController,
       String dialogName)
   {
-    handle(new OnFunctionDialog(documentController, dialogName));
+    handle(new OnFunctionDialog(documentController, dialogName),
+        Priority.NORMAL, documentController);
   }
 
   /**
@@ -266,7 +377,8 @@ public class WollMuxEventHandler
   public void handleFormularMax4000Show(
       TextDocumentController documentController)
   {
-    handle(new OnFormularMax4000Show(documentController));
+    handle(new OnFormularMax4000Show(documentController),
+        Priority.NORMAL, documentController);
   }
 
   /**
@@ -281,7 +393,8 @@ public class WollMuxEventHandler
   public void handleButtonZifferEinfuegenPressed(
       TextDocumentController documentController)
   {
-    handle(new OnZifferEinfuegen(documentController));
+    handle(new OnZifferEinfuegen(documentController),
+        Priority.NORMAL, documentController);
   }
 
   /**
@@ -295,7 +408,8 @@ public class WollMuxEventHandler
   public void handleButtonAbdruckPressed(
       TextDocumentController documentController)
   {
-    handle(new OnAbdruck(documentController));
+    handle(new OnAbdruck(documentController),
+        Priority.NORMAL, documentController);
   }
 
   /**
@@ -310,7 +424,8 @@ public class WollMuxEventHandler
   public void handleButtonZuleitungszeilePressed(
       TextDocumentController documentController)
   {
-    handle(new OnButtonZuleitungszeilePressed(documentController));
+    handle(new OnButtonZuleitungszeilePressed(documentController),
+        Priority.NORMAL, documentController);
   }
 
   /**
@@ -333,7 +448,8 @@ public class WollMuxEventHandler
   public void handleMarkBlock(TextDocumentController documentController,
       String blockname)
   {
-    handle(new OnMarkBlock(documentController, blockname));
+    handle(new OnMarkBlock(documentController, blockname),
+        Priority.NORMAL, documentController);
   }
 
   /**
@@ -350,7 +466,8 @@ public class WollMuxEventHandler
       TextDocumentController documentController,
       boolean reprocess)
   {
-    handle(new OnTextbausteinEinfuegen(documentController, reprocess));
+    handle(new OnTextbausteinEinfuegen(documentController, reprocess),
+        Priority.LOW, documentController);
   }
 
   /**
@@ -362,7 +479,8 @@ public class WollMuxEventHandler
    */
   public void handleJumpToPlaceholder(TextDocumentController documentController)
   {
-    handle(new OnJumpToPlaceholder(documentController));
+    handle(new OnJumpToPlaceholder(documentController),
+        Priority.NORMAL, documentController);
   }
 
   /**
@@ -370,7 +488,8 @@ public class WollMuxEventHandler
    */
   public void handlePrintPage(TextDocumentController documentController)
   {
-    handle(new OnPrintPage(documentController));
+    handle(new OnPrintPage(documentController),
+        Priority.LOW, documentController);
   }
 
   /**
@@ -391,7 +510,7 @@ public class WollMuxEventHandler
       event.process();
     } else
     {
-      handle(event);
+      handle(event, Priority.NORMAL, documentController);
     }
   }
 
@@ -440,7 +559,7 @@ public class WollMuxEventHandler
    */
   public void handleJumpToMark(XTextDocument doc, boolean msg)
   {
-    handle(new OnJumpToMark(doc, msg));
+    handle(new OnJumpToMark(doc, msg), Priority.NORMAL, doc);
   }
 
   /**
@@ -497,7 +616,7 @@ public class WollMuxEventHandler
    */
   public void handleOpenDocument(List<String> fragIDs, boolean asTemplate)
   {
-    handle(new OnOpenDocument(fragIDs, asTemplate));
+    handle(new OnOpenDocument(fragIDs, asTemplate), Priority.LOW);
   }
 
   /**
@@ -513,8 +632,11 @@ public class WollMuxEventHandler
    * Erzeugt ein neues WollMuxEvent, das Auskunft darüber gibt, dass ein TextDokument
    * geschlossen wurde und damit auch das TextDocumentModel disposed werden soll.
    *
-   * Dieses Event wird ausgelöst, wenn ein TextDokument geschlossen wird.
+   * Dieses Event wird ausgelöst, wenn ein TextDokument geschlossen wird. Es wird
+   * erst nach allen noch wartenden Events dieses Dokuments bearbeitet.
    *
+   * @param source
+   *          Das Dokument, das geschlossen wurde.
    * @param docInfo
    *          ein {@link DocumentManager.Info} Objekt, an dem das TextDocumentModel
    *          dranhängt des Dokuments, das geschlossen wurde. ACHTUNG! docInfo hat
@@ -539,9 +661,10 @@ public class WollMuxEventHandler
    *          Da {@link TextDocumentInfo} synchronized ist kam es zum Deadlock.
    *
    */
-  public void handleTextDocumentClosed(DocumentManager.Info docInfo)
+  public void handleTextDocumentClosed(Object source, DocumentManager.Info docInfo)
   {
-    handle(new OnTextDocumentClosed(docInfo));
+    enqueue(new OnTextDocumentClosed(docInfo), Priority.NORMAL,
+        getDocumentKey(source), null);
   }
 
   /**
@@ -574,7 +697,8 @@ public class WollMuxEventHandler
   public void handleSetFormValue(XTextDocument doc, String id, String value,
       ActionListener unlockActionListener)
   {
-    handle(new OnSetFormValue(doc, id, value, unlockActionListener));
+    handle(new OnSetFormValue(doc, id, value, unlockActionListener),
+        Priority.NORMAL, doc);
   }
 
   /**
@@ -594,7 +718,7 @@ public class WollMuxEventHandler
       TextDocumentController documentController, ActionListener listener)
   {
     handle(new OnCollectNonWollMuxFormFieldsViaPrintModel(documentController,
-        listener));
+        listener), Priority.NORMAL, documentController);
   }
 
   /**
@@ -621,7 +745,7 @@ public class WollMuxEventHandler
       ActionListener listener)
   {
     handle(new OnSetPrintBlocksPropsViaPrintModel(doc, blockName, visible,
-        showHighlightColor, listener));
+        showHighlightColor, listener), Priority.NORMAL, doc);
   }
 
   /**
@@ -662,7 +786,8 @@ public class WollMuxEventHandler
   public void handleManagePrintFunction(XTextDocument doc,
       String functionName, boolean remove)
   {
-    handle(new OnManagePrintFunction(doc, functionName, remove));
+    handle(new OnManagePrintFunction(doc, functionName, remove),
+        Priority.NORMAL, doc);
   }
 
   /**
@@ -692,7 +817,8 @@ public class WollMuxEventHandler
       ActionListener unlockActionListener)
   {
     handle(
-        new OnSetInsertValues(doc, mapDbSpalteToValue, unlockActionListener));
+        new OnSetInsertValues(doc, mapDbSpalteToValue, unlockActionListener),
+            Priority.NORMAL, doc);
   }
 
   /**
@@ -703,7 +829,8 @@ public class WollMuxEventHandler
    */
   public void handleCloseTextDocument(TextDocumentController documentController)
   {
-    handle(new OnCloseTextDocument(documentController));
+    handle(new OnCloseTextDocument(documentController),
+        Priority.NORMAL, documentController);
   }
 
   /**
@@ -726,7 +853,8 @@ public class WollMuxEventHandler
   public void handleFocusFormField(TextDocumentController documentController,
       String fieldId)
   {
-    handle(new OnFocusFormField(documentController, fieldId));
+    handle(new OnFocusFormField(documentController, fieldId),
+        Priority.HIGH, documentController);
   }
 
   /**
@@ -740,7 +868,8 @@ public class WollMuxEventHandler
   public void handleRegisterDispatchInterceptor(
       TextDocumentController documentController)
   {
-    handle(new OnRegisterDispatchInterceptor(documentController));
+    handle(new OnRegisterDispatchInterceptor(documentController),
+        Priority.NORMAL, documentController);
   }
 
   /**
@@ -755,7 +884,8 @@ public class WollMuxEventHandler
    */
   public void handleFormControllerInitCompleted(TextDocumentController documentController)
   {
-    handle(new OnFormControllerInitCompleted(documentController));
+    handle(new OnFormControllerInitCompleted(documentController),
+        Priority.NORMAL, documentController);
   }
 
   /**
@@ -768,6 +898,10 @@ public class WollMuxEventHandler
    * dass die Wertänderung auf alle betroffenen Formularfelder im Dokument doc
    * übertragen werden.
    *
+   * Wartet noch ein OnFormValueChanged-Event für dieselbe fieldId, so wird dieses
+   * durch das neue Event ersetzt, so dass bei schnellem Tippen nur der letzte
+   * Wert in das Dokument geschrieben wird.
+   *
    * @param idToFormValues
    *          Eine HashMap die unter dem Schlüssel fieldID den Vektor aller
    *          FormFields mit der ID fieldID liefert.
@@ -783,7 +917,10 @@ public class WollMuxEventHandler
       String fieldId,
       String newValue)
   {
-    handle(new OnFormValueChanged(documentController, fieldId, newValue));
+    handleCoalescing(
+        new OnFormValueChanged(documentController, fieldId, newValue),
+        Priority.HIGH, documentController,
+        Arrays.asList(OnFormValueChanged.class, fieldId));
   }
 
   /**
@@ -801,7 +938,8 @@ public class WollMuxEventHandler
   public void handleSetWindowVisible(TextDocumentController documentController,
       boolean visible)
   {
-    handle(new OnSetWindowVisible(documentController, visible));
+    handle(new OnSetWindowVisible(documentController, visible),
+        Priority.NORMAL, documentController);
   }
 
   /**
@@ -818,7 +956,8 @@ public class WollMuxEventHandler
   public void handleSaveTempAndOpenExt(
       TextDocumentController documentController, String ext)
   {
-    handle(new OnSaveTempAndOpenExt(documentController, ext));
+    handle(new OnSaveTempAndOpenExt(documentController, ext),
+        Priority.NORMAL, documentController);
   }
 
   /**
@@ -836,7 +975,8 @@ public class WollMuxEventHandler
   public void handleCloseAndOpenExt(TextDocumentController documentController,
       String ext)
   {
-    handle(new OnCloseAndOpenExt(documentController, ext));
+    handle(new OnCloseAndOpenExt(documentController, ext),
+        Priority.NORMAL, documentController);
   }
 
   /**
@@ -887,6 +1027,9 @@ public class WollMuxEventHandler
    * ausgeblendet werden sollen. Auch das PrintModel verwendet dieses Event, wenn
    * XPrintModel.setGroupVisible() aufgerufen wurde.
    *
+   * Ist listener null, so ersetzt das Event ein noch wartendes Event für dieselbe
+   * Gruppe.
+   *
    * @param documentController
    *          Das TextDocumentModel, welches die Sichtbarkeitselemente enthält.
    * @param groupId
@@ -903,8 +1046,42 @@ public class WollMuxEventHandler
       String groupId,
       boolean visible, ActionListener listener)
   {
-    handle(
-        new OnSetVisibleState(documentController, groupId, visible, listener));
+    OnSetVisibleState event = new OnSetVisibleState(documentController,
+        groupId, visible, listener);
+    if (listener == null)
+    {
+      handleCoalescing(event, Priority.HIGH, documentController,
+          Arrays.asList(OnSetVisibleState.class, groupId));
+    } else
+    {
+      handle(event, Priority.HIGH, documentController);
+    }
+  }
+
+  /**
+   * Erzeugt ein neues WollMuxEvent, das die Sichtbarkeit mehrerer Druckblocktypen
+   * und Sichtbarkeitsgruppen des Dokuments in einem Durchgang setzt. Wird von den
+   * Komfortdruckfunktionen verwendet, um nicht für jeden Blocktyp und jede Gruppe
+   * ein eigenes Event abwarten zu müssen.
+   *
+   * @param documentController
+   *          Das Dokument, dessen Druckblöcke und Gruppen umgeschaltet werden.
+   * @param printBlocks
+   *          Abbildung der Blocktypen (z.B. allVersions) auf die neue Sichtbarkeit.
+   * @param showHighlightColor
+   *          gibt an ob die Hintergrundfarbe der Druckblöcke angezeigt werden soll.
+   * @param groups
+   *          Abbildung der Gruppen-IDs auf den neuen Sichtbarkeitsstatus.
+   * @param listener
+   *          Der listener, der nach Durchführung des Events benachrichtigt wird
+   *          (kann auch null sein, dann gibt's keine Nachricht).
+   */
+  public void handleSetPrintVisibility(TextDocumentController documentController,
+      Map<String, Boolean> printBlocks, boolean showHighlightColor,
+      Map<String, Boolean> groups, ActionListener listener)
+  {
+    handle(new OnSetPrintVisibility(documentController, printBlocks,
+        showHighlightColor, groups, listener), Priority.NORMAL, documentController);
   }
 
   /**
@@ -917,12 +1094,15 @@ public class WollMuxEventHandler
    * Das Event wird aus der Implementierung vom OnSetFormValueViaPrintModel.doit()
    * erzeugt, wenn Feldänderungen über die FormGUI laufen.
    *
+   * @param doc
+   *          Das Dokument, in dem der Formularwert gesetzt wurde.
    * @param unlockActionListener
    *          Der zu informierende unlockActionListener.
    */
-  public void handleSetFormValueFinished(ActionListener unlockActionListener)
+  public void handleSetFormValueFinished(XTextDocument doc,
+      ActionListener unlockActionListener)
   {
-    handle(new OnSetFormValueFinished(unlockActionListener));
+    handle(new OnSetFormValueFinished(unlockActionListener), Priority.NORMAL, doc);
   }
 
   /**
@@ -934,7 +1114,8 @@ public class WollMuxEventHandler
   public void handleMailMergeNewReturned(
       TextDocumentController documentController)
   {
-    handle(new OnHandleMailMergeNewReturned(documentController));
+    handle(new OnHandleMailMergeNewReturned(documentController),
+        Priority.NORMAL, documentController);
   }
 
   /**
@@ -951,7 +1132,8 @@ public class WollMuxEventHandler
       TextDocumentController documentController,
       boolean visible)
   {
-    handle(new OnProcessTextDocument(documentController, visible));
+    handle(new OnProcessTextDocument(documentController, visible),
+        Priority.LOW, documentController);
   }
 
   /**
@@ -968,7 +1150,27 @@ public class WollMuxEventHandler
    */
   public void handlePALChangedNotify()
   {
-    handle(new OnPALChangedNotify());
+    handle(new OnPALChangedNotify(false));
+  }
+
+  /**
+   * Wie {@link #handlePALChangedNotify()}, muss aber verwendet werden, wenn sich
+   * die Inhalte von Einträgen der PAL geändert haben, z.B. nach dem Bearbeiten
+   * eines Datensatzes.
+   */
+  public void handlePALDatasetsChangedNotify()
+  {
+    handle(new OnPALChangedNotify(true));
+  }
+
+  /**
+   * Erzeugt ein neues WollMuxEvent, das Cache und LOS des DatasourceJoiners
+   * ausliest und im Hintergrund speichert (siehe
+   * {@link de.muenchen.allg.itd51.wollmux.db.LosCacheWriter}).
+   */
+  public void handleSaveCacheAndLOS()
+  {
+    handle(new OnSaveCacheAndLOS(), Priority.LOW);
   }
 
   /**
@@ -984,7 +1186,8 @@ public class WollMuxEventHandler
   public void handleExecutePrintFunctions(
       TextDocumentController documentController)
   {
-    handle(new OnExecutePrintFunction(documentController));
+    handle(new OnExecutePrintFunction(documentController),
+        Priority.LOW, documentController);
   }
 
   public void handleUpdateInputFields(XTextDocument doc, DispatchHelper helper, boolean sync)
@@ -995,7 +1198,7 @@ public class WollMuxEventHandler
       event.process();
     } else
     {
-      handle(event);
+      handle(event, Priority.NORMAL, doc);
     }
   }
 
@@ -0,0 +1,470 @@
+package de.muenchen.allg.itd51.wollmux.event;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.eventbus.EventBus;
+
+import de.muenchen.allg.itd51.wollmux.core.util.L;
+import de.muenchen.allg.itd51.wollmux.event.handlers.WollMuxEvent;
+
+/**
+ * Der EventProcessor arbeitet die WollMuxEvents in einem eigenen Thread ab, damit
+ * der Thread, der ein Event erzeugt (UNO-Callback, Swing-EDT, Druckfunktion), nicht
+ * blockiert wird, bis das Event bearbeitet ist.
+ *
+ * Die Events werden in drei Warteschlangen (siehe {@link Priority}) gehalten. Es
+ * wird immer das älteste Event der dringendsten nicht leeren Warteschlange als
+ * nächstes bearbeitet. Damit die Events eines Dokuments trotzdem in der Reihenfolge
+ * bearbeitet werden, in der sie erzeugt wurden, wird ein Event nie in eine
+ * dringendere Warteschlange eingereiht als noch wartende Events desselben
+ * Dokuments. Events ohne Dokument sind an diese Reihenfolge nicht gebunden; Events,
+ * die nach den Events eines Dokuments bearbeitet werden müssen (z.B. das Schließen
+ * des Dokuments), müssen daher mit dem Dokument eingereiht werden.
+ *
+ * Die Anzahl wartender Events ist auf {@link #MAX_QUEUE_SIZE} begrenzt. Ist die
+ * Grenze erreicht, so wartet der erzeugende Thread, bis wieder Platz ist. Events,
+ * die vom EventProcessor selbst (also während der Bearbeitung eines anderen
+ * Events) erzeugt werden, werden immer angenommen, da der EventProcessor sonst auf
+ * sich selbst warten würde.
+ *
+ * Events mit einem coalesceKey (z.B. OnFormValueChanged je Feld-ID) ersetzen ein
+ * noch wartendes Event desselben Dokuments mit gleichem coalesceKey an dessen
+ * Position in der Warteschlange, sofern seitdem für dieses Dokument nur weitere
+ * solche Events eingereiht wurden. So wird bei schnell aufeinanderfolgenden
+ * Wertänderungen nur der jeweils letzte Wert verarbeitet, ohne dass sich der
+ * Endzustand des Dokuments ändert.
+ */
+class WollMuxEventProcessor implements Runnable
+{
+  private static final Logger LOGGER = LoggerFactory
+      .getLogger(WollMuxEventProcessor.class);
+
+  /**
+   * Maximale Anzahl wartender Events.
+   */
+  static final int MAX_QUEUE_SIZE = 1000;
+
+  /**
+   * Die Dringlichkeit eines Events. Events einer höheren Priorität werden vor den
+   * Events einer niedrigeren Priorität bearbeitet.
+   */
+  enum Priority
+  {
+    /**
+     * Events, auf die der Benutzer in der Formular-GUI unmittelbar eine Reaktion
+     * erwartet (z.B. OnFormValueChanged, OnFocusFormField).
+     */
+    HIGH,
+
+    /**
+     * Alle anderen Events.
+     */
+    NORMAL,
+
+    /**
+     * Lang laufende Events wie das Öffnen, Bearbeiten oder Drucken von Dokumenten.
+     */
+    LOW;
+  }
+
+  private final EventBus eventBus;
+
+  private final ReentrantLock lock = new ReentrantLock();
+
+  private final Condition notEmpty = lock.newCondition();
+
+  private final Condition notFull = lock.newCondition();
+
+  /**
+   * Je Priorität eine Warteschlange, Index ist {@link Priority#ordinal()}.
+   */
+  private final ArrayDeque<QueuedEvent>[] lanes;
+
+  /**
+   * Bildet ein Dokument auf den Zustand seiner wartenden Events ab. Wird zur
+   * Sicherstellung der Reihenfolge innerhalb eines Dokuments benötigt.
+   */
+  private final Map<Object, DocumentState> pendingByDocument = new HashMap<>();
+
+  /**
+   * Die wartenden Events, die noch ersetzt werden können. Der Schlüssel ist eine
+   * Liste aus Dokument und coalesceKey.
+   */
+  private final Map<List<Object>, QueuedEvent> coalescable = new HashMap<>();
+
+  /**
+   * Fortlaufende Nummer der eingereihten Events.
+   */
+  private long sequence = 0;
+
+  private long coalescedCount = 0;
+
+  private int size = 0;
+
+  private int maxSize = 0;
+
+  private long processedCount = 0;
+
+  /**
+   * Statistiken je Event-Klasse (sortiert nach Name für die Ausgabe).
+   */
+  private final Map<String, EventStatistics> statistics = new TreeMap<>();
+
+  private Thread thread;
+
+  @SuppressWarnings("unchecked")
+  WollMuxEventProcessor(EventBus eventBus)
+  {
+    this.eventBus = eventBus;
+    lanes = new ArrayDeque[Priority.values().length];
+    for (int i = 0; i < lanes.length; i++)
+    {
+      lanes[i] = new ArrayDeque<>();
+    }
+  }
+
+  /**
+   * Startet den Thread des EventProcessors, falls er noch nicht läuft.
+   */
+  synchronized void start()
+  {
+    if (thread == null)
+    {
+      thread = new Thread(this, "WollMux EventProcessor");
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  /**
+   * Stellt das Event in die Warteschlange der Priorität priority ein oder ersetzt
+   * ein noch wartendes Event desselben Dokuments mit gleichem coalesceKey.
+   *
+   * @param event
+   *          Das zu bearbeitende Event.
+   * @param priority
+   *          Die gewünschte Priorität. Gibt es noch wartende Events desselben
+   *          Dokuments mit niedrigerer Priorität, so wird das Event mit dieser
+   *          Priorität eingereiht.
+   * @param document
+   *          Schlüssel des vom Event betroffenen Dokuments (equals/hashCode müssen
+   *          die Identität des Dokuments abbilden) oder null, wenn das Event kein
+   *          Dokument betrifft.
+   * @param coalesceKey
+   *          Ist coalesceKey und document nicht null, so ersetzt event ein noch
+   *          wartendes Event mit gleichem Dokument und coalesceKey, falls für das
+   *          Dokument danach nur Events mit coalesceKey eingereiht wurden. Die
+   *          Events müssen also untereinander vertauschbar sein und das neuere
+   *          Event muss die Wirkung des älteren vollständig überschreiben.
+   */
+  void enqueue(WollMuxEvent event, Priority priority, Object document,
+      Object coalesceKey)
+  {
+    boolean isProcessorThread = Thread.currentThread() == thread;
+    lock.lock();
+    try
+    {
+      while (size >= MAX_QUEUE_SIZE && !isProcessorThread)
+      {
+        LOGGER.warn(L.m("EventProcessor: Warteschlange ist voll, warte auf %1",
+            event));
+        notFull.await();
+      }
+
+      long seq = ++sequence;
+      int lane = priority.ordinal();
+      List<Object> key = null;
+      if (document != null)
+      {
+        DocumentState state = pendingByDocument.get(document);
+        if (state == null)
+        {
+          state = new DocumentState(lanes.length);
+          pendingByDocument.put(document, state);
+        }
+
+        if (coalesceKey == null)
+        {
+          state.barrier = seq;
+        } else
+        {
+          key = Arrays.asList(document, coalesceKey);
+          QueuedEvent pending = coalescable.get(key);
+          if (pending != null && pending.sequence > state.barrier)
+          {
+            LOGGER.trace("EventProcessor: {} ersetzt {}", event, pending.event);
+            pending.event = event;
+            coalescedCount++;
+            return;
+          }
+        }
+
+        for (int i = state.pending.length - 1; i > lane; i--)
+        {
+          if (state.pending[i] > 0)
+          {
+            lane = i;
+            break;
+          }
+        }
+        state.pending[lane]++;
+      }
+
+      QueuedEvent queued = new QueuedEvent(event, document, lane, seq, key);
+      if (key != null)
+      {
+        coalescable.put(key, queued);
+      }
+      lanes[lane].addLast(queued);
+      size++;
+      maxSize = Math.max(maxSize, size);
+      notEmpty.signal();
+    } catch (InterruptedException e)
+    {
+      LOGGER.error(L.m("EventProcessor: Event %1 wurde verworfen.", event), e);
+      Thread.currentThread().interrupt();
+    } finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Liefert das nächste zu bearbeitende Event und wartet ggf., bis eines
+   * vorliegt.
+   */
+  private QueuedEvent take() throws InterruptedException
+  {
+    lock.lock();
+    try
+    {
+      while (size == 0)
+      {
+        notEmpty.await();
+      }
+
+      for (ArrayDeque<QueuedEvent> lane : lanes)
+      {
+        QueuedEvent next = lane.pollFirst();
+        if (next != null)
+        {
+          size--;
+          if (next.coalesceKey != null
+              && coalescable.get(next.coalesceKey) == next)
+          {
+            coalescable.remove(next.coalesceKey);
+          }
+          if (next.document != null)
+          {
+            DocumentState state = pendingByDocument.get(next.document);
+            state.pending[next.lane]--;
+            if (state.isEmpty())
+            {
+              pendingByDocument.remove(next.document);
+            }
+          }
+          notFull.signal();
+          return next;
+        }
+      }
+      throw new IllegalStateException();
+    } finally
+    {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void run()
+  {
+    LOGGER.debug(L.m("EventProcessor: gestartet."));
+    while (true)
+    {
+      QueuedEvent next;
+      try
+      {
+        next = take();
+      } catch (InterruptedException e)
+      {
+        LOGGER.debug(L.m("EventProcessor: beendet."));
+        Thread.currentThread().interrupt();
+        return;
+      }
+
+      long start = System.nanoTime();
+      try
+      {
+        eventBus.post(next.event);
+      } catch (Throwable t)
+      {
+        // Der EventProcessor darf durch kein Event beendet werden.
+        LOGGER.error("", t);
+      }
+      long end = System.nanoTime();
+      record(next, start, end);
+    }
+  }
+
+  private void record(QueuedEvent event, long start, long end)
+  {
+    lock.lock();
+    try
+    {
+      processedCount++;
+      String name = event.event.getClass().getSimpleName();
+      EventStatistics stats = statistics.get(name);
+      if (stats == null)
+      {
+        stats = new EventStatistics();
+        statistics.put(name, stats);
+      }
+      stats.add(start - event.enqueued, end - start);
+    } finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Liefert eine textuelle Darstellung der aktuellen Warteschlangenlänge und der
+   * Warte- und Bearbeitungszeiten je Event-Klasse, z.B. für
+   * {@link de.muenchen.allg.itd51.wollmux.WollMuxFiles#dumpInfo()}.
+   */
+  String getStatistics()
+  {
+    StringBuilder buffy = new StringBuilder();
+    lock.lock();
+    try
+    {
+      buffy.append("Queue size: ").append(size);
+      for (Priority p : Priority.values())
+      {
+        buffy.append(" ").append(p).append("=")
+            .append(lanes[p.ordinal()].size());
+      }
+      buffy.append("\nMaximum queue size: ").append(maxSize);
+      buffy.append("\nProcessed events: ").append(processedCount);
+      buffy.append("\nCoalesced events: ").append(coalescedCount)
+          .append("\n");
+      for (Map.Entry<String, EventStatistics> entry : statistics.entrySet())
+      {
+        buffy.append(entry.getKey()).append(": ").append(entry.getValue())
+            .append("\n");
+      }
+    } finally
+    {
+      lock.unlock();
+    }
+    return buffy.toString();
+  }
+
+  /**
+   * Ein wartendes Event mit den Daten, die für die Verwaltung der Warteschlangen
+   * und die Statistik benötigt werden.
+   */
+  private static class QueuedEvent
+  {
+    private WollMuxEvent event;
+
+    private final Object document;
+
+    private final int lane;
+
+    private final long sequence;
+
+    private final List<Object> coalesceKey;
+
+    private final long enqueued = System.nanoTime();
+
+    QueuedEvent(WollMuxEvent event, Object document, int lane, long sequence,
+        List<Object> coalesceKey)
+    {
+      this.event = event;
+      this.document = document;
+      this.lane = lane;
+      this.sequence = sequence;
+      this.coalesceKey = coalesceKey;
+    }
+  }
+
+  /**
+   * Die wartenden Events eines Dokuments.
+   */
+  private static class DocumentState
+  {
+    /**
+     * Anzahl der wartenden Events je Warteschlange.
+     */
+    private final int[] pending;
+
+    /**
+     * Sequenznummer des zuletzt eingereihten Events ohne coalesceKey. Events vor
+     * dieser Nummer dürfen nicht mehr ersetzt werden.
+     */
+    private long barrier = 0;
+
+    DocumentState(int lanes)
+    {
+      pending = new int[lanes];
+    }
+
+    boolean isEmpty()
+    {
+      for (int count : pending)
+      {
+        if (count > 0)
+        {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Aufsummierte Warte- und Bearbeitungszeiten aller Events einer Klasse.
+   */
+  private static class EventStatistics
+  {
+    private long count;
+
+    private long waitNanos;
+
+    private long maxWaitNanos;
+
+    private long runNanos;
+
+    private long maxRunNanos;
+
+    void add(long wait, long run)
+    {
+      count++;
+      waitNanos += wait;
+      maxWaitNanos = Math.max(maxWaitNanos, wait);
+      runNanos += run;
+      maxRunNanos = Math.max(maxRunNanos, run);
+    }
+
+    @Override
+    public String toString()
+    {
+      return String.format(
+          "count=%d, wait avg=%dms max=%dms, run avg=%dms max=%dms", count,
+          TimeUnit.NANOSECONDS.toMillis(waitNanos / count),
+          TimeUnit.NANOSECONDS.toMillis(maxWaitNanos),
+          TimeUnit.NANOSECONDS.toMillis(runNanos / count),
+          TimeUnit.NANOSECONDS.toMillis(maxRunNanos));
+    }
+  }
+}
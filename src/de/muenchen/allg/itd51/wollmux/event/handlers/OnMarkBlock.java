@@ -16,6 +16,7 @@ import com.sun.star.text.XTextRange;
 import com.sun.star.text.XTextRangeCompare;
 
 import de.muenchen.allg.afid.UNO;
+import de.muenchen.allg.itd51.wollmux.WollMuxConfIndex;
 import de.muenchen.allg.itd51.wollmux.WollMuxFehlerException;
 import de.muenchen.allg.itd51.wollmux.WollMuxFiles;
 import de.muenchen.allg.itd51.wollmux.core.document.Bookmark;
@@ -70,7 +71,7 @@ public class OnMarkBlock extends BasicEvent
         || blockname == null)
       return;
 
-    ConfigThingy slvConf = WollMuxFiles.getWollmuxConf()
+    ConfigThingy slvConf = WollMuxConfIndex.getInstance()
         .query("SachleitendeVerfuegungen");
     Integer highlightColor = null;
 
@@ -223,7 +224,7 @@ public class OnMarkBlock extends BasicEvent
     }
 
     // PrintBlöcke neu einlesen:
-    documentController.getModel().getDocumentCommands().update();
+    documentController.updateDocumentCommands();
     DocumentCommandInterpreter dci = new DocumentCommandInterpreter(
         documentController, WollMuxFiles.isDebugMode());
     dci.scanGlobalDocumentCommands();
@@ -16,13 +16,14 @@ import de.muenchen.allg.afid.UNO;
 import de.muenchen.allg.itd51.wollmux.WollMuxFehlerException;
 import de.muenchen.allg.itd51.wollmux.WollMuxFiles;
 import de.muenchen.allg.itd51.wollmux.WollMuxSingleton;
-import de.muenchen.allg.itd51.wollmux.core.document.VisibleTextFragmentList;
 import de.muenchen.allg.itd51.wollmux.core.parser.ConfigurationErrorException;
 import de.muenchen.allg.itd51.wollmux.core.parser.InvalidIdentifierException;
 import de.muenchen.allg.itd51.wollmux.core.util.L;
 import de.muenchen.allg.itd51.wollmux.document.DocumentLoader;
 import de.muenchen.allg.itd51.wollmux.document.DocumentManager;
 import de.muenchen.allg.itd51.wollmux.document.TextDocumentController;
+import de.muenchen.allg.itd51.wollmux.document.TextFragmentIndex;
+import de.muenchen.allg.itd51.wollmux.document.TextFragmentIndex.FragmentURL;
 
 /**
  * Obsolete, aber aus Kompatibilitätgründen noch vorhanden. Bitte handleOpen()
@@ -91,15 +92,14 @@ public class OnOpenDocument extends BasicEvent
       String frag_id = iter.next();
 
       // Fragment-URL holen und aufbereiten:
-      List<String> urls = new ArrayList<>();
+      List<FragmentURL> urls = new ArrayList<>();
 
       java.lang.Exception error = new ConfigurationErrorException(L.m(
           "Das Textfragment mit der FRAG_ID '%1' ist nicht definiert!",
           frag_id));
       try
       {
-        urls = VisibleTextFragmentList
-            .getURLsByID(WollMuxFiles.getWollmuxConf(), frag_id);
+        urls = TextFragmentIndex.getInstance().getURLs(frag_id);
       } catch (InvalidIdentifierException e)
       {
         error = e;
@@ -118,19 +118,19 @@ public class OnOpenDocument extends BasicEvent
       // übernommen.
       StringBuilder  errors = new StringBuilder();
       boolean found = false;
-      Iterator<String> iterUrls = urls.iterator();
+      Iterator<FragmentURL> iterUrls = urls.iterator();
       while (iterUrls.hasNext() && !found)
       {
-        urlStr = iterUrls.next();
+        FragmentURL fragUrl = iterUrls.next();
+        urlStr = fragUrl.toString();
 
         // URL erzeugen und prüfen, ob sie aufgelöst werden kann
         URL url;
         try
         {
+          urlStr = fragUrl.getUnoURL();
           url = WollMuxFiles.makeURL(urlStr);
-          urlStr = UNO.getParsedUNOUrl(url.toExternalForm()).Complete;
-          url = WollMuxFiles.makeURL(urlStr);
-          found = DocumentLoader.getInstance().hasDocument(urlStr);
+          found = DocumentLoader.getInstance().isCached(urlStr);
           if (!found)
           {
             WollMuxSingleton.checkURL(url);
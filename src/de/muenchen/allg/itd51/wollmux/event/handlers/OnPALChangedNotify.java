@@ -1,6 +1,5 @@
 package de.muenchen.allg.itd51.wollmux.event.handlers;
 
-import java.io.IOException;
 import java.util.Iterator;
 
 import org.slf4j.Logger;
@@ -9,10 +8,8 @@ import org.slf4j.LoggerFactory;
 import com.sun.star.lang.EventObject;
 
 import de.muenchen.allg.itd51.wollmux.PersoenlicheAbsenderliste;
-import de.muenchen.allg.itd51.wollmux.WollMuxFiles;
 import de.muenchen.allg.itd51.wollmux.XPALChangeEventListener;
-import de.muenchen.allg.itd51.wollmux.core.parser.ConfigThingy;
-import de.muenchen.allg.itd51.wollmux.db.DatasourceJoinerFactory;
+import de.muenchen.allg.itd51.wollmux.db.LosCacheWriter;
 
 /**
  * Dieses Event wird immer dann erzeugt, wenn ein Dialog zur Bearbeitung der PAL
@@ -27,9 +24,25 @@ public class OnPALChangedNotify extends BasicEvent
   private static final Logger LOGGER = LoggerFactory
       .getLogger(OnPALChangedNotify.class);
 
+  private final boolean datasetsChanged;
+
+  /**
+   * @param datasetsChanged
+   *          true, wenn sich die Inhalte von Einträgen der PAL geändert haben.
+   *          Hinzugefügte und entfernte Einträge erkennt die
+   *          {@link PersoenlicheAbsenderliste} selbst.
+   */
+  public OnPALChangedNotify(boolean datasetsChanged)
+  {
+    this.datasetsChanged = datasetsChanged;
+  }
+
   @Override
   protected void doit()
   {
+    if (datasetsChanged)
+      PersoenlicheAbsenderliste.getInstance().invalidate();
+
     // registrierte PALChangeListener updaten
     Iterator<XPALChangeEventListener> i = PersoenlicheAbsenderliste
         .getInstance().iterator();
@@ -47,15 +60,8 @@ public class OnPALChangedNotify extends BasicEvent
       }
     }
 
-    // Cache und LOS auf Platte speichern.
-    ConfigThingy cache = DatasourceJoinerFactory.getDatasourceJoiner()
-        .saveCacheAndLOS(WollMuxFiles.getLosCacheFile());
-    try
-    {
-      WollMuxFiles.writeConfToFile(WollMuxFiles.getLosCacheFile(), cache);
-    } catch (IOException e)
-    {
-      LOGGER.error("Cache konnte nicht gespeichert werden.", e);
-    }
+    // Cache und LOS verzögert auf Platte speichern, damit mehrere Änderungen
+    // zusammengefasst werden.
+    LosCacheWriter.getInstance().scheduleSave();
   }
 }
\ No newline at end of file
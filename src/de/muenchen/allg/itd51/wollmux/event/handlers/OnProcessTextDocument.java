@@ -4,6 +4,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import de.muenchen.allg.itd51.wollmux.GlobalFunctions;
+import de.muenchen.allg.itd51.wollmux.WollMuxConfIndex;
 import de.muenchen.allg.itd51.wollmux.WollMuxFehlerException;
 import de.muenchen.allg.itd51.wollmux.WollMuxFiles;
 import de.muenchen.allg.itd51.wollmux.core.document.WMCommandsFailedException;
@@ -49,8 +50,8 @@ public class OnProcessTextDocument extends BasicEvent
     if (visible)
       try
       {
-        ConfigThingy tds = WollMuxFiles.getWollmuxConf().query("Fenster")
-            .query("Textdokument").getLastChild();
+        ConfigThingy tds = WollMuxConfIndex.getInstance()
+            .query("Fenster", "Textdokument").getLastChild();
         documentController.getFrameController().setWindowViewSettings(tds);
       } catch (NodeNotFoundException e)
       {
@@ -93,8 +94,8 @@ public class OnProcessTextDocument extends BasicEvent
           try
           {
             documentController.getFrameController().setDocumentZoom(
-                WollMuxFiles.getWollmuxConf().query("Fenster").query(
-                    "Formular").getLastChild().query("ZOOM"));
+                WollMuxConfIndex.getInstance().query("Fenster", "Formular")
+                    .getLastChild().query("ZOOM"));
           } catch (java.lang.Exception e)
           {
             // kein Fehler
@@ -25,7 +25,7 @@ public class OnReprocessTextDocument extends BasicEvent
 
     // Dokument mit neuen Dokumentkommandos über den
     // DocumentCommandInterpreter bearbeiten:
-    model.getDocumentCommands().update();
+    documentController.updateDocumentCommands();
     DocumentCommandInterpreter dci = new DocumentCommandInterpreter(
         documentController, WollMuxFiles.isDebugMode());
     try
@@ -0,0 +1,17 @@
+package de.muenchen.allg.itd51.wollmux.event.handlers;
+
+import de.muenchen.allg.itd51.wollmux.db.LosCacheWriter;
+
+/**
+ * Dieses Event wird vom {@link LosCacheWriter} erzeugt, nachdem sich die PAL
+ * geändert hat. Es liest Cache und LOS des DatasourceJoiners aus und übergibt sie
+ * dem {@link LosCacheWriter} zum Speichern.
+ */
+public class OnSaveCacheAndLOS extends BasicEvent
+{
+  @Override
+  protected void doit()
+  {
+    LosCacheWriter.getInstance().save();
+  }
+}
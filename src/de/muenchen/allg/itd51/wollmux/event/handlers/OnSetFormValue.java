@@ -41,7 +41,7 @@ public class OnSetFormValue extends BasicEvent
       // Werte über den FormController (den das FormModel kennt) setzen lassen
       // (damit sind auch automatisch alle Abhängigkeiten richtig aufgelöst)
       formModel.setValue(id, value, e -> WollMuxEventHandler.getInstance()
-          .handleSetFormValueFinished(listener));
+          .handleSetFormValueFinished(doc, listener));
     } else
     {
       // Werte selber setzen:
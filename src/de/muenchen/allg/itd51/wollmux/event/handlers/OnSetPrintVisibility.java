@@ -0,0 +1,74 @@
+package de.muenchen.allg.itd51.wollmux.event.handlers;
+
+import java.awt.event.ActionListener;
+import java.util.Map;
+
+import de.muenchen.allg.itd51.wollmux.WollMuxFehlerException;
+import de.muenchen.allg.itd51.wollmux.document.TextDocumentController;
+
+/**
+ * Erzeugt ein neues WollMuxEvent, mit dem die Sichtbarkeit mehrerer
+ * Druckblocktypen (z.B. allVersions) und Sichtbarkeitsgruppen in einem Durchgang
+ * gesetzt wird (siehe
+ * {@link TextDocumentController#setPrintVisibility(Map, boolean, Map)}).
+ *
+ * Das Event dient als Hilfe für die Komfortdruckfunktionen, die vor und nach
+ * jedem Ausdruck mehrere Druckblöcke und Gruppen umschalten.
+ *
+ * @param printBlocks
+ *          Abbildung der Blocktypen auf die neue Sichtbarkeit.
+ * @param showHighlightColor
+ *          gibt an ob die Hintergrundfarbe der Druckblöcke angezeigt werden soll.
+ * @param groups
+ *          Abbildung der Gruppen-IDs auf den neuen Sichtbarkeitsstatus.
+ * @param listener
+ *          Der listener, der nach Durchführung des Events benachrichtigt wird
+ *          (kann auch null sein, dann gibt's keine Nachricht).
+ */
+public class OnSetPrintVisibility extends BasicEvent
+{
+  private TextDocumentController documentController;
+
+  private Map<String, Boolean> printBlocks;
+
+  private boolean showHighlightColor;
+
+  private Map<String, Boolean> groups;
+
+  private ActionListener listener;
+
+  public OnSetPrintVisibility(TextDocumentController documentController,
+      Map<String, Boolean> printBlocks, boolean showHighlightColor,
+      Map<String, Boolean> groups, ActionListener listener)
+  {
+    this.documentController = documentController;
+    this.printBlocks = printBlocks;
+    this.showHighlightColor = showHighlightColor;
+    this.groups = groups;
+    this.listener = listener;
+  }
+
+  @Override
+  protected void doit() throws WollMuxFehlerException
+  {
+    try
+    {
+      documentController.setPrintVisibility(printBlocks, showHighlightColor,
+          groups);
+    } catch (java.lang.Exception e)
+    {
+      errorMessage(e);
+    }
+
+    stabilize();
+    if (listener != null)
+      listener.actionPerformed(null);
+  }
+
+  @Override
+  public String toString()
+  {
+    return this.getClass().getSimpleName() + "(" + printBlocks + ", '"
+        + showHighlightColor + "', " + groups + ")";
+  }
+}
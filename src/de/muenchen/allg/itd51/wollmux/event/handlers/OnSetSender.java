@@ -1,7 +1,5 @@
 package de.muenchen.allg.itd51.wollmux.event.handlers;
 
-import java.util.List;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -34,16 +32,14 @@ public class OnSetSender extends BasicEvent
   @Override
   protected void doit()
   {
-    String[] pal = PersoenlicheAbsenderliste.getInstance().getPALEntries();
-
     // nur den neuen Absender setzen, wenn index und sender übereinstimmen,
     // d.h.
     // die Absenderliste der entfernten WollMuxBar konsistent war.
-    if (idx >= 0 && idx < pal.length && pal[idx].equals(senderName))
+    DJDataset sender =
+        PersoenlicheAbsenderliste.getInstance().getPALEntry(senderName, idx);
+    if (sender != null)
     {
-      List<DJDataset> palDatasets = PersoenlicheAbsenderliste
-          .getInstance().getSortedPALEntries();
-      palDatasets.get(idx).select();
+      sender.select();
     } else
     {
       LOGGER.error(L.m(
@@ -145,6 +145,17 @@ public class FormularMax4kController
    */
   private Timer writeChangesTimer;
 
+  /**
+   * Die zuletzt von {@link #updateDocument(TextDocumentController, boolean)} an das
+   * Dokument übergebene Formularbeschreibung oder null.
+   */
+  private ConfigThingy writtenFormDescription;
+
+  /**
+   * Die stringRepresentation() von {@link #writtenFormDescription}.
+   */
+  private String writtenFormDescriptionString;
+
   /**
    * Der Standard-Formulartitel, solange kein anderer gesetzt wird.
    */
@@ -254,7 +265,7 @@ public class FormularMax4kController
       @Override
       public void actionPerformed(ActionEvent e)
       {
-        updateDocument(FormularMax4kController.this.documentController);
+        updateDocument(FormularMax4kController.this.documentController, false);
       }
     });
     writeChangesTimer.setCoalesce(true);
@@ -469,7 +480,7 @@ public class FormularMax4kController
     ConfigEditor editor = new ConfigEditor("Config Editor", this);
     
     editor.setVisible(true);
-    editor.setText(updateDocument(documentController).stringRepresentation());
+    editor.setText(updateDocument(documentController, true).stringRepresentation());
     editor.addWindowListener(new WindowAdapter()
     {
       @Override
@@ -675,8 +686,9 @@ public class FormularMax4kController
 
   
   /**
-   * Ruft {@link #updateDocument(TextDocumentModel)} auf, falls noch Änderungen
-   * anstehen.
+   * Ruft {@link #updateDocument(TextDocumentController, boolean)} auf, falls noch
+   * Änderungen anstehen. Die Formularbeschreibung wird dabei in jedem Fall
+   * vollständig geschrieben.
    * 
    * @author Matthias Benkmann (D-III-ITD 5.1)
    */
@@ -688,7 +700,7 @@ public class FormularMax4kController
       writeChangesTimer.stop();
       try
       {
-        updateDocument(documentController);
+        updateDocument(documentController, true);
       }
       catch (Exception x)
       {
@@ -701,11 +713,17 @@ public class FormularMax4kController
    * Speichert die aktuelle Formularbeschreibung im Dokument und aktualisiert
    * Bookmarks etc.
    *
+   * @param force
+   *          falls false, wird die Formularbeschreibung nur dann in das Dokument
+   *          geschrieben, wenn sie sich seit dem letzten Aufruf geändert hat und
+   *          die Formularbeschreibung des Dokuments noch die zuletzt geschriebene
+   *          ist. Falls true, wird sie immer geschrieben.
    * @return die aktualisierte Formularbeschreibung
    *
    * @author Matthias Benkmann (D-III-ITD 5.1) TESTED
    */
-  private ConfigThingy updateDocument(TextDocumentController documentController)
+  private ConfigThingy updateDocument(TextDocumentController documentController,
+      boolean force)
   {
     LOGGER.debug(L.m("Übertrage Formularbeschreibung ins Dokument"));
     Map<String, ConfigThingy> mapFunctionNameToConfigThingy =
@@ -713,14 +731,26 @@ public class FormularMax4kController
     insertionModelList.updateDocument(mapFunctionNameToConfigThingy);
     sectionModelList.updateDocument();
     ConfigThingy conf = buildFormDescriptor(mapFunctionNameToConfigThingy);
-    documentController.setFormDescription(new ConfigThingy(conf));
+    String confString = conf.stringRepresentation();
+    if (!force && writtenFormDescription != null
+      && writtenFormDescription == documentController.getModel().getFormDescription()
+      && confString.equals(writtenFormDescriptionString))
+    {
+      LOGGER.debug(L.m("Formularbeschreibung unverändert"));
+      return conf;
+    }
+
+    writtenFormDescription = new ConfigThingy(conf);
+    writtenFormDescriptionString = confString;
+    documentController.setFormDescription(writtenFormDescription);
     return conf;
   }
 
   /**
    * Liefert ein ConfigThingy zurück, das den aktuellen Zustand der
    * Formularbeschreibung repräsentiert. Zum Exportieren der Formularbeschreibung
-   * sollte {@link #updateDocument(XTextDocument)} verwendet werden.
+   * sollte {@link #updateDocument(TextDocumentController, boolean)} verwendet
+   * werden.
    * 
    * @param mapFunctionNameToConfigThingy
    *          bildet einen Funktionsnamen auf ein ConfigThingy ab, dessen Wurzel der
@@ -62,6 +62,18 @@ public abstract class InsertionModel
    */
   private List<ModelChangeListener> listeners = new Vector<ModelChangeListener>(1);
 
+  /**
+   * Der Name der zuletzt von {@link #putGeneratedTrafo(Map)} für die TRAFO
+   * erzeugten Funktion oder null.
+   */
+  private String generatedTrafoName;
+
+  /**
+   * Die stringRepresentation() der zuletzt unter {@link #generatedTrafoName}
+   * exportierten Funktion.
+   */
+  private String generatedTrafoConf;
+
   /**
    * Entfernt die Einfügestelle komplett aus dem Dokument, d,h, sowohl das eventuell
    * vorhandene WollMux-Bookmark als auch den Feldbefehl.
@@ -104,6 +116,43 @@ public abstract class InsertionModel
   public abstract boolean updateDocument(
       Map<String, ConfigThingy> mapFunctionNameToConfigThingy);
 
+  /**
+   * Exportiert die TRAFO als neue Funktion nach mapFunctionNameToConfigThingy und
+   * liefert deren Namen. Hat sich die TRAFO seit dem letzten Aufruf nicht geändert,
+   * wird der beim letzten Aufruf generierte Name wiederverwendet, damit sich die
+   * Formularbeschreibung und der Name der Einfügestelle nicht bei jedem Aufruf von
+   * {@link #updateDocument(Map)} ändern. Ansonsten wird wie bisher ein neuer Name
+   * generiert, der noch nicht in mapFunctionNameToConfigThingy vorkommt.
+   */
+  protected String putGeneratedTrafo(
+      Map<String, ConfigThingy> mapFunctionNameToConfigThingy)
+  {
+    if (generatedTrafoName != null
+      && !mapFunctionNameToConfigThingy.containsKey(generatedTrafoName))
+    {
+      ConfigThingy func = trafo.export(generatedTrafoName);
+      if (func.stringRepresentation().equals(generatedTrafoConf))
+      {
+        mapFunctionNameToConfigThingy.put(generatedTrafoName, func);
+        return generatedTrafoName;
+      }
+    }
+
+    int count = 1;
+    String funcName;
+    do
+    {
+      funcName =
+        FM4000AUTO_GENERATED_TRAFO + (count++) + "_" + System.currentTimeMillis();
+    } while (mapFunctionNameToConfigThingy.containsKey(funcName));
+
+    ConfigThingy func = trafo.export(funcName);
+    mapFunctionNameToConfigThingy.put(funcName, func);
+    generatedTrafoName = funcName;
+    generatedTrafoConf = func.stringRepresentation();
+    return funcName;
+  }
+
   /**
    * Liefert den FormularMax4000 zu dem dieses Model gehört.
    * 
@@ -250,16 +250,7 @@ public class InsertionModel4InputUser extends InsertionModel
     else
     // ... ansonsten müssen wir eine neue Funktion machen.
     {
-      int count = 1;
-      String funcName;
-      do
-      {
-        funcName =
-          FM4000AUTO_GENERATED_TRAFO + (count++) + "_" + System.currentTimeMillis();
-      } while (mapFunctionNameToConfigThingy.containsKey(funcName));
-
-      conf.add("FUNCTION").add(funcName);
-      mapFunctionNameToConfigThingy.put(funcName, trafo.export(funcName));
+      conf.add("FUNCTION").add(putGeneratedTrafo(mapFunctionNameToConfigThingy));
     }
 
     String newName = conf.stringRepresentation(false, '\'', false);
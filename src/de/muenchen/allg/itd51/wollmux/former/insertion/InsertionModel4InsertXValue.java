@@ -273,17 +273,7 @@ public class InsertionModel4InsertXValue extends InsertionModel
       else
       // ... ansonsten müssen wir eine neue Funktion machen.
       {
-        int count = 1;
-        String funcName;
-        do
-        {
-          funcName =
-            FM4000AUTO_GENERATED_TRAFO + (count++) + "_"
-              + System.currentTimeMillis();
-        } while (mapFunctionNameToConfigThingy.containsKey(funcName));
-
-        conf.add("TRAFO").add(funcName);
-        mapFunctionNameToConfigThingy.put(funcName, trafo.export(funcName));
+        conf.add("TRAFO").add(putGeneratedTrafo(mapFunctionNameToConfigThingy));
       }
     }
 
@@ -45,6 +45,7 @@ import com.sun.star.uno.UnoRuntime;
 
 import de.muenchen.allg.afid.UNO;
 import de.muenchen.allg.itd51.wollmux.SachleitendeVerfuegung;
+import de.muenchen.allg.itd51.wollmux.SachleitendeVerfuegung.VerfuegungsStruktur;
 import de.muenchen.allg.itd51.wollmux.SachleitendeVerfuegung.VerfuegungspunktInfo;
 import de.muenchen.allg.itd51.wollmux.Workarounds;
 import de.muenchen.allg.itd51.wollmux.XPrintModel;
@@ -142,14 +143,18 @@ public class StandardPrint
       countMax += v.getCopyCount();
     pmod.setPrintProgressMaxValue(countMax);
 
+    // Die Struktur wird nur einmal für alle Verfügungspunkte ermittelt.
+    VerfuegungsStruktur struktur =
+      SachleitendeVerfuegung.scanStruktur(pmod.getTextDocument());
+
     short count = 0;
     for (VerfuegungspunktInfo v : settings)
     {
       if (pmod.isCanceled()) return;
       if (v.getCopyCount() > 0)
       {
-        SachleitendeVerfuegung.printVerfuegungspunkt(pmod, v.verfPunktNr, v.isDraft,
-            v.isOriginal, v.getCopyCount());
+        SachleitendeVerfuegung.printVerfuegungspunkt(pmod, struktur, v.verfPunktNr,
+            v.isDraft, v.isOriginal, v.getCopyCount());
       }
       count += v.getCopyCount();
       pmod.setPrintProgressValue(count);
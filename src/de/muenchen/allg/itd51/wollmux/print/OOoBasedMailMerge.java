@@ -30,14 +30,24 @@
  */
 package de.muenchen.allg.itd51.wollmux.print;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.io.PrintStream;
+import java.io.FilterOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
 import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -149,12 +159,16 @@ public class OOoBasedMailMerge
     File tmpDir = createMailMergeTempdir();
 
     // Datenquelle mit über mailMergeNewSetFormValue simulierten Daten erstellen
-    OOoDataSource ds = new CsvBasedOOoDataSource(tmpDir);
+    CsvBasedOOoDataSource ds = new CsvBasedOOoDataSource(tmpDir);
+    boolean created = false;
     try
     {
       MailMergeNew.mailMergeNewSetFormValue(pmod, ds);
       if (pmod.isCanceled()) return;
       ds.getDataSourceWriter().flushAndClose();
+      LOGGER.debug(L.m("Simulationsdatenquelle mit %1 Datensätzen und %2 Bytes erzeugt",
+        ds.getSize(), ds.dsw.getBytesWritten()));
+      created = ds.getSize() > 0;
     }
     catch (Exception e)
     {
@@ -162,6 +176,16 @@ public class OOoBasedMailMerge
         L.m("OOo-Based-MailMerge: kann Simulationsdatenquelle nicht erzeugen!"), e);
       return;
     }
+    finally
+    {
+      // Bei Abbruch, Fehler oder leerer Datenquelle wird sie nicht mehr benötigt.
+      if (!created)
+      {
+        ds.dsw.close();
+        ds.remove();
+        tmpDir.delete();
+      }
+    }
     if (ds.getSize() == 0)
     {
       InfoDialog.showInfoModal(
@@ -619,7 +643,11 @@ public class OOoBasedMailMerge
 
   /**
    * Implementiert einen DataSourceWriter, der Daten in eine CSV-Datei data.csv in
-   * einem frei wählbaren Zielverzeichnis schreibt.
+   * einem frei wählbaren Zielverzeichnis schreibt. Die Datensätze werden nicht
+   * gesammelt, sondern sofort in die Datei geschrieben. Die Spalten der Kopfzeile
+   * werden mit dem ersten Datensatz festgelegt; Spalten, die erst in späteren
+   * Datensätzen auftauchen, werden bei {@link #flushAndClose()} am Ende jeder Zeile
+   * angefügt.
    * 
    * @author Christoph Lutz (D-III-ITD-D101)
    */
@@ -631,19 +659,36 @@ public class OOoBasedMailMerge
     File csvFile = null;
 
     /**
-     * Sammelt alle über {@link #addDataset(HashMap)} gesetzten Datensätze
+     * Der Writer auf die csv-Datei, der beim ersten Datensatz geöffnet wird.
      */
-    ArrayList<HashMap<String, String>> datasets;
+    private Writer out = null;
 
     /**
-     * Sammelt die Namen aller über {@link #addDataset(HashMap)} gesetzten Spalten.
+     * Zählt die in die csv-Datei geschriebenen Bytes.
      */
-    HashSet<String> columns;
+    private CountingOutputStream counter = null;
 
     /**
-     * Enthält nach einem Aufruf von {@link #getHeaders()} die sortierten Headers.
+     * Die alphabetisch sortierten Spalten der Kopfzeile, die mit dem ersten
+     * Datensatz festgelegt werden.
      */
-    ArrayList<String> headers = null;
+    private List<String> headers = null;
+
+    /**
+     * Die Spalten, die erst nach dem ersten Datensatz aufgetaucht sind, in der
+     * Reihenfolge ihres ersten Auftretens.
+     */
+    private List<String> lateColumns = new ArrayList<>();
+
+    /**
+     * Die Werte der Spalten aus lateColumns je Datensatznummer (beginnend bei 0).
+     */
+    private Map<Integer, Map<String, String>> lateValues = new HashMap<>();
+
+    /**
+     * Die Anzahl der bisher geschriebenen Datensätze.
+     */
+    private int size = 0;
 
     /**
      * Erzeugt einen CSVDataSourceWriter, der die zu erzeugende csv-Datei in
@@ -652,8 +697,6 @@ public class OOoBasedMailMerge
     public CSVDataSourceWriter(File parentDir)
     {
       csvFile = new File(parentDir, TABLE_NAME + ".csv");
-      datasets = new ArrayList<>();
-      columns = new HashSet<>();
     }
 
     /*
@@ -666,7 +709,15 @@ public class OOoBasedMailMerge
     @Override
     public int getSize()
     {
-      return datasets.size();
+      return size;
+    }
+
+    /**
+     * Liefert die Anzahl der bisher in die csv-Datei geschriebenen Bytes zurück.
+     */
+    public long getBytesWritten()
+    {
+      return counter == null ? 0 : counter.count;
     }
 
     /*
@@ -679,8 +730,41 @@ public class OOoBasedMailMerge
     @Override
     public void addDataset(HashMap<String, String> ds) throws Exception
     {
-      datasets.add(ds);
-      columns.addAll(ds.keySet());
+      if (out == null)
+      {
+        headers = new ArrayList<>(ds.keySet());
+        Collections.sort(headers);
+        open();
+        writeLine(headers);
+      }
+
+      for (Map.Entry<String, String> entry : ds.entrySet())
+      {
+        if (Collections.binarySearch(headers, entry.getKey()) < 0)
+        {
+          if (!lateColumns.contains(entry.getKey()))
+          {
+            lateColumns.add(entry.getKey());
+          }
+          Map<String, String> values = lateValues.get(size);
+          if (values == null)
+          {
+            values = new HashMap<>();
+            lateValues.put(size, values);
+          }
+          values.put(entry.getKey(), entry.getValue());
+        }
+      }
+
+      boolean first = true;
+      for (String key : headers)
+      {
+        if (!first) out.write(',');
+        first = false;
+        writeLiteral(ds.get(key));
+      }
+      out.write('\n');
+      ++size;
     }
 
     /*
@@ -692,65 +776,139 @@ public class OOoBasedMailMerge
     @Override
     public void flushAndClose() throws Exception
     {
-      FileOutputStream fos = new FileOutputStream(csvFile);
-      PrintStream p = new PrintStream(fos, true, "UTF-8");
-      p.print(line(getHeaders()));
-      for (HashMap<String, String> ds : datasets)
+      if (out == null)
+      {
+        headers = new ArrayList<>();
+        open();
+        writeLine(headers);
+      }
+      out.close();
+
+      if (!lateColumns.isEmpty())
+      {
+        appendLateColumns();
+      }
+    }
+
+    /**
+     * Schließt die csv-Datei, ohne die Erzeugung abzuschließen, z.B. wenn der
+     * Seriendruck abgebrochen wurde. Fehler beim Schließen werden ignoriert.
+     */
+    public void close()
+    {
+      if (out != null)
       {
-        ArrayList<String> entries = new ArrayList<>();
-        for (String key : getHeaders())
+        try
+        {
+          out.close();
+        }
+        catch (java.io.IOException e)
         {
-          String val = ds.get(key);
-          if (val == null) val = "";
-          entries.add(val);
+          LOGGER.trace("", e);
         }
-        p.print(line(entries));
       }
-      p.close();
+      new File(csvFile.getParentFile(), csvFile.getName() + ".tmp").delete();
     }
 
     /**
-     * Erzeugt die zu dem durch list repräsentierten Datensatz zugehörige
-     * vollständige Textzeile für die csv-Datei.
+     * Öffnet den gepufferten UTF-8-Writer auf die csv-Datei.
+     */
+    private void open() throws java.io.IOException
+    {
+      counter = new CountingOutputStream(new FileOutputStream(csvFile));
+      out = new BufferedWriter(new OutputStreamWriter(counter,
+        StandardCharsets.UTF_8), 64 * 1024);
+    }
+
+    /**
+     * Schreibt die Werte aus list als vollständige Textzeile in die csv-Datei.
      * 
      * @author Christoph Lutz (D-III-ITD-D101)
      */
-    private String line(List<String> list)
+    private void writeLine(List<String> list) throws java.io.IOException
     {
-      StringBuffer buf = new StringBuffer();
+      boolean first = true;
       for (String el : list)
       {
-        if (buf.length() != 0) buf.append(",");
-        buf.append(literal(el));
+        if (!first) out.write(',');
+        first = false;
+        writeLiteral(el);
       }
-      buf.append("\n");
-      return buf.toString();
+      out.write('\n');
     }
 
     /**
-     * Erzeugt ein für die csv-Datei gültiges literal aus dem Wert value und
-     * übernimmt insbesondere das Escaping der Anführungszeichen.
+     * Schreibt den Wert value als für die csv-Datei gültiges literal und übernimmt
+     * insbesondere das Escaping der Anführungszeichen. null wird als leerer Wert
+     * geschrieben.
      * 
      * @author Christoph Lutz (D-III-ITD-D101)
      */
-    private String literal(String value)
+    private void writeLiteral(String value) throws java.io.IOException
     {
-      String esc = value.replaceAll("\"", "\"\"");
-      return "\"" + esc + "\"";
+      out.write('"');
+      if (value != null)
+      {
+        int start = 0;
+        int quote;
+        while ((quote = value.indexOf('"', start)) >= 0)
+        {
+          out.write(value, start, quote - start + 1);
+          out.write('"');
+          start = quote + 1;
+        }
+        out.write(value, start, value.length() - start);
+      }
+      out.write('"');
     }
 
     /**
-     * Liefert eine alphabetisch sortierte Liste alle Spaltennamen zurück, die jemals
-     * über {@link #addDataset(HashMap)} benutzt bzw. gesetzt wurden.
-     * 
-     * @author Christoph Lutz (D-III-ITD-D101)
+     * Schreibt die csv-Datei neu und hängt dabei an jede Zeile die Spalten aus
+     * lateColumns an. Zeilenenden werden nur außerhalb von Anführungszeichen
+     * erkannt, da Werte Zeilenumbrüche enthalten dürfen.
      */
-    private ArrayList<String> getHeaders()
+    private void appendLateColumns() throws java.io.IOException
     {
-      if (headers != null) return headers;
-      headers = new ArrayList<>(columns);
-      Collections.sort(headers);
-      return headers;
+      File tmpFile = new File(csvFile.getParentFile(), csvFile.getName() + ".tmp");
+      try (Reader in = new BufferedReader(new InputStreamReader(
+        new FileInputStream(csvFile), StandardCharsets.UTF_8)))
+      {
+        counter = new CountingOutputStream(new FileOutputStream(tmpFile));
+        out = new BufferedWriter(new OutputStreamWriter(counter,
+          StandardCharsets.UTF_8), 64 * 1024);
+
+        boolean inQuotes = false;
+        int row = -1;
+        int c;
+        while ((c = in.read()) >= 0)
+        {
+          if (c == '"')
+          {
+            inQuotes = !inQuotes;
+          }
+          else if (c == '\n' && !inQuotes)
+          {
+            Map<String, String> values = row < 0 ? null : lateValues.get(row);
+            boolean firstColumn = headers.isEmpty();
+            for (String column : lateColumns)
+            {
+              if (!firstColumn) out.write(',');
+              firstColumn = false;
+              if (row < 0)
+                writeLiteral(column);
+              else
+                writeLiteral(values == null ? null : values.get(column));
+            }
+            ++row;
+          }
+          out.write(c);
+        }
+        out.close();
+      }
+      Files.move(tmpFile.toPath(), csvFile.toPath(),
+        StandardCopyOption.REPLACE_EXISTING);
+      lateColumns.clear();
+      lateValues.clear();
     }
 
     /**
@@ -764,6 +922,33 @@ public class OOoBasedMailMerge
     }
   }
 
+  /**
+   * Ein OutputStream, der die geschriebenen Bytes zählt.
+   */
+  private static class CountingOutputStream extends FilterOutputStream
+  {
+    long count = 0;
+
+    CountingOutputStream(OutputStream out)
+    {
+      super(out);
+    }
+
+    @Override
+    public void write(int b) throws java.io.IOException
+    {
+      out.write(b);
+      ++count;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws java.io.IOException
+    {
+      out.write(b, off, len);
+      count += len;
+    }
+  }
+
   /**
    * Erzeugt das aus origDoc abgeleitete, für den OOo-Seriendruck heranzuziehende
    * Input-Dokument im Verzeichnis tmpDir und nimmt alle notwendigen Anpassungen vor,
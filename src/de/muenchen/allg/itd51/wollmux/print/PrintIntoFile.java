@@ -37,6 +37,10 @@ package de.muenchen.allg.itd51.wollmux.print;
 import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -46,6 +50,7 @@ import java.util.Set;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.sun.star.beans.PropertyState;
 import com.sun.star.beans.PropertyValue;
 import com.sun.star.beans.XPropertySet;
 import com.sun.star.container.NoSuchElementException;
@@ -75,6 +80,8 @@ import de.muenchen.allg.itd51.wollmux.WollMuxFiles;
 import de.muenchen.allg.itd51.wollmux.Workarounds;
 import de.muenchen.allg.itd51.wollmux.core.util.L;
 import de.muenchen.allg.itd51.wollmux.core.util.Utils;
+import de.muenchen.allg.itd51.wollmux.document.ByteBufferInputStream;
+import de.muenchen.allg.itd51.wollmux.document.ByteBufferOutputStream;
 import de.muenchen.allg.ooo.TextDocument;
 
 /**
@@ -93,6 +100,11 @@ public class PrintIntoFile
    */
   private static final String TEMP_DIR_PREFIX = "wollmux-seriendruck-";
 
+  /**
+   * Der Filter, mit dem die angehängten Dokumente zwischengespeichert werden.
+   */
+  private static final String FILTER_NAME = "writer8";
+
   /**
    * Hängt den Inhalt von inputDoc an outputDoc an.
    * 
@@ -112,7 +124,7 @@ public class PrintIntoFile
     // darin
     try
     {
-      String url = storeInTemporaryFile(inputDoc, dest);
+      ByteBuffer data = storeInMemory(inputDoc);
 
       String inputDocFirstPageStyleName = "";
       XEnumeration enu =
@@ -142,6 +154,9 @@ public class PrintIntoFile
         props.setPropertyValue("LoadNumberingStyles", Boolean.TRUE);
         XStyleFamiliesSupplier sfs = UNO.XStyleFamiliesSupplier(outputDoc);
         XStyleLoader loader = UNO.XStyleLoader(sfs.getStyleFamilies());
+        // Die Formate können nur aus einer Datei geladen werden; dies ist nur beim
+        // ersten Anhängen nötig.
+        String url = storeInTemporaryFile(data, dest);
         loader.loadStylesFromURL(url, props.getProps());
 
         XPropertySet inSettings =
@@ -223,8 +238,12 @@ public class PrintIntoFile
       cursor = text.createTextCursorByRange(text.getEnd());
       LOGGER.trace("================= OID dump BEFORE insert ==================");
       dumpOids(outputDoc);
-      UNO.XDocumentInsertable(cursor).insertDocumentFromURL(url,
-        new PropertyValue[] {});
+      UNO.XDocumentInsertable(cursor).insertDocumentFromURL("private:stream",
+        new PropertyValue[] {
+          new PropertyValue("InputStream", -1,
+            new ByteBufferInputStream(data), PropertyState.DIRECT_VALUE),
+          new PropertyValue("FilterName", -1, FILTER_NAME,
+            PropertyState.DIRECT_VALUE) });
       LOGGER.trace("================= OID dump AFTER insert ==================");
       dumpOids(outputDoc);
 
@@ -270,18 +289,14 @@ public class PrintIntoFile
     }
     finally
     {
-      try
+      if (dest[1] != null)
       {
         dest[1].delete();
       }
-      catch (Exception x)
-      {}
-      try
+      if (dest[0] != null)
       {
         dest[0].delete();
       }
-      catch (Exception x)
-      {}
     }
   }
 
@@ -589,11 +604,33 @@ public class PrintIntoFile
   }
 
   /**
-   * Speichert inputDoc in einer temporären Datei und liefert eine UNO-taugliche URL
-   * zu dieser Datei zurück.
+   * Speichert inputDoc im Format {@link #FILTER_NAME} im Speicher, damit es ohne
+   * Umweg über eine temporäre Datei in das Gesamtdokument eingefügt werden kann.
    * 
    * @param inputDoc
    *          das zu speichernde Dokument
+   * @return das gespeicherte Dokument
+   * @throws com.sun.star.io.IOException
+   *           falls was schief geht.
+   */
+  private static ByteBuffer storeInMemory(XTextDocument inputDoc)
+      throws com.sun.star.io.IOException
+  {
+    ByteBufferOutputStream out = new ByteBufferOutputStream();
+    UnoProps arguments = new UnoProps();
+    arguments.setPropertyValue("OutputStream", out);
+    arguments.setPropertyValue("FilterName", FILTER_NAME); // found in
+    // /opt/openoffice.org/share/registry/modules/org/openoffice/TypeDetection/Filter/fcfg_writer_filters.xcu
+    UNO.XStorable(inputDoc).storeToURL("private:stream", arguments.getProps());
+    return out.toByteBuffer();
+  }
+
+  /**
+   * Schreibt data in eine temporäre Datei und liefert eine UNO-taugliche URL zu
+   * dieser Datei zurück.
+   * 
+   * @param data
+   *          das mit {@link #storeInMemory(XTextDocument)} gespeicherte Dokument
    * @param dest
    *          Muss ein 2-elementiges Array sein. dest[0] wird auf ein neu angelegtes
    *          temporäres Verzeichnis gesetzt, temp[1] auf die Datei darin, in der das
@@ -602,51 +639,29 @@ public class PrintIntoFile
    *           falls was schief geht.
    * @throws MalformedURLException
    *           kann eigentlich nicht passieren
-   * @throws com.sun.star.io.IOException
-   *           falls was schief geht.
-   * @author Matthias Benkmann (D-III-ITD 5.1) TESTED
    */
-  private static String storeInTemporaryFile(XTextDocument inputDoc, File[] dest)
-      throws IOException, MalformedURLException, com.sun.star.io.IOException
+  private static String storeInTemporaryFile(ByteBuffer data, File[] dest)
+      throws IOException, MalformedURLException
   {
-    /**
-     * Zuerst inputDoc in eine temporäre Datei schreiben
-     */
-    File tmpDir = new File(System.getProperty("java.io.tmpdir"));
-    if (!tmpDir.isDirectory() && !tmpDir.canWrite())
+    try
     {
-      throw new IOException(
-        L.m(
-          "Temporäres Verzeichnis\n\"%1\"\nexistiert nicht oder kann nicht beschrieben werden!",
-          tmpDir.getPath()));
+      dest[0] = Files.createTempDirectory(TEMP_DIR_PREFIX).toFile();
     }
-
-    for (int i = 0; i < 1000; ++i)
-    {
-      dest[0] = new File(tmpDir, TEMP_DIR_PREFIX + i);
-      if (dest[0].mkdir())
-        break;
-      else
-        dest[0] = null;
-    }
-
-    if (dest[0] == null)
+    catch (IOException x)
     {
       throw new IOException(
-        L.m("Konnte kein temporäres Verzeichnis für die temporären Seriendruckdaten anlegen!"));
+        L.m("Konnte kein temporäres Verzeichnis für die temporären Seriendruckdaten anlegen!"),
+        x);
     }
 
     dest[1] = new File(dest[0], "serienbrief.odt");
-    String url =
-      UNO.getParsedUNOUrl(dest[1].toURI().toURL().toExternalForm()).Complete;
-
-    UnoProps arguments = new UnoProps();
-    arguments.setPropertyValue("Overwrite", Boolean.FALSE);
-    // FilterName setzen auskommentiert, damit OOo automatisch den besten Filter
-    // wählt
-    arguments.setPropertyValue("FilterName", "writer8"); // found in
-    // /opt/openoffice.org/share/registry/modules/org/openoffice/TypeDetection/Filter/fcfg_writer_filters.xcu
-    UNO.XStorable(inputDoc).storeToURL(url, arguments.getProps());
-    return url;
+    try (FileChannel out = FileChannel.open(dest[1].toPath(),
+      StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE))
+    {
+      ByteBuffer buf = data.duplicate();
+      while (buf.hasRemaining())
+        out.write(buf);
+    }
+    return UNO.getParsedUNOUrl(dest[1].toURI().toURL().toExternalForm()).Complete;
   }
 }
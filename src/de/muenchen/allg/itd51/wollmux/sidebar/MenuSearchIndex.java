@@ -0,0 +1,208 @@
+package de.muenchen.allg.itd51.wollmux.sidebar;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+import de.muenchen.allg.itd51.wollmux.core.parser.ConfigThingy;
+
+/**
+ * Suchindex über die Buttons der Menüs für das Suchfeld der Sidebar.
+ *
+ * Der Index wird einmalig aus dem Abschnitt "Menues" der wollmux.conf aufgebaut
+ * und enthält alle Buttons mit LABEL und ACTION. Ein Button passt zu einer
+ * Suche, wenn alle Wörter der Suche ohne Beachtung der Groß-/Kleinschreibung im
+ * LABEL vorkommen (siehe {@link WollMuxSidebarContent#buttonMatches(ConfigThingy,
+ * String[])}). Wird die vorherige Suche nur verlängert, wie es beim Tippen der
+ * Fall ist, werden nur noch deren Treffer durchsucht.
+ */
+class MenuSearchIndex
+{
+  /**
+   * Maximale Anzahl der Treffer, die {@link #search(String)} liefert.
+   */
+  static final int MAX_RESULTS = 50;
+
+  private final List<Entry> entries = new ArrayList<>();
+
+  /**
+   * Die zuletzt gesuchte Zeichenkette in Kleinbuchstaben oder null.
+   */
+  private String lastQuery;
+
+  /**
+   * Alle Treffer der letzten Suche in der Reihenfolge des Index.
+   */
+  private List<Entry> lastMatches = Collections.emptyList();
+
+  /**
+   * Baut den Index über alle Buttons in menues auf.
+   *
+   * @param menues
+   *          Der Abschnitt "Menues" der wollmux.conf oder null.
+   */
+  MenuSearchIndex(ConfigThingy menues)
+  {
+    if (menues == null)
+    {
+      return;
+    }
+
+    for (ConfigThingy button : menues.queryAll("LABEL", 4, true))
+    {
+      String label = button.getString("LABEL", "");
+      if (button.getString("TYPE", "").equals("button") && !label.isEmpty()
+          && button.query("ACTION").count() != 0)
+      {
+        entries.add(new Entry(entries.size(), label, button));
+      }
+    }
+  }
+
+  /**
+   * Liefert höchstens {@link #MAX_RESULTS} Buttons, deren LABEL alle Wörter aus
+   * text enthält. Buttons, deren LABEL mit dem ersten Wort beginnt, werden zuerst
+   * geliefert, dann solche, bei denen alle Wörter am Anfang eines Wortes des LABELs
+   * stehen, danach alle übrigen. Innerhalb dieser Gruppen bleibt die Reihenfolge
+   * der wollmux.conf erhalten.
+   */
+  List<Entry> search(String text)
+  {
+    String query = text.toLowerCase(Locale.ROOT);
+    String[] words = splitWords(query);
+    if (words.length == 0)
+    {
+      lastQuery = null;
+      lastMatches = Collections.emptyList();
+      return Collections.emptyList();
+    }
+
+    // Jedes Wort einer Verlängerung der letzten Suche enthält das entsprechende
+    // Wort der letzten Suche, daher kann es nur weniger Treffer geben.
+    List<Entry> candidates = entries;
+    if (lastQuery != null && query.startsWith(lastQuery))
+    {
+      candidates = lastMatches;
+    }
+
+    List<Entry> matches = new ArrayList<>();
+    for (Entry entry : candidates)
+    {
+      if (entry.matches(words))
+      {
+        matches.add(entry);
+      }
+    }
+    lastQuery = query;
+    lastMatches = matches;
+
+    List<Entry> ranked = new ArrayList<>(matches);
+    ranked.sort(Comparator.comparingInt((Entry e) -> e.rank(words)));
+    return ranked.subList(0, Math.min(ranked.size(), MAX_RESULTS));
+  }
+
+  private static String[] splitWords(String query)
+  {
+    List<String> words = new ArrayList<>();
+    for (String word : query.split("\\s+"))
+    {
+      if (!word.isEmpty())
+      {
+        words.add(word);
+      }
+    }
+    return words.toArray(new String[words.size()]);
+  }
+
+  /**
+   * Ein Button im Index.
+   */
+  static class Entry
+  {
+    private final String key;
+
+    private final String label;
+
+    private final String lowerLabel;
+
+    /**
+     * Die Wörter des LABELs in Kleinbuchstaben.
+     */
+    private final String[] tokens;
+
+    private final ConfigThingy conf;
+
+    Entry(int index, String label, ConfigThingy conf)
+    {
+      this.key = Integer.toString(index);
+      this.label = label;
+      this.lowerLabel = label.toLowerCase(Locale.ROOT);
+      this.tokens = lowerLabel.split("[^\\p{L}\\p{N}]+");
+      this.conf = conf;
+    }
+
+    /**
+     * Liefert einen Schlüssel, der den Button innerhalb des Index eindeutig
+     * bezeichnet.
+     */
+    String getKey()
+    {
+      return key;
+    }
+
+    String getLabel()
+    {
+      return label;
+    }
+
+    /**
+     * Liefert die Beschreibung des Buttons aus der wollmux.conf.
+     */
+    ConfigThingy getConf()
+    {
+      return conf;
+    }
+
+    private boolean matches(String[] words)
+    {
+      for (String word : words)
+      {
+        if (!lowerLabel.contains(word))
+        {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private int rank(String[] words)
+    {
+      if (lowerLabel.startsWith(words[0]))
+      {
+        return 0;
+      }
+      for (String word : words)
+      {
+        if (!startsAnyToken(word))
+        {
+          return 2;
+        }
+      }
+      return 1;
+    }
+
+    private boolean startsAnyToken(String word)
+    {
+      for (String token : tokens)
+      {
+        if (token.startsWith(word))
+        {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+}
@@ -156,6 +156,11 @@ public class WollMuxSidebarContent extends ComponentBase implements XToolPanel,
   private Map<String, UIElementAction> actions;
   private Map<String, UIElementAction> searchActions;
 
+  /**
+   * Index über die Buttons der Menüs für das Suchfeld.
+   */
+  private MenuSearchIndex searchIndex = new MenuSearchIndex(null);
+
   private XTreeControl tree;
 
   private AbstractMouseListener xMouseListener = new AbstractMouseListener()
@@ -292,6 +297,15 @@ public class WollMuxSidebarContent extends ComponentBase implements XToolPanel,
 
           layout.addControl(line, 1);
 
+          try
+          {
+            searchIndex = new MenuSearchIndex(conf.get("Menues"));
+          }
+          catch (NodeNotFoundException e)
+          {
+            LOGGER.debug("", e);
+          }
+
           uiFactory = new UIFactory();
           uiFactory.addElementCreateListener(this);
 
@@ -575,35 +589,26 @@ public class WollMuxSidebarContent extends ComponentBase implements XToolPanel,
 
       if (text.length() > 0)
       {
-        String[] words = text.split("\\s+");
         try
         {
           cmb.removeItems((short) 0, cmb.getItemCount());
-          searchActions.clear();
-
-          ConfigThingy menues = WollMuxFiles.getWollmuxConf().get("Menues");
-          ConfigThingy labels = menues.queryAll("LABEL", 4, true);
 
           int n = 0;
-          for (ConfigThingy l : labels)
+          for (MenuSearchIndex.Entry entry : searchIndex.search(text))
           {
-            ConfigThingy type = l.query("TYPE");
-            if (type.count() != 0 && (type.getLastChild().toString().equals("button") || type.getLastChild().toString().equals("menu")))
+            // Die Aktion wird erst beim ersten Treffer des Buttons erzeugt und
+            // dann wiederverwendet.
+            UIElementAction action = searchActions.get(entry.getKey());
+            if (action == null)
             {
-              ConfigThingy action = l.query("ACTION");
-              if (action.count() != 0)
-              {
-                if (buttonMatches(l, words))
-                {
-                  UIMenuItem item = (UIMenuItem) uiFactory.createUIMenuElement(null, l, "");
-                  items.insertItemText(n, item.getLabel());
-                  UUID uuid = UUID.randomUUID();
-                  searchActions.put(uuid.toString(), item.getAction());
-                  items.setItemData(n, uuid.toString());
-                  n++;
-                }
-              }
+              UIMenuItem item = (UIMenuItem) uiFactory.createUIMenuElement(null,
+                entry.getConf(), "");
+              action = item.getAction();
+              searchActions.put(entry.getKey(), action);
             }
+            items.insertItemText(n, entry.getLabel());
+            items.setItemData(n, entry.getKey());
+            n++;
           }
         }
         catch (Exception e)
@@ -688,8 +693,8 @@ public class WollMuxSidebarContent extends ComponentBase implements XToolPanel,
         XControl ctrl = UnoRuntime.queryInterface(XControl.class, event.Source);
         XItemList items =
           UnoRuntime.queryInterface(XItemList.class, ctrl.getModel());
-        String uuid = (String) items.getItemData(event.Selected);
-        UIElementAction action = searchActions.get(uuid);
+        String key = (String) items.getItemData(event.Selected);
+        UIElementAction action = searchActions.get(key);
         if (action != null)
         {
           action.performAction();